@@ -11,25 +11,26 @@ package com.epimorphics.dclib;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.input.BOMInputStream;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFLanguages;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFWriter;
 
+import com.epimorphics.dclib.framework.Checkpoint;
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.ConverterService;
 import com.epimorphics.dclib.framework.DataContext;
+import com.epimorphics.dclib.framework.DeltaIndex;
+import com.epimorphics.dclib.framework.NTriplesStream;
 import com.epimorphics.dclib.framework.Template;
+import com.epimorphics.dclib.sources.CompressedInput;
 import com.epimorphics.dclib.templates.TemplateFactory;
 import com.epimorphics.tasks.LiveProgressMonitor;
 import com.epimorphics.tasks.ProgressMessage;
@@ -50,6 +51,16 @@ public class Main {
     public static final String NTHREADS_FLAG = "--nThreads";
     public static final String BATCH_FLAG = "--batch";
     public static final String COMPRESS_FLAG = "--compress";
+    public static final String PARALLEL_FLAG = "--parallel";
+    public static final String UNORDERED_FLAG = "--unordered";
+    public static final String PIPELINE_FLAG = "--pipeline";
+    public static final String CHECKPOINT_FLAG = "--checkpoint";
+    public static final String RESUME_FLAG = "--resume";
+    public static final String DELTA_FLAG = "--delta";
+    public static final String DELTA_KEY_FLAG = "--deltaKey";
+    public static final String MEMOIZE_FLAG = "--memoize";
+    public static final String SORT_FLAG = "--sortBy";
+    public static final String TWO_PASS_FLAG = "--twoPass";
     
     public static void main(String[] argsIn) throws IOException {
         CommandArgs cargs = new CommandArgs();
@@ -78,6 +89,91 @@ public class Main {
             cargs.setCompress(true);
             args.remove(COMPRESS_FLAG);
         }
+        if (args.contains(UNORDERED_FLAG)) {
+            cargs.setUnordered(true);
+            args.remove(UNORDERED_FLAG);
+        }
+        if (args.contains(PIPELINE_FLAG)) {
+            cargs.setPipelined(true);
+            args.remove(PIPELINE_FLAG);
+        }
+        if (args.contains(MEMOIZE_FLAG)) {
+            cargs.setMemoize(true);
+            args.remove(MEMOIZE_FLAG);
+        }
+        if (args.contains(TWO_PASS_FLAG)) {
+            cargs.setTwoPass(true);
+            args.remove(TWO_PASS_FLAG);
+        }
+        if (args.contains(RESUME_FLAG)) {
+            cargs.setResume(true);
+            args.remove(RESUME_FLAG);
+        }
+        if (args.contains(CHECKPOINT_FLAG)) {
+            int i = args.indexOf(CHECKPOINT_FLAG);
+            try {
+                cargs.setCheckpointInterval(  Integer.parseInt(args.get(i+1)) );
+                args.remove(i);   // Flag
+                args.remove(i);   // Argument to flag (removing flag shunts it down)
+            } catch (Exception e) {
+                System.err.println("No legal argument for --checkpoint");
+                System.exit(1);
+            }
+            if (cargs.isCompress()) {
+                System.err.println("Can't checkpoint compressed output");
+                System.exit(1);
+            }
+            // Checkpoints need N-Triples streamed to a file
+            cargs.setStreaming(true);
+            cargs.setNtriples(true);
+        }
+        if (args.contains(DELTA_FLAG)) {
+            int i = args.indexOf(DELTA_FLAG);
+            if (i + 1 >= args.size()) {
+                System.err.println("No legal argument for --delta");
+                System.exit(1);
+            }
+            cargs.setDeltaIndex( args.get(i+1) );
+            args.remove(i);   // Flag
+            args.remove(i);   // Argument to flag (removing flag shunts it down)
+            cargs.setStreaming(true);
+        }
+        if (args.contains(DELTA_KEY_FLAG)) {
+            int i = args.indexOf(DELTA_KEY_FLAG);
+            if (i + 1 >= args.size()) {
+                System.err.println("No legal argument for --deltaKey");
+                System.exit(1);
+            }
+            cargs.setDeltaKey( args.get(i+1) );
+            args.remove(i);   // Flag
+            args.remove(i);   // Argument to flag (removing flag shunts it down)
+        }
+        if (args.contains(SORT_FLAG)) {
+            int i = args.indexOf(SORT_FLAG);
+            if (i + 1 >= args.size()) {
+                System.err.println("No legal argument for --sortBy");
+                System.exit(1);
+            }
+            String[] columns = args.get(i+1).split(",");
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = NameUtils.safeVarName( columns[c].trim() );
+            }
+            cargs.setSortBy( columns );
+            args.remove(i);   // Flag
+            args.remove(i);   // Argument to flag (removing flag shunts it down)
+            cargs.setStreaming(true);
+        }
+        if (args.contains(PARALLEL_FLAG)) {
+            int i = args.indexOf(PARALLEL_FLAG);
+            try {
+                cargs.setParallelism(  Integer.parseInt(args.get(i+1)) );
+                args.remove(i);   // Flag
+                args.remove(i);   // Argument to flag (removing flag shunts it down)
+            } catch (Exception e) {
+                System.err.println("No legal argument for --parallel");
+                System.exit(1);
+            }
+        }
         if (args.contains(NTHREADS_FLAG)) {
             int i = args.indexOf(NTHREADS_FLAG);
             try {
@@ -101,8 +197,9 @@ public class Main {
         }
 
         if (batchFile == null && args.size() < 2) {
-            System.err.println("Usage:  java -jar dclib.jar [--debug] [--streaming] [--ntriples] [--abortIfRowFails] template.json ... data.csv");
+            System.err.println("Usage:  java -jar dclib.jar [--debug] [--streaming] [--ntriples] [--abortIfRowFails] [--parallel 4 [--unordered]] [--pipeline] [--memoize] [--sortBy col1,col2] [--twoPass] [--checkpoint 1000000 [--resume]] [--delta index [--deltaKey column]] template.json ... data.csv");
             System.err.println("   or:  java -jar dclib.jar [--debug] [--streaming] [--ntriples] [--abortIfRowFails] [--nThreads 4] [--compress] --batch batchFile");
+            System.err.println("   --delta needs unique --deltaKey values and templates which create no blank nodes");
             System.exit(1);
         }
         
@@ -112,7 +209,8 @@ public class Main {
             for (int i = 1; i < args.size() - 1; i++) {
                 cargs.addAuxTemplate(args.get(i));
             }
-            Command command = new Command(cargs, templateName, dataFile, System.out);
+            // Checkpointed output has to go to a file
+            Command command = new Command(cargs, templateName, dataFile, cargs.getCheckpointInterval() > 0 ? null : System.out);
             if (!command.call()) {
                 System.exit(1);
             }
@@ -152,6 +250,8 @@ public class Main {
         String dataFile;
         String templateName;
         OutputStream out;
+        File checkpointFile;
+        Checkpoint checkpoint;
         
         public Command(CommandArgs args, String templateName, String dataFile, OutputStream out) {
             this.args = args;
@@ -166,11 +266,20 @@ public class Main {
         
         private void openOutputStream() throws IOException {
             if (out == null) {
-                String outf = dataFile.replaceFirst("\\.csv$", "");
+                String outf = CompressedInput.removeCompressionExtension(dataFile).replaceFirst("\\.csv$", "");
                 outf += args.isNtriples() ? ".nt" : ".ttl";
                 if (args.isCompress()) {
                     outf += ".gz";
                 }
+                if (args.getCheckpointInterval() > 0) {
+                    checkpointFile = new File(outf + ".checkpoint");
+                    if (args.isResume() && checkpointFile.exists()) {
+                        checkpoint = Checkpoint.load(checkpointFile);
+                        out = checkpoint.openOutput( new File(outf) );
+                        System.err.println("Resuming " + dataFile + " from line " + checkpoint.getLineNumber());
+                        return;
+                    }
+                }
                 out = new FileOutputStream(outf);
                 if (args.isCompress()) {
                     out = new GZIPOutputStream(out);
@@ -185,6 +294,10 @@ public class Main {
                 openOutputStream();
                 
                 ConverterService service = new ConverterService();
+                service.setParallelism( args.getParallelism() );
+                service.setPipelined( args.isPipelined() );
+                service.setMemoize( args.isMemoize() );
+                service.setTwoPass( args.isTwoPass() );
                 DataContext dc = service.getDataContext();
                 for(String template : args.getAuxTemplates()) {
                     Template aux = TemplateFactory.templateFrom(template, dc);
@@ -199,22 +312,61 @@ public class Main {
                     
                     File dataFileF = new File(dataFile);
                     String filename = dataFileF.getName();
-                    String filebasename = NameUtils.removeExtension(filename);
+                    String filebasename = NameUtils.removeExtension( CompressedInput.removeCompressionExtension(filename) );
                     dc.getGlobalEnv().put(ConverterProcess.FILE_NAME, filename);
                     dc.getGlobalEnv().put(ConverterProcess.FILE_BASE_NAME, filebasename);
-                    InputStream is = new BOMInputStream( new FileInputStream(dataFileF) );
-                    
-                    ConverterProcess process = new ConverterProcess(dc, is);
+                    ConverterProcess process = ConverterProcess.forFile(dc, dataFileF);
                     process.setDebug( args.isDebug() );
                     process.setTemplate( template );
                     process.setMessageReporter( reporter );
                     process.setAllowNullRows( !args.isNullRowAborts() );
+                    process.setParallelism( args.getParallelism() );
+                    process.setUnordered( args.isUnordered() );
+                    process.setPipelined( args.isPipelined() );
+                    process.setMemoize( args.isMemoize() );
+                    process.setTwoPass( args.isTwoPass() );
+                    if (args.getSortBy() != null) {
+                        process.setSortBy( args.getSortBy() );
+                    }
                     
-                    StreamRDF stream = StreamRDFWriter.getWriterStream(out,  args.isNtriples() ? Lang.NTRIPLES : Lang.TURTLE);
+                    StreamRDF stream;
+                    if (checkpointFile != null) {
+                        stream = new NTriplesStream(out, checkpoint == null ? 0 : checkpoint.getOutputPosition());
+                        process.setCheckpointing(checkpointFile, args.getCheckpointInterval());
+                        if (checkpoint != null) {
+                            process.setResumeFrom(checkpoint);
+                        }
+                    } else {
+                        stream = StreamRDFWriter.getWriterStream(out,  args.isNtriples() ? Lang.NTRIPLES : Lang.TURTLE);
+                    }
                     process.setOutputStream( stream );
                     
+                    OutputStream removedOut = null;
+                    StreamRDF removed = null;
+                    if (args.getDeltaIndex() != null) {
+                        // Triples no longer generated go to a parallel "removed" file
+                        File indexFile = new File( args.getDeltaIndex() );
+                        DeltaIndex previous = indexFile.exists() ? DeltaIndex.load(indexFile) : null;
+                        File previousData = (previous == null || previous.getSource() == null) ? null : new File(previous.getSource());
+                        String removedFile = CompressedInput.removeCompressionExtension(dataFile).replaceFirst("\\.csv$", "") 
+                                + ".removed" + (args.isNtriples() ? ".nt" : ".ttl");
+                        removedOut = new FileOutputStream(removedFile);
+                        removed = StreamRDFWriter.getWriterStream(removedOut,  args.isNtriples() ? Lang.NTRIPLES : Lang.TURTLE);
+                        process.setDelta(previous, previousData, args.getDeltaKey(), removed);
+                    }
+                    
                     succeeded = process.process();
                     stream.finish();
+                    if (succeeded && checkpointFile != null) {
+                        checkpointFile.delete();
+                    }
+                    if (removed != null) {
+                        removed.finish();
+                        removedOut.close();
+                        if (succeeded) {
+                            process.getDeltaIndex().save( new File(args.getDeltaIndex()) );
+                        }
+                    }
                     
                 } else {
                     Model m = service.simpleConvert(templateName, dataFile, reporter, args.isDebug(), !args.isNullRowAborts());
@@ -250,7 +402,77 @@ public class Main {
         int nThreads = 4;
         List<String> auxTemplates = new ArrayList<>();
         boolean compress = false;
+        int parallelism = 1;
+        boolean unordered = false;
+        boolean pipelined = false;
+        boolean memoize = false;
+        boolean twoPass = false;
+        String[] sortBy;
+        int checkpointInterval = 0;
+        boolean resume = false;
+        String deltaIndex;
+        String deltaKey;
         
+        public String getDeltaIndex() {
+            return deltaIndex;
+        }
+        public void setDeltaIndex(String deltaIndex) {
+            this.deltaIndex = deltaIndex;
+        }
+        public String getDeltaKey() {
+            return deltaKey;
+        }
+        public void setDeltaKey(String deltaKey) {
+            this.deltaKey = deltaKey;
+        }
+        public int getCheckpointInterval() {
+            return checkpointInterval;
+        }
+        public void setCheckpointInterval(int checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+        }
+        public boolean isResume() {
+            return resume;
+        }
+        public void setResume(boolean resume) {
+            this.resume = resume;
+        }
+        public boolean isMemoize() {
+            return memoize;
+        }
+        public void setMemoize(boolean memoize) {
+            this.memoize = memoize;
+        }
+        public boolean isTwoPass() {
+            return twoPass;
+        }
+        public void setTwoPass(boolean twoPass) {
+            this.twoPass = twoPass;
+        }
+        public String[] getSortBy() {
+            return sortBy;
+        }
+        public void setSortBy(String[] sortBy) {
+            this.sortBy = sortBy;
+        }
+        public boolean isPipelined() {
+            return pipelined;
+        }
+        public void setPipelined(boolean pipelined) {
+            this.pipelined = pipelined;
+        }
+        public int getParallelism() {
+            return parallelism;
+        }
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+        public boolean isUnordered() {
+            return unordered;
+        }
+        public void setUnordered(boolean unordered) {
+            this.unordered = unordered;
+        }
         public boolean isCompress() {
             return compress;
         }
@@ -62,12 +62,21 @@ public class BindingEnv extends HashMap<String, Object> implements Map<String, O
      * if there is an inherited value further up the chain).
      */
     public Object getLocal(String name) {
-        return super.get(name);
+        return lookupLocal(name);
+    }
+    
+    /**
+     * Return the binding for a key in this environment, ignoring the 
+     * parent chain. Subclasses with other storage for bindings extend this.
+     */
+    protected Object lookupLocal(Object key) {
+        // Many environments in a chain are empty, skip the hash lookup for those
+        return super.isEmpty() ? null : super.get(key);
     }
     
     // Sometimes the java type system just seems to work against you
     private Object doGet(Object key) {
-        Object v = super.get(key);
+        Object v = lookupLocal(key);
         if (v == null && parent != null) {
             return parent.get(key);
         } else if (v instanceof ValueNull) {
@@ -90,6 +99,22 @@ public class BindingEnv extends HashMap<String, Object> implements Map<String, O
         this.parent = parent;
     }
     
+    /**
+     * Return an object which identifies the row this environment is binding,
+     * the same for any extensions which share the row
+     */
+    public Object getRowToken() {
+        return this;
+    }
+    
+    /**
+     * Create a child environment for local bindings which should not 
+     * be visible in this environment.
+     */
+    public BindingEnv extend() {
+        return new BindingEnv(this);
+    }
+    
     /**
      * Iterate over all keys up the whole environment
      */
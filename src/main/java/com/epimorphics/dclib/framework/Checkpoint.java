@@ -0,0 +1,145 @@
+/******************************************************************
+ * File:        Checkpoint.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.apache.jena.graph.Node;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Records how far a conversion has got so that it can be resumed. Holds the
+ * position of the next unconverted record in the source, its line number,
+ * the length of the output written so far and any template state (such as 
+ * the ancestors tracked by a hierarchy template). 
+ * <p>
+ * Template state can only be saved if it is null or an array of Nodes.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class Checkpoint {
+    protected static final String OFFSET = "offset";
+    protected static final String LINE = "line";
+    protected static final String OUTPUT = "output";
+    protected static final String STATE_SIZE = "state.size";
+    protected static final String STATE = "state.";
+    
+    protected long offset;
+    protected int lineNumber;
+    protected long outputPosition;
+    protected Object state;
+    
+    public Checkpoint(long offset, int lineNumber, long outputPosition, Object state) {
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+        this.outputPosition = outputPosition;
+        this.state = state;
+    }
+    
+    /**
+     * Test if template state can be saved in a checkpoint
+     */
+    public static boolean canSave(Object state) {
+        return state == null || state instanceof Node[];
+    }
+    
+    /**
+     * Write the checkpoint, replacing any existing checkpoint in the 
+     * file only once the new one is complete.
+     */
+    public void save(File file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(OFFSET, Long.toString(offset));
+        props.setProperty(LINE, Integer.toString(lineNumber));
+        props.setProperty(OUTPUT, Long.toString(outputPosition));
+        if (state != null) {
+            Node[] nodes = (Node[]) state;
+            props.setProperty(STATE_SIZE, Integer.toString(nodes.length));
+            for (int i = 0; i < nodes.length; i++) {
+                props.setProperty(STATE + i, NodeCodec.encode(nodes[i]));
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            props.store(out, "dclib conversion checkpoint");
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Read a checkpoint from a file
+     */
+    public static Checkpoint load(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        try {
+            Node[] state = null;
+            String size = props.getProperty(STATE_SIZE);
+            if (size != null) {
+                state = new Node[ Integer.parseInt(size) ];
+                for (int i = 0; i < state.length; i++) {
+                    state[i] = NodeCodec.decode( props.getProperty(STATE + i, "") );
+                }
+            }
+            return new Checkpoint(
+                    Long.parseLong( props.getProperty(OFFSET) ),
+                    Integer.parseInt( props.getProperty(LINE) ),
+                    Long.parseLong( props.getProperty(OUTPUT) ),
+                    state);
+        } catch (RuntimeException e) {
+            throw new EpiException("Badly formed checkpoint file: " + file, e);
+        }
+    }
+    
+    /**
+     * Open an output file to continue writing from this checkpoint. Anything
+     * written after the checkpoint was taken is discarded.
+     */
+    public OutputStream openOutput(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() < outputPosition) {
+                throw new EpiException("Output file " + file + " is shorter than the checkpoint records");
+            }
+            channel.truncate(outputPosition);
+        }
+        return new FileOutputStream(file, true);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getOutputPosition() {
+        return outputPosition;
+    }
+
+    public Object getState() {
+        return state;
+    }
+}
@@ -0,0 +1,29 @@
+/******************************************************************
+ * File:        Checkpointable.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.io.IOException;
+
+import org.apache.jena.riot.system.StreamRDF;
+
+/**
+ * An output stream whose position can be recorded in a checkpoint
+ * so that a resumed conversion can truncate and append to it.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public interface Checkpointable extends StreamRDF {
+
+    /**
+     * Flush all output so far to the underlying storage and return the
+     * number of bytes written.
+     */
+    public long sync() throws IOException;
+}
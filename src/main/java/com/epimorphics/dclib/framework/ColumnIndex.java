@@ -0,0 +1,150 @@
+/******************************************************************
+ * File:        ColumnIndex.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.values.ColumnType;
+import com.epimorphics.dclib.values.Value;
+import com.epimorphics.dclib.values.ValueFactory;
+
+/**
+ * Maps the column names of a data source to slot positions in a
+ * {@link RowBindingEnv}. Built once per conversion and shared by all rows.
+ * Slots for the columns are in header order, followed by slots for any
+ * additional per-row names (such as <code>$row</code>). If a column name
+ * is repeated the last such column is the one that is visible.
+ * <p>
+ * Also records the {@link ColumnType} of each column, whether declared
+ * by the template or inferred from the data, so that cell values can be
+ * typed without sniffing every value.
+ * </p>
+ * <p>
+ * Each header column has a {@link ValueInterner} so that repeated cell
+ * text in categorical columns shares a single value.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ColumnIndex {
+    protected final String[] names;
+    protected final int headerCount;
+    protected final Map<String, Integer> slots;
+    protected volatile ColumnType[] types;   // Null if all columns are AUTO
+    protected volatile ValueInterner[] interners;  // Only for the header columns, null if not interning
+
+    public ColumnIndex(String[] headers, String... extraNames) {
+        names = new String[headers.length + extraNames.length];
+        headerCount = headers.length;
+        System.arraycopy(headers, 0, names, 0, headers.length);
+        System.arraycopy(extraNames, 0, names, headers.length, extraNames.length);
+        slots = new HashMap<>( names.length * 2 );
+        for (int i = 0; i < names.length; i++) {
+            slots.put(names[i], i);
+        }
+        setInterning(true);
+    }
+
+    /**
+     * Return the slot for the given name or -1 if it is not indexed
+     */
+    public int slotOf(Object name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Return the name for the slot
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * True if the slot is the one which is visible for its name
+     */
+    public boolean isVisible(int slot) {
+        return slots.get(names[slot]) == slot;
+    }
+
+    /**
+     * Set the type of the column in the given slot
+     */
+    public synchronized void setType(int slot, ColumnType type) {
+        ColumnType[] newTypes = new ColumnType[ names.length ];
+        if (types == null) {
+            Arrays.fill(newTypes, ColumnType.AUTO);
+        } else {
+            System.arraycopy(types, 0, newTypes, 0, names.length);
+        }
+        newTypes[slot] = type;
+        types = newTypes;
+        ValueInterner[] current = interners;
+        if (current != null && slot < current.length) {
+            // Cached values may have been typed differently
+            ValueInterner[] newInterners = current.clone();
+            newInterners[slot] = new ValueInterner(type);
+            interners = newInterners;
+        }
+    }
+
+    /**
+     * Return the type of the column in the given slot
+     */
+    public ColumnType getType(int slot) {
+        ColumnType[] t = types;
+        return t == null ? ColumnType.AUTO : t[slot];
+    }
+
+    /**
+     * Convert a raw cell value for the given slot according to its column type
+     */
+    public Value asValue(int slot, String string) {
+        ColumnType[] t = types;
+        return t == null ? ValueFactory.asValue(string) : ValueFactory.asValue(string, t[slot]);
+    }
+
+    /**
+     * Convert a field of a record, which is bound to the given slot, reusing
+     * values for repeated cell text where the column looks categorical
+     */
+    public Value asValue(int slot, CSVRecord record) {
+        ValueInterner[] ints = interners;
+        if (ints != null && slot < ints.length && record.isRaw(slot)) {
+            return ints[slot].lookup(record, slot);
+        }
+        return asValue(slot, record.getTrimmedField(slot));
+    }
+
+    /**
+     * Switch interning of column values on or off, on by default
+     */
+    public synchronized void setInterning(boolean interning) {
+        if (!interning) {
+            interners = null;
+        } else if (interners == null) {
+            ValueInterner[] newInterners = new ValueInterner[ headerCount ];
+            for (int i = 0; i < headerCount; i++) {
+                newInterners[i] = new ValueInterner( getType(i) );
+            }
+            interners = newInterners;
+        }
+    }
+
+    /**
+     * Total number of slots
+     */
+    public int size() {
+        return names.length;
+    }
+}
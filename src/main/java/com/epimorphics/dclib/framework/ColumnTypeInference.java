@@ -0,0 +1,101 @@
+/******************************************************************
+ * File:        ColumnTypeInference.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.values.ColumnType;
+import com.epimorphics.dclib.values.LexicalScanner;
+
+/**
+ * Infers the types of data columns from the first N rows seen. Once enough
+ * rows have been seen then each column whose non-empty values were all
+ * numbers, all dates or all plain strings is fixed to that type in the
+ * {@link ColumnIndex}, so later values in that column are not sniffed.
+ * Columns with mixed or no values, or which already have a declared type,
+ * are left alone.
+ * <p>
+ * This is a heuristic. A later value which does not fit the inferred type
+ * is treated as a string, so a string column with an occasional number
+ * will type that number differently from a full scan.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ColumnTypeInference {
+    protected static final int NUMBER = 1;
+    protected static final int DATE   = 2;
+    protected static final int STRING = 4;
+
+    protected final ColumnIndex columns;
+    protected final int limit;
+    protected final int[] seen;       // Bit set of kinds of value seen in each column
+    protected int rows = 0;
+    protected volatile boolean done = false;
+
+    public ColumnTypeInference(ColumnIndex columns, int rows) {
+        this.columns = columns;
+        this.limit = rows;
+        this.seen = new int[ columns.size() ];
+    }
+
+    /**
+     * Note the values in the first n fields of a data record
+     */
+    public void observe(CSVRecord record, int n) {
+        if (done) return;
+        synchronized (this) {
+            if (done) return;
+            for (int i = 0; i < n; i++) {
+                String value = record.getTrimmedField(i);
+                if ( !value.isEmpty() ) {
+                    int kind = LexicalScanner.classify(value);
+                    if (LexicalScanner.isNumber(kind)) {
+                        seen[i] |= NUMBER;
+                    } else if (LexicalScanner.isDate(kind)) {
+                        seen[i] |= DATE;
+                    } else {
+                        seen[i] |= STRING;
+                    }
+                }
+            }
+            if (++rows >= limit) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Fix the types of columns based on the rows seen so far
+     */
+    public synchronized void finish() {
+        if (done) return;
+        for (int i = 0; i < seen.length; i++) {
+            if (columns.getType(i) != ColumnType.AUTO) continue;
+            switch (seen[i]) {
+            case NUMBER:
+                columns.setType(i, ColumnType.NUMBER);
+                break;
+            case DATE:
+                columns.setType(i, ColumnType.DATE);
+                break;
+            case STRING:
+                columns.setType(i, ColumnType.STRING);
+                break;
+            default:
+                break;
+            }
+        }
+        done = true;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+}
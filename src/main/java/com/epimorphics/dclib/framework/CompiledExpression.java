@@ -0,0 +1,125 @@
+/******************************************************************
+ * File:        CompiledExpression.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A pattern expression which has been compiled by {@link ExpressionCompiler}
+ * into a tree of direct evaluation steps. Evaluates to the same result as the
+ * JEXL expression it replaces, including returning null where the silent,
+ * non-strict, JEXL engine would have suppressed an error.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CompiledExpression {
+    protected final String source;
+    protected final ExpressionCompiler.Term root;
+    protected final Set<String> variables = new HashSet<>();
+    protected final Set<String> required = new HashSet<>();
+
+    protected CompiledExpression(String source, ExpressionCompiler.Term root) {
+        this.source = source;
+        this.root = root;
+        root.variables(variables);
+        root.required(required);
+    }
+
+    /**
+     * Return the names of all the variables the expression references
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Return the names of the variables which must be bound for the expression
+     * to have a non-null value. Missing any one of these the expression is
+     * bound to evaluate to null.
+     */
+    public Set<String> getRequiredVariables() {
+        return required;
+    }
+
+    /**
+     * True if the expression might evaluate to a ValueError
+     */
+    public boolean mayFail() {
+        return root.mayFail();
+    }
+
+    /**
+     * True if the result only depends on the values of the variables, and on
+     * lookups in the map sources given by {@link #getMapSources()}, and evaluation
+     * has no side effects. Such expressions can be memoized.
+     */
+    public boolean isPure() {
+        return root.isPure();
+    }
+
+    /**
+     * True if the expression is just a variable or constant
+     */
+    public boolean isSimple() {
+        return root instanceof ExpressionCompiler.Variable || root instanceof ExpressionCompiler.Constant;
+    }
+
+    /**
+     * If the expression is just a test of a variable against a string constant,
+     * such as {@code type == 'X'}, return the variable name and the constant,
+     * otherwise return null
+     */
+    public String[] getEqualityTest() {
+        if (root instanceof ExpressionCompiler.Equals) {
+            ExpressionCompiler.Equals test = (ExpressionCompiler.Equals)root;
+            if (!test.negate) {
+                String[] result = equalityTest(test.left, test.right);
+                return result == null ? equalityTest(test.right, test.left) : result;
+            }
+        }
+        return null;
+    }
+
+    private static String[] equalityTest(ExpressionCompiler.Term var, ExpressionCompiler.Term value) {
+        if (var instanceof ExpressionCompiler.Variable && value instanceof ExpressionCompiler.Constant) {
+            Object constant = ((ExpressionCompiler.Constant)value).value;
+            if (constant instanceof String) {
+                return new String[]{ ((ExpressionCompiler.Variable)var).name, (String)constant };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the names of the map sources used by map lookups in the expression
+     */
+    public Set<String> getMapSources() {
+        Set<String> sources = new HashSet<>();
+        root.mapSources(sources);
+        return sources;
+    }
+
+    /**
+     * Evaluate the expression in the given binding environment, may return null
+     */
+    public Object evaluate(BindingEnv env) {
+        try {
+            return root.eval(env);
+        } catch (ExpressionCompiler.Abort e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -9,9 +9,28 @@
 
 package com.epimorphics.dclib.framework;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map.Entry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.jena.riot.RDFDataMgr;
@@ -22,8 +41,16 @@ import org.apache.jena.riot.system.stream.StreamManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.epimorphics.dclib.sources.CSVChunk;
 import com.epimorphics.dclib.sources.CSVInput;
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.sources.CSVSorter;
+import com.epimorphics.dclib.sources.CompressedInput;
+import com.epimorphics.dclib.sources.CSVTokenizer;
+import com.epimorphics.dclib.templates.HierarchyIndex;
+import com.epimorphics.dclib.templates.HierarchyTemplate;
 import com.epimorphics.dclib.templates.TemplateBase;
+import com.epimorphics.dclib.values.ColumnType;
 import com.epimorphics.dclib.values.Row;
 import com.epimorphics.dclib.values.ValueDate;
 import com.epimorphics.dclib.values.ValueFactory;
@@ -42,7 +69,8 @@ import org.apache.jena.rdf.model.ModelFactory;
 /**
  * An instance of a converter running on a specific data configuration.
  * Provides access to all the context information, data, mapping sources
- * and output configuration required. Not thread safe.
+ * and output configuration required. Not thread safe, though if the template
+ * allows it rows can be converted on a pool of worker threads, see {@link #setParallelism(int)}.
  * 
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
@@ -65,20 +93,44 @@ public class ConverterProcess {
     private static final DataContext defaultDC = new DataContext();
 
     protected int BATCH_SIZE = 1000;
+    protected int PARALLEL_BATCH_SIZE = 200;
+    protected long CHUNK_SIZE = CSVChunk.DEFAULT_CHUNK_SIZE;
+    protected int PIPELINE_DEPTH = 8;    // Number of row batches which can be queued between pipeline stages
     protected DataContext dataContext;
     protected ProgressMonitorReporter messageReporter = new SimpleProgressMonitor();
     
     protected CSVInput dataSource;
+    protected ColumnIndex columns;  // Maps the data columns to slots in each row environment
+    protected File sourceFile;     // Optional, allows the data to be split into chunks for parallel reading
+    protected int lineCount = -1;  // Set if the data was read other than through the dataSource
+    protected int inferTypeRows = 0;
+    protected ColumnTypeInference typeInference;
 
     protected boolean debug = false;
     protected boolean allowNullRows = true;
+    protected int parallelism = 1;
+    protected boolean unordered = false;
+    protected boolean pipelined = false;
+    protected boolean memoize = false;
+    protected final Map<Pattern, PatternMemo> memos = new ConcurrentHashMap<>();
+    protected String[] sortBy;
+    protected File sortedFile;     // Temporary sorted copy of the data, if sorting
+    protected boolean twoPass = false;
+    protected HierarchyIndex hierarchyIndex;   // Ancestors of each row, found by the first pass of a two pass conversion
+    protected File checkpointFile;
+    protected int checkpointInterval = 0;
+    protected Checkpoint resumeFrom;
+    protected DeltaConversion delta;
     
     protected Template template;
+    protected ExecutionPlan plan;      // Template tree resolved at the start of process()
     protected BindingEnv env;
     protected Object state;  // Template - specific state information
     
     protected StreamRDF   outputStream;
     protected Model  result;   // May not be used if the stream is set directly  
+    protected boolean outputToModel = false;   // True if outputStream just adds to the result model
+    protected final ThreadLocal<StreamRDF> threadOutput = new ThreadLocal<>();  // Per-thread redirection of outputStream
     
     protected LRUMap fetchCache = new LRUMap(MAX_FETCH_CACHE);
     
@@ -104,7 +156,7 @@ public class ConverterProcess {
         try {
             if (data != null) {
                 // This is the normal path, null input is normally only used in testing
-                dataSource = new CSVInput( data );
+                setDataSource( new CSVInput( data ) );
             }
 
             // Default is to converter into an in-memory model, can override by setting explicit StreamRDF dest
@@ -118,6 +170,33 @@ public class ConverterProcess {
         }
     }
     
+    /**
+     * Create a process to convert a CSV file. The file is tokenized through memory
+     * mapped windows and, for parallel conversions, can be split into chunks.
+     * Compressed files are decompressed on the fly, they cannot be split.
+     */
+    public static ConverterProcess forFile(DataContext context, File data) {
+        ConverterProcess process = new ConverterProcess(context, (InputStream)null);
+        try {
+            if (CompressedInput.isCompressed(data)) {
+                process.setDataSource( new CSVInput( new CSVTokenizer( CompressedInput.open(data) ) ) );
+            } else {
+                process.setDataSource( new CSVInput( new CSVTokenizer(data) ) );
+                process.sourceFile = data;
+            }
+        } catch (Exception e) {
+            process.messageReporter.reportError("Failed to read headerline of data");
+            process.close();
+            throw new EpiException("Failed to open data or read header line");
+        }
+        return process;
+    }
+    
+    protected void setDataSource(CSVInput source) {
+        dataSource = source;
+        columns = new ColumnIndex(source.getHeaders(), ROW_OBJECT_NAME);
+    }
+    
     /**
      * Return the current, thread specific, instance of the converter process
      */
@@ -152,18 +231,238 @@ public class ConverterProcess {
     public void setAllowNullRows(boolean allowed) {
         this.allowNullRows = allowed;
     }
+    
+    /**
+     * Set the number of worker threads used to convert rows. Rows are still read
+     * in sequence but are converted in batches on a pool of workers, the resulting 
+     * triples are merged back into the output stream in input order (unless 
+     * {@link #setUnordered(boolean)} is set). Templates which depend on the order of 
+     * the rows (e.g. hierarchies) are always run on a single thread.
+     */
+    public void setParallelism(int nThreads) {
+        this.parallelism = nThreads;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set to true to allow the output of a parallel conversion to be written
+     * in whatever order the row batches complete.
+     */
+    public void setUnordered(boolean unordered) {
+        this.unordered = unordered;
+    }
+    
+    /**
+     * Set to true to run reading, conversion and output on separate threads,
+     * linked by bounded queues, so that parsing the source and serializing the
+     * results overlap with template evaluation. Rows are still converted one
+     * at a time in order so this works for all templates. This mode is also used
+     * if parallel conversion is requested but the template requires ordered rows.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+    
+    /**
+     * Set to true to memoize the results of pure pattern expressions, so that
+     * repeated combinations of input values are only computed once.
+     * See {@link #getMemo(Pattern)}.
+     */
+    public void setMemoize(boolean memoize) {
+        this.memoize = memoize;
+    }
+    
+    public boolean isMemoize() {
+        return memoize;
+    }
+    
+    /**
+     * Return this process's memo of results for a pure pattern, creating it if necessary.
+     * Each process has its own memos so concurrent conversions don't disturb each other.
+     */
+    public PatternMemo getMemo(Pattern pattern) {
+        PatternMemo memo = memos.get(pattern);
+        if (memo == null) {
+            memo = pattern.createMemo(this);
+            PatternMemo prior = memos.putIfAbsent(pattern, memo);
+            if (prior != null) {
+                memo = prior;
+            }
+        }
+        return memo;
+    }
+    
+    /**
+     * Sort the data rows by the given (sanitized) column names before converting them,
+     * spilling to temporary files if necessary. Overrides any sort columns declared
+     * by a top level hierarchy template. Line numbers in messages then refer to the
+     * sorted data.
+     */
+    public void setSortBy(String... columns) {
+        this.sortBy = columns;
+    }
+    
+    /**
+     * Set to true to allow a top level hierarchy template to be converted in parallel.
+     * A first pass over the data finds the ancestors of each row, then the rows
+     * are converted in parallel as normal. Requires an uncompressed source file.
+     */
+    public void setTwoPass(boolean twoPass) {
+        this.twoPass = twoPass;
+    }
+    
+    /**
+     * Set the number of rows handed to a worker thread at a time in parallel mode,
+     * or passed between stages in pipelined mode
+     */
+    public void setParallelBatchSize(int size) {
+        PARALLEL_BATCH_SIZE = size;
+    }
+    
+    /**
+     * Record the file from which the data is being read. In parallel mode this
+     * allows the file to be split into chunks at record boundaries which are then 
+     * read and converted independently, instead of all rows being read by one thread.
+     * The file must not be compressed.
+     */
+    public void setSourceFile(File file) {
+        this.sourceFile = file;
+    }
+    
+    /**
+     * Periodically record how far the conversion has got, so that it can be resumed
+     * if it fails. Requires the output stream to be {@link Checkpointable}, such as
+     * an {@link NTriplesStream}. Checkpointed conversions are run sequentially.
+     * The checkpoint file is left in place, the caller should remove it once the
+     * output is safely complete.
+     * @param file the file to hold the checkpoint
+     * @param interval the number of rows between checkpoints
+     */
+    public void setCheckpointing(File file, int interval) {
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+    }
+    
+    /**
+     * Resume a conversion from a checkpoint. Any output from the template preamble
+     * is suppressed, then the source is positioned at the first row not covered 
+     * by the checkpoint. The output stream should already be positioned to continue
+     * from the checkpoint (see {@link Checkpoint#openOutput(File)}).
+     */
+    public void setResumeFrom(Checkpoint checkpoint) {
+        this.resumeFrom = checkpoint;
+    }
+    
+    /**
+     * Only convert rows which are new or have changed since a previous run, see 
+     * {@link DeltaConversion}. Triples which are no longer generated are sent to 
+     * the removed stream. Delta conversions are run sequentially and require the
+     * source to be an uncompressed file. 
+     * @param previous the index saved from the previous run, or null to convert everything
+     * @param previousData the source file for the previous run
+     * @param keyColumn the column which identifies rows, or null to identify rows by their content
+     * @param removed the stream to receive removed triples
+     */
+    public void setDelta(DeltaIndex previous, File previousData, String keyColumn, StreamRDF removed) {
+        delta = new DeltaConversion(this, previous, previousData, keyColumn, removed);
+    }
+    
+    /**
+     * Return the index of the rows converted by a delta conversion, which
+     * can be saved for the next run
+     */
+    public DeltaIndex getDeltaIndex() {
+        return delta == null ? null : delta.getIndex();
+    }
+    
+    /**
+     * Set the target size, in bytes, of the chunks read by each worker when
+     * converting a source file in parallel.
+     */
+    public void setChunkSize(long size) {
+        CHUNK_SIZE = size;
+    }
+
+    /**
+     * Infer the types of data columns from the first N rows, so that values in
+     * columns which look uniformly numeric, date or string need not be checked 
+     * individually. Set to 0 (the default) to check every value.
+     */
+    public void setTypeInference(int rows) {
+        inferTypeRows = rows;
+    }
+    
+    /**
+     * Apply any column types declared by the templates of the plan and set up
+     * inference for the remaining columns. Templates reached through references or
+     * composites may declare types too. A column declared with different types by
+     * different templates is left undeclared, since no one type suits them all.
+     */
+    protected void configureColumnTypes() {
+        int rows = inferTypeRows;
+        Map<String, ColumnType> declared = new LinkedHashMap<>();
+        Set<String> conflicts = new HashSet<>();
+        for (Template t : plan.getTemplates()) {
+            if (t instanceof TemplateBase) {
+                TemplateBase tb = (TemplateBase) t;
+                Map<String, ColumnType> types = tb.getColumnTypes();
+                if (types != null) {
+                    for (Map.Entry<String, ColumnType> e : types.entrySet()) {
+                        ColumnType prior = declared.putIfAbsent(e.getKey(), e.getValue());
+                        if (prior != null && prior != e.getValue() && conflicts.add(e.getKey())) {
+                            messageReporter.report("Warning: conflicting types declared for column " + e.getKey() + ", ignoring them");
+                        }
+                    }
+                }
+                rows = Math.max(rows, tb.getInferTypeRows());
+            }
+        }
+        for (Map.Entry<String, ColumnType> e : declared.entrySet()) {
+            if (conflicts.contains(e.getKey())) continue;
+            int slot = columns.slotOf(e.getKey());
+            if (slot >= 0) {
+                columns.setType(slot, e.getValue());
+            } else {
+                messageReporter.report("Warning: type declared for unknown column " + e.getKey());
+            }
+        }
+        if (rows > 0) {
+            typeInference = new ColumnTypeInference(columns, rows);
+        }
+    }
 
     /**
      * Run the conversion process
      * @return true if the conversion succeeded
      */
     public boolean process() {
+        boolean converting = false;
         try {
             current.set(this);
+            plan = ExecutionPlan.resolve(template);
+            hierarchyIndex = null;
+            String[] sortColumns = getSortColumns();
+            if (sortColumns != null && !sortInput(sortColumns)) {
+                return false;
+            }
             Node now = RDFUtil.fromDateTime( System.currentTimeMillis() ).asNode();
             ValueDate exectime = new ValueDate( now );
             getEnv().put(EXECUTION_TIME_NAME, exectime);
-            preprocess();
+            if (resumeFrom == null) {
+                preprocess();
+            } else {
+                // Output from the preamble is already in the resumed output
+                StreamRDF previous = redirectOutput( StreamRDFLib.sinkNull() );
+                try {
+                    preprocess();
+                } finally {
+                    redirectOutput(previous);
+                }
+                resume(resumeFrom);
+            }
             
             // TODO locate a matching template it none is set
     
@@ -177,41 +476,25 @@ public class ConverterProcess {
                 return false;
             }
     
-            boolean started = false;
-            while(true) {
-                int lineNumber = dataSource.getLineNumber();
-//                log.debug("Line " + lineNumber);
-                if (lineNumber % BATCH_SIZE == 0) {
-                    messageReporter.report("Processing row " + lineNumber);
-                }
-                BindingEnv row = nextRow();
-                if (row != null) {
-                    started = true;
-                    row.put(ROW_OBJECT_NAME, new Row(lineNumber));
-                    try {
-                        Node result = template.convertRow(this, row, lineNumber);
-                        if (result == null) {
-                            if (allowNullRows) {
-                                messageReporter.report("Warning: no templates matched line " + lineNumber, lineNumber);
-                            } else {
-                                messageReporter.reportError("Error: no templates matched line " + lineNumber, lineNumber);
-                            }
-                        }
-                    } catch (Exception e) {
-                        if (!(e instanceof NullResult)) {
-                            messageReporter.reportError("Error: " + e, lineNumber);
-//                            log.error("Error processing line " + lineNumber, e);
-                        } else {
-                            if (allowNullRows) {
-                                messageReporter.report("Warning: no templates matched line " + lineNumber + ", " + e, lineNumber);
-                            } else {
-                                messageReporter.reportError("Error: no templates matched line " + lineNumber + ", " + e, lineNumber);
-                            }
-                        }
-                    }
-                } else {
-                    break;
-                }
+            configureColumnTypes();
+            plan.bindHeaders(getHeaders(), columns);
+            if (twoPass && parallelism > 1 && delta == null && checkpointInterval == 0) {
+                indexHierarchy();
+            }
+            converting = true;
+            boolean started;
+            if (delta != null) {
+                delta.start();
+                started = processSequential();
+                delta.finish();
+            } else if (checkpointInterval > 0) {
+                started = processSequential();
+            } else if (isParallel()) {
+                started = processParallel();
+            } else if (pipelined || parallelism > 1) {
+                started = processPipelined();
+            } else {
+                started = processSequential();
             }
             
             if (!started) {
@@ -221,16 +504,509 @@ public class ConverterProcess {
             
         } catch (IOException e) {
             messageReporter.reportError("Problem reading next line of source");
+        } catch (RuntimeException e) {
+            log.error("Conversion failed", e);
+            messageReporter.reportError("Conversion failed: " + e.getMessage());
         } finally {
             current.set(null);
+            if (converting && dataSource != null) {
+                int lines = (lineCount >= 0) ? lineCount : dataSource.getLineNumber();
+                messageReporter.report("Processed " + (lines - 1) + " lines");
+            }
+            close();
         }
-        messageReporter.report("Processed " + (dataSource.getLineNumber() - 1) + " lines");
-        messageReporter.setState(TaskState.Terminated);
-        close();
         
         return messageReporter.succeeded();
     }
     
+    /**
+     * Test if this conversion should be run on multiple threads
+     */
+    protected boolean isParallel() {
+        return parallelism > 1 && (hierarchyIndex != null || !TemplateBase.requiresOrderedRows(template));
+    }
+    
+    /**
+     * Return the columns to sort the data by, or null if it should be used as is
+     */
+    protected String[] getSortColumns() {
+        if (sortBy != null) {
+            return sortBy;
+        }
+        Template root = plan.getRoot();
+        if (root instanceof HierarchyTemplate) {
+            return ((HierarchyTemplate)root).getSortColumns();
+        }
+        return null;
+    }
+    
+    /**
+     * Replace the data source by a sorted copy of the remaining data
+     * @return false if the data could not be sorted
+     */
+    protected boolean sortInput(String[] keys) throws IOException {
+        messageReporter.report("Sorting data by " + String.join(", ", keys));
+        File sorted;
+        try {
+            sorted = new CSVSorter(keys).sort(dataSource);
+        } catch (EpiException e) {
+            messageReporter.reportError("Failed to sort data: " + e.getMessage());
+            return false;
+        }
+        dataSource.close();
+        sortedFile = sorted;
+        sorted.deleteOnExit();
+        sourceFile = sorted;
+        setDataSource( new CSVInput( new CSVTokenizer(sorted) ) );
+        return true;
+    }
+    
+    /**
+     * First pass of a two pass conversion, finds the ancestors of each row of
+     * a top level hierarchy so that the rows can then be converted in any order.
+     * Output and messages from this pass are discarded, they are regenerated
+     * when the rows are converted.
+     * @return true if the hierarchy was indexed
+     */
+    protected boolean indexHierarchy() throws IOException {
+        Template root = plan.getRoot();
+        if ( !(root instanceof HierarchyTemplate) || !((HierarchyTemplate)root).canIndex() ) {
+            messageReporter.report("Warning: two pass conversion needs a top level hierarchy template, converting rows in order");
+            return false;
+        }
+        if (sourceFile == null) {
+            messageReporter.report("Warning: two pass conversion needs an uncompressed source file, converting rows in order");
+            return false;
+        }
+        HierarchyTemplate hierarchy = (HierarchyTemplate)root;
+        HierarchyIndex index = hierarchy.startIndex();
+        messageReporter.report("Indexing hierarchy");
+        ProgressMonitorReporter reporter = messageReporter;
+        StreamRDF previous = redirectOutput( StreamRDFLib.sinkNull() );
+        messageReporter = new SimpleProgressMonitor();
+        try {
+            for (CSVChunk chunk : CSVChunk.split(sourceFile, dataSource.getLineNumber(), CHUNK_SIZE)) {
+                CSVInput input = chunk.open(sourceFile, dataSource.getHeaders());
+                try {
+                    while (true) {
+                        int lineNumber = input.getLineNumber();
+                        BindingEnv row = nextRow(input);
+                        if (row == null) break;
+                        row.put(ROW_OBJECT_NAME, new Row(lineNumber));
+                        hierarchy.indexRow(this, index, row, lineNumber);
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+        } finally {
+            redirectOutput(previous);
+            messageReporter = reporter;
+        }
+        hierarchyIndex = index;
+        return true;
+    }
+    
+    /**
+     * Convert each row in turn on the calling thread.
+     * @return true if at least one row was found
+     */
+    protected boolean processSequential() throws IOException {
+        boolean started = false;
+        while(true) {
+            int lineNumber = dataSource.getLineNumber();
+            if (lineNumber % BATCH_SIZE == 0) {
+                messageReporter.report("Processing row " + lineNumber);
+            }
+            BindingEnv row = nextRow();
+            if (row != null) {
+                started = true;
+                row.put(ROW_OBJECT_NAME, new Row(lineNumber));
+                if (delta != null) {
+                    delta.convertRow((RowBindingEnv)row, lineNumber);
+                } else {
+                    convertRow(row, lineNumber);
+                }
+                if (checkpointInterval > 0 && dataSource.getLineNumber() % checkpointInterval == 0) {
+                    checkpoint();
+                }
+            } else {
+                break;
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * Save a checkpoint covering all rows up to the current one
+     */
+    protected void checkpoint() throws IOException {
+        StreamRDF out = getOutputStream();
+        if ( !(out instanceof Checkpointable) ) {
+            messageReporter.report("Warning: output stream does not support checkpoints, checkpointing disabled");
+            checkpointInterval = 0;
+            return;
+        }
+        if ( !Checkpoint.canSave(state) ) {
+            messageReporter.report("Warning: template state can not be checkpointed, checkpointing disabled");
+            checkpointInterval = 0;
+            return;
+        }
+        long position = ((Checkpointable)out).sync();
+        new Checkpoint(dataSource.getPosition(), dataSource.getLineNumber(), position, state).save(checkpointFile);
+    }
+    
+    /**
+     * Position the data source and restore template state to continue from a checkpoint
+     */
+    protected void resume(Checkpoint checkpoint) throws IOException {
+        if (sourceFile != null) {
+            CSVInput resumed = CSVInput.openAt(sourceFile, dataSource.getHeaders(), checkpoint.getOffset(), checkpoint.getLineNumber());
+            dataSource.close();
+            dataSource = resumed;
+        } else {
+            // Can't seek in a stream so skip the rows already converted
+            while (dataSource.getLineNumber() < checkpoint.getLineNumber()) {
+                if ( !dataSource.advance() ) break;
+            }
+        }
+        state = checkpoint.getState();
+        messageReporter.report("Resuming from line " + checkpoint.getLineNumber());
+    }
+    
+    /**
+     * Read rows in batches and hand each batch to a pool of workers, merging the 
+     * results back into the output stream. If the source file is known then it is
+     * split into chunks and each worker reads its own chunk. If the output is just
+     * an in-memory model then templates may query that model, so the results are
+     * held back until all the workers have finished.
+     * @return true if at least one row was found
+     */
+    protected boolean processParallel() throws IOException {
+        Iterator<CSVChunk> chunks = null;
+        if (sourceFile != null) {
+            // Headers and any preamble have been consumed, the data proper starts at the current line
+            List<CSVChunk> split = CSVChunk.split(sourceFile, dataSource.getLineNumber(), CHUNK_SIZE);
+            lineCount = split.isEmpty() ? dataSource.getLineNumber() : lastRecord( split );
+            chunks = split.iterator();
+        }
+        ExecutorService exec = Executors.newFixedThreadPool(parallelism);
+        CompletionService<RowBatch> completion = new ExecutorCompletionService<>(exec);
+        Deque<Future<RowBatch>> pending = new ArrayDeque<>();
+        int window = parallelism * (chunks == null ? 4 : 2);
+        int inFlight = 0;
+        boolean started = false;
+        List<RowBatch> held = outputToModel ? new ArrayList<RowBatch>() : null;
+        try {
+            while (true) {
+                RowBatch batch = (chunks == null) ? readBatch() : nextChunk(chunks);
+                if (batch == null) break;
+                started = true;
+                if (unordered) {
+                    completion.submit(batch);
+                } else {
+                    pending.add( exec.submit(batch) );
+                }
+                inFlight++;
+                while (inFlight >= window) {
+                    emit( nextCompleted(completion, pending), held );
+                    inFlight--;
+                }
+            }
+            while (inFlight > 0) {
+                emit( nextCompleted(completion, pending), held );
+                inFlight--;
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        if (held != null) {
+            for (RowBatch batch : held) {
+                batch.emit(outputStream);
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * Run the conversion as a three stage pipeline. A reader thread tokenizes rows into
+     * batches, the calling thread converts each batch in turn and a writer thread sends 
+     * the results to the output stream. The stages are linked by bounded queues so a slow
+     * stage holds back the others. If the output is just an in-memory model then the
+     * results are added by the calling thread since templates may query that model.
+     * @return true if at least one row was found
+     */
+    protected boolean processPipelined() throws IOException {
+        final BlockingQueue<RowBatch> toConvert = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        final BlockingQueue<RowBatch> toWrite = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+        final RowBatch end = new RowBatch();    // Marks the end of the stream of batches
+        
+        PipelineStage reader = new PipelineStage("dclib-reader") {
+            @Override
+            protected void work() throws Exception {
+                try {
+                    RowBatch batch;
+                    while ( (batch = readBatch()) != null ) {
+                        toConvert.put(batch);
+                    }
+                } catch (InterruptedException e) {
+                    return;   // Conversion has been abandoned
+                } catch (Throwable e) {
+                    error = e;
+                }
+                toConvert.put(end);
+            }
+        };
+        PipelineStage writer = outputToModel ? null : new PipelineStage("dclib-writer") {
+            @Override
+            protected void work() throws Exception {
+                RowBatch batch;
+                while ( (batch = toWrite.take()) != end ) {
+                    if (error == null) {
+                        try {
+                            batch.emit(outputStream);
+                        } catch (Throwable e) {
+                            // Keep draining the queue so the converter is not blocked
+                            error = e;
+                        }
+                    }
+                }
+            }
+        };
+
+        boolean started = false;
+        boolean completed = false;
+        reader.start();
+        if (writer != null) writer.start();
+        try {
+            while (true) {
+                RowBatch batch = toConvert.take();
+                if (batch == end) break;
+                started = true;
+                batch.call();
+                if (writer == null) {
+                    batch.emit(outputStream);
+                } else {
+                    toWrite.put(batch);
+                    writer.checkFailure();
+                }
+            }
+            reader.checkFailure();
+            if (writer != null) {
+                toWrite.put(end);
+                writer.join();
+                writer.checkFailure();
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during pipelined conversion");
+        } finally {
+            if (!completed) {
+                reader.interrupt();
+                if (writer != null) writer.interrupt();
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * A thread running one stage of a pipelined conversion, records any
+     * failure for the converting thread to pick up and report.
+     */
+    protected abstract class PipelineStage extends Thread {
+        protected volatile Throwable error;
+        
+        public PipelineStage(String name) {
+            super(name);
+            setDaemon(true);
+        }
+        
+        protected abstract void work() throws Exception;
+        
+        @Override
+        public void run() {
+            current.set(ConverterProcess.this);
+            try {
+                work();
+            } catch (InterruptedException e) {
+                // Pipeline is being shut down
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                current.set(null);
+            }
+        }
+        
+        /**
+         * Rethrow any failure of this stage
+         */
+        public void checkFailure() throws IOException {
+            Throwable e = error;
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e != null) {
+                throw new EpiException("Failure in " + getName() + " during pipelined conversion: " + e, e);
+            }
+        }
+    }
+    
+    private void emit(RowBatch batch, List<RowBatch> held) {
+        if (held == null) {
+            batch.emit(outputStream);
+        } else {
+            held.add(batch);
+        }
+    }
+    
+    private RowBatch nextCompleted(CompletionService<RowBatch> completion, Deque<Future<RowBatch>> pending) {
+        try {
+            return unordered ? completion.take().get() : pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EpiException("Interrupted during parallel conversion");
+        } catch (ExecutionException e) {
+            throw new EpiException("Failure during parallel conversion", e.getCause());
+        }
+    }
+    
+    private int lastRecord(List<CSVChunk> chunks) {
+        CSVChunk last = chunks.get( chunks.size() - 1 );
+        return last.getFirstRecord() + last.getNumRecords();
+    }
+    
+    private RowBatch nextChunk(Iterator<CSVChunk> chunks) {
+        while (chunks.hasNext()) {
+            CSVChunk chunk = chunks.next();
+            if (chunk.getNumRecords() > 0) {
+                messageReporter.report("Processing row " + chunk.getFirstRecord());
+                return new ChunkBatch(chunk);
+            }
+        }
+        return null;
+    }
+    
+    private RowBatch readBatch() throws IOException {
+        RowBatch batch = null;
+        while (batch == null || batch.size() < PARALLEL_BATCH_SIZE) {
+            int lineNumber = dataSource.getLineNumber();
+            if (lineNumber % BATCH_SIZE == 0) {
+                messageReporter.report("Processing row " + lineNumber);
+            }
+            BindingEnv row = nextRow();
+            if (row == null) break;
+            row.put(ROW_OBJECT_NAME, new Row(lineNumber));
+            if (batch == null) {
+                batch = new RowBatch();
+            }
+            batch.add(row, lineNumber);
+        }
+        return batch;
+    }
+    
+    /**
+     * Apply the template to a single row, reporting any failures against the given line number
+     */
+    protected void convertRow(BindingEnv row, int lineNumber) {
+        try {
+            Node result = (plan == null ? template : plan.getRoot()).convertRow(this, row, lineNumber);
+            if (result == null) {
+                if (allowNullRows) {
+                    messageReporter.report("Warning: no templates matched line " + lineNumber, lineNumber);
+                } else {
+                    messageReporter.reportError("Error: no templates matched line " + lineNumber, lineNumber);
+                }
+            }
+        } catch (Exception e) {
+            if (!(e instanceof NullResult)) {
+                messageReporter.reportError("Error: " + e, lineNumber);
+            } else {
+                if (allowNullRows) {
+                    messageReporter.report("Warning: no templates matched line " + lineNumber + ", " + e, lineNumber);
+                } else {
+                    messageReporter.reportError("Error: no templates matched line " + lineNumber + ", " + e, lineNumber);
+                }
+            }
+        }
+    }
+    
+    /**
+     * A batch of rows to be converted by a worker thread, the
+     * generated triples are buffered until they can be merged into
+     * the real output stream.
+     */
+    protected class RowBatch implements Callable<RowBatch> {
+        protected List<BindingEnv> rows = new ArrayList<>(PARALLEL_BATCH_SIZE);
+        protected List<Integer> lineNumbers = new ArrayList<>(PARALLEL_BATCH_SIZE);
+        protected TripleBuffer buffer = new TripleBuffer();
+        
+        public void add(BindingEnv row, int lineNumber) {
+            rows.add(row);
+            lineNumbers.add(lineNumber);
+        }
+        
+        public int size() {
+            return rows.size();
+        }
+
+        @Override
+        public RowBatch call() throws IOException {
+            ConverterProcess previousProcess = current.get();
+            current.set(ConverterProcess.this);
+            StreamRDF previous = redirectOutput(buffer);
+            try {
+                convertRows();
+            } finally {
+                redirectOutput(previous);
+                current.set(previousProcess);
+            }
+            rows = null;
+            return this;
+        }
+        
+        protected void convertRows() throws IOException {
+            for (int i = 0; i < rows.size(); i++) {
+                convertRow(rows.get(i), lineNumbers.get(i));
+            }
+        }
+        
+        public void emit(StreamRDF out) {
+            buffer.replay(out);
+        }
+    }
+    
+    /**
+     * A batch which reads its own rows from a chunk of the source file
+     */
+    protected class ChunkBatch extends RowBatch {
+        protected CSVChunk chunk;
+        
+        public ChunkBatch(CSVChunk chunk) {
+            this.chunk = chunk;
+        }
+        
+        @Override
+        public int size() {
+            return chunk.getNumRecords();
+        }
+        
+        @Override
+        protected void convertRows() throws IOException {
+            CSVInput input = chunk.open(sourceFile, dataSource.getHeaders());
+            try {
+                while (true) {
+                    int lineNumber = input.getLineNumber();
+                    BindingEnv row = nextRow(input);
+                    if (row == null) break;
+                    row.put(ROW_OBJECT_NAME, new Row(lineNumber));
+                    convertRow(row, lineNumber);
+                }
+            } finally {
+                input.close();
+            }
+        }
+    }
+    
     /**
      * Evaluate a pattern in the context of this process.
      * Mostly used for testing
@@ -258,17 +1034,24 @@ public class ConverterProcess {
     }
     
     public BindingEnv nextRow() throws IOException {
+        return nextRow(dataSource);
+    }
+    
+    protected BindingEnv nextRow(CSVInput input) {
         try {
-            BindingEnv row = dataSource.nextRow();
-            if (row == null) return null;
-            BindingEnv wrapped = new BindingEnv(env);
-            for (Entry<String, Object> entry : row.entrySet()) {
-                wrapped.put(entry.getKey(), ValueFactory.asValue(entry.getValue().toString().trim()));
+            if ( !input.advance() ) return null;
+            RowBindingEnv wrapped = new RowBindingEnv(columns, env);
+            int safeLength = Math.min(input.getFieldCount(), input.getHeaders().length);
+            // Cells are only decoded and typed if a template looks at them
+            CSVRecord record = input.getRecord();
+            if (typeInference != null) {
+                typeInference.observe(record, safeLength);
             }
+            wrapped.setRecord(record, safeLength);
             return wrapped;
         } catch (Exception e) {
             // Most likely problem here is bad data such as an unterminated line
-            messageReporter.reportError("Error during CSV reading, unterminated final line? " + e, dataSource.getLineNumber());
+            messageReporter.reportError("Error during CSV reading, unterminated final line? " + e, input.getLineNumber());
             return null;
         }
     }
@@ -278,10 +1061,10 @@ public class ConverterProcess {
             String[] row = dataSource.getPeekRow();
             String[] headers = dataSource.getHeaders();
             if (row == null) return null;
-            BindingEnv wrapped = new BindingEnv(env);
+            RowBindingEnv wrapped = new RowBindingEnv(columns, env);
             int safeLength = Math.min(row.length,headers.length);
             for (int i = 0; i < safeLength; i++) {
-                wrapped.put(headers[i], ValueFactory.asValue(row[i].trim()));
+                wrapped.setSlot(i, ValueFactory.asValue(row[i].trim()));
             }
             return wrapped;
         } catch (Exception e) {
@@ -296,7 +1079,7 @@ public class ConverterProcess {
         
         Object baseURI = env.get(BASE_OBJECT_NAME);
         if (baseURI != null) {
-            dataset = NodeFactory.createURI(baseURI.toString());
+            dataset = NodePool.createURI(baseURI.toString());
             env.put(DATASET_OBJECT_NAME, dataset);
         }
         
@@ -326,7 +1109,7 @@ public class ConverterProcess {
                         if (peekRow[1].equals(BASE_OBJECT_NAME)) {
                             String base = peekRow[2];
                             env.put(BASE_OBJECT_NAME, base);
-                            dataset = NodeFactory.createURI(base);
+                            dataset = NodePool.createURI(base);
                             env.put(DATASET_OBJECT_NAME, dataset);
                         } else {
                             try {
@@ -352,6 +1135,10 @@ public class ConverterProcess {
             dataSource.close();
         }
         dataSource = null;
+        if (sortedFile != null) {
+            sortedFile.delete();
+            sortedFile = null;
+        }
         messageReporter.setState(TaskState.Terminated);
     }
     
@@ -374,9 +1161,41 @@ public class ConverterProcess {
     public Template getTemplate() {
         return template;
     }
+    
+    /**
+     * Test if the template can apply to the headers of the data, avoiding
+     * rechecking for every row if the template is part of the current plan
+     */
+    public boolean isApplicableToHeaders(Template template) {
+        return plan == null ? template.isApplicableTo(getHeaders()) : plan.isApplicableTo(template, getHeaders());
+    }
+    
+    /**
+     * Return the slots of the required columns of a template in the given row, 
+     * or null if these have not been resolved
+     */
+    public int[] getRequiredSlots(Template template, RowBindingEnv row) {
+        return plan == null ? null : plan.getRequiredSlots(template, row.getColumnIndex());
+    }
+    
+    /**
+     * Return the resolved template tree for the current, or last, run of {@link #process()}
+     */
+    public ExecutionPlan getPlan() {
+        return plan;
+    }
+    
+    /**
+     * Return the index of the ancestors of each row, if a two pass conversion
+     * has built one for the top level hierarchy template, otherwise null
+     */
+    public HierarchyIndex getHierarchyIndex() {
+        return hierarchyIndex;
+    }
 
     public void setTemplate(Template template) {
         this.template = template;
+        this.plan = null;
     }
 
     public DataContext getDataContext() {
@@ -387,12 +1206,34 @@ public class ConverterProcess {
         this.dataContext = dataContext;
     }
 
+    /**
+     * Return the stream to which generated triples should be sent. This
+     * will be the configured output stream unless the current thread has
+     * redirected its output.
+     */
     public StreamRDF getOutputStream() {
-        return outputStream;
+        StreamRDF redirected = threadOutput.get();
+        return redirected == null ? outputStream : redirected;
+    }
+    
+    /**
+     * Redirect all output generated by the current thread to the given stream, 
+     * or remove the redirection if the stream is null. 
+     * @return the previous redirection, if any, so that it can be restored
+     */
+    public StreamRDF redirectOutput(StreamRDF stream) {
+        StreamRDF previous = threadOutput.get();
+        if (stream == null) {
+            threadOutput.remove();
+        } else {
+            threadOutput.set(stream);
+        }
+        return previous;
     }
 
     public void setOutputStream(StreamRDF outputStream) {
         this.outputStream = outputStream;
+        this.outputToModel = false;
     }
 
     public ProgressMonitorReporter getMessageReporter() {
@@ -443,6 +1284,7 @@ public class ConverterProcess {
     public void setModel(Model model) {
         result = model;
         outputStream = StreamRDFLib.graph( result.getGraph() );
+        outputToModel = true;
     }
     
 
@@ -451,7 +1293,7 @@ public class ConverterProcess {
      * Return null if no data is found
      */
     
-    public Model fetchModel(String uri) {
+    public synchronized Model fetchModel(String uri) {
         Model model = (Model) fetchCache.get(uri);
         if (model == null) {
             try {
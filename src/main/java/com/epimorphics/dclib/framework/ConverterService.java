@@ -10,16 +10,15 @@
 package com.epimorphics.dclib.framework;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import org.apache.commons.io.input.BOMInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.epimorphics.appbase.core.ComponentBase;
 import com.epimorphics.appbase.core.PrefixService;
+import com.epimorphics.dclib.sources.CompressedInput;
 import com.epimorphics.dclib.templates.TemplateFactory;
 import com.epimorphics.tasks.LiveProgressMonitor;
 import com.epimorphics.tasks.ProgressMonitorReporter;
@@ -46,6 +45,10 @@ public class ConverterService extends ComponentBase {
     protected DataContext dc;
     protected boolean silent = false;
     protected TemplateMonitor monitor;
+    protected int parallelism = 1;
+    protected boolean pipelined = false;
+    protected boolean memoize = false;
+    protected boolean twoPass = false;
     
     public ConverterService() {
         dc = new DataContext();
@@ -114,6 +117,38 @@ public class ConverterService extends ComponentBase {
         }
     }
 
+    /**
+     * Set the number of threads each conversion may use, 
+     * see {@link ConverterProcess#setParallelism(int)}
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set to true to run each conversion as a reader/converter/writer pipeline, 
+     * see {@link ConverterProcess#setPipelined(boolean)}
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Set to true to memoize pure pattern expressions,
+     * see {@link ConverterProcess#setMemoize(boolean)}
+     */
+    public void setMemoize(boolean memoize) {
+        this.memoize = memoize;
+    }
+
+    /**
+     * Set to true to allow top level hierarchy templates to be converted in parallel,
+     * see {@link ConverterProcess#setTwoPass(boolean)}
+     */
+    public void setTwoPass(boolean twoPass) {
+        this.twoPass = twoPass;
+    }
+
     // TODO finding template for a CSV
     
     public DataContext getDataContext() {
@@ -144,16 +179,18 @@ public class ConverterService extends ComponentBase {
         
         File dataFileF = new File(dataFile);
         String filename = dataFileF.getName();
-        String filebasename = NameUtils.removeExtension(filename);
+        String filebasename = NameUtils.removeExtension( CompressedInput.removeCompressionExtension(filename) );
         put(ConverterProcess.FILE_NAME, filename);
         put(ConverterProcess.FILE_BASE_NAME, filebasename);
-        InputStream is = new BOMInputStream( new FileInputStream(dataFileF) );
-        
-        ConverterProcess process = new ConverterProcess(dc, is);
+        ConverterProcess process = ConverterProcess.forFile(dc, dataFileF);
         process.setDebug(debug);
         process.setTemplate( template );
         process.setMessageReporter( reporter );
         process.setAllowNullRows(allowNullRows);
+        process.setParallelism(parallelism);
+        process.setPipelined(pipelined);
+        process.setMemoize(memoize);
+        process.setTwoPass(twoPass);
         boolean ok = process.process();
         
         return ok ?  process.getModel() : null;
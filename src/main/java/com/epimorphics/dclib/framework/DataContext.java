@@ -14,9 +14,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,11 +33,14 @@ import org.apache.jena.shared.impl.PrefixMappingImpl;
 public class DataContext {
     static final Logger log = LoggerFactory.getLogger( DataContext.class );
 
-    protected Map<String, Template> templates = new HashMap<String, Template>();
+    protected Registry<Template> templates = new Registry<>();
     protected PrefixMapping prefixes = new PrefixMappingImpl();
+    protected DataContext prefixOwner = this;
+    protected volatile PrefixExpander expander;
+    protected SharedExpressions sharedExpressions = new SharedExpressions();
     protected BindingEnv env = new BindingEnv();
     protected DataContext parent;
-    protected Map<String, MapSource> sources = new HashMap<>();
+    protected Registry<MapSource> sources = new Registry<>();
     protected String[] loadDirectories = null;
     
     public DataContext() {
@@ -47,23 +48,65 @@ public class DataContext {
     
     public DataContext(DataContext parent) {
         this.parent = parent;
+        templates = new Registry<>( parent.templates );
+        sources = new Registry<>( parent.sources );
         env = new BindingEnv( parent.getGlobalEnv() );
         prefixes = parent.prefixes;
+        prefixOwner = parent.prefixOwner;
+        sharedExpressions = parent.sharedExpressions;
         loadDirectories = parent.loadDirectories;
     }
     
     public void setPrefixes(PrefixMapping prefixes) {
-         this.prefixes.setNsPrefixes(prefixes);
+        synchronized (prefixOwner) {
+            this.prefixes.setNsPrefixes(prefixes);
+            prefixOwner.expander = null;
+        }
     }
     
     public void setPrefix(String prefix, String uri) {
-         this.prefixes.setNsPrefix(prefix, uri);
+        synchronized (prefixOwner) {
+            this.prefixes.setNsPrefix(prefix, uri);
+            prefixOwner.expander = null;
+        }
     }
     
+    /**
+     * Return the underlying prefix mapping, which is shared with any child contexts.
+     * If this is modified directly then call {@link #prefixesChanged()} afterwards.
+     */
     public PrefixMapping getPrefixes() {
         return prefixes;
     }
     
+    /**
+     * Discard the current prefix snapshot after a direct change to the prefix mapping
+     */
+    public void prefixesChanged() {
+        synchronized (prefixOwner) {
+            prefixOwner.expander = null;
+        }
+    }
+    
+    /**
+     * Return an immutable snapshot of the current prefix definitions which
+     * can be used for expansion without locking. Shared with child contexts
+     * and rebuilt on demand after any change to the prefixes.
+     */
+    public PrefixExpander getPrefixExpander() {
+        PrefixExpander e = prefixOwner.expander;
+        if (e == null) {
+            synchronized (prefixOwner) {
+                e = prefixOwner.expander;
+                if (e == null) {
+                    e = PrefixExpander.of(prefixes);
+                    prefixOwner.expander = e;
+                }
+            }
+        }
+        return e;
+    }
+    
     /**
      * Set a sequence of directories which be searched when loading
      * referenced files (specifically those used in mapping sources).
@@ -78,12 +121,20 @@ public class DataContext {
      */
     public String expandURI(String uri) {
         if (prefixes != null) {
-            return prefixes.expandPrefix(uri);
+            return getPrefixExpander().expand(uri);
         } else {
             return uri;
         }
     }
     
+    /**
+     * Return the table of method calls shared between the pattern expressions
+     * of templates compiled in this context and its children
+     */
+    public SharedExpressions getSharedExpressions() {
+        return sharedExpressions;
+    }
+    
     /**
      * Get the global binding environment with default parameter settings
      */
@@ -92,9 +143,10 @@ public class DataContext {
     }
     
     /**
-     * Register a new template
+     * Register a new template. Templates and sources are held in copy on write
+     * registries so that lookups, which happen far more often, take no locks.
      */
-    public synchronized void registerTemplate(Template template) {
+    public void registerTemplate(Template template) {
         String name = template.getName();
         if (name != null) {
             templates.put(name, template);
@@ -106,7 +158,7 @@ public class DataContext {
     /**
      * Register a new template
      */
-    public synchronized void registerTemplate(String name, Template template) {
+    public void registerTemplate(String name, Template template) {
         templates.put(name, template);
 
     }
@@ -114,7 +166,7 @@ public class DataContext {
     /**
      * Register a template from a file
      */
-    public synchronized Template registerTemplate(String src) throws IOException {
+    public Template registerTemplate(String src) throws IOException {
         Template template = TemplateFactory.templateFrom(src, this);
         if (template.getName() == null) {
             templates.put(src, template);
@@ -127,30 +179,22 @@ public class DataContext {
     /**
      * Find a named template
      */
-    public synchronized Template getTemplate(String name) {
-        Template template = templates.get(name);
-        if (template == null && parent != null) {
-            template = parent.getTemplate(name);
-        }
-        return template;
+    public Template getTemplate(String name) {
+        return templates.get(name);
     }
     
     /**
      * Remove a template from the register
      */
-    public synchronized void removeTemplate(String name) {
+    public void removeTemplate(String name) {
         templates.remove(name);
     }
     
     /**
      * Return a list of all known templates, ordered by name
      */
-    public synchronized List<Template> listTemplates() {
-        List<Template> results = new ArrayList<>();
-        results.addAll( templates.values() );
-        if (parent != null) {
-            results.addAll( parent.listTemplates() );
-        }
+    public List<Template> listTemplates() {
+        List<Template> results = new ArrayList<>( templates.getAll().values() );
         Collections.sort(results, new Comparator<Template>() {
             @Override
             public int compare(Template o1, Template o2) {
@@ -163,7 +207,7 @@ public class DataContext {
     /**
      * Register a new data source
      */
-    public synchronized void registerSource(MapSource source) {
+    public void registerSource(MapSource source) {
         String name = source.getName();
         if (name != null) {
             sources.put(name, source);
@@ -175,11 +219,8 @@ public class DataContext {
     /**
      * Find a named source
      */
-    public synchronized MapSource getSource(String name) {
+    public MapSource getSource(String name) {
         MapSource source = sources.get(name);
-        if (source == null && parent != null) {
-            source = parent.getSource(name);
-        }
         if (source == null) {
             log.error("Failed to locate mapSource: " + name);
             throw new EpiException("Failed to locate mapSource: " + name);
@@ -0,0 +1,308 @@
+/******************************************************************
+ * File:        DeltaConversion.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.epimorphics.dclib.sources.CSVInput;
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.sources.CSVTokenizer;
+import com.epimorphics.dclib.templates.TemplateBase;
+import com.epimorphics.dclib.values.Row;
+import com.epimorphics.util.EpiException;
+
+/**
+ * Converts only the rows which have changed since a previous run, as 
+ * recorded in a {@link DeltaIndex}. Triples which were not generated by any row
+ * of the previous run are sent to the normal output stream. Triples which are
+ * no longer generated by any row are sent to a separate "removed" stream. 
+ * The old triples are regenerated by re-reading the changed rows from the 
+ * previous source file, which must be unchanged since the previous run.
+ * <p>
+ * Rows are matched between runs by the value of a key column or, if there is
+ * no key column, by their whole content. Key values must be unique within the
+ * data, identical rows matched by content are matched in the order they occur.
+ * Only works for templates which treat each row independently and for sources
+ * with the same columns in each run. Templates must not create blank nodes,
+ * since a blank node regenerated from the previous data would not be the same
+ * as the one output then, so its triples could never be removed.
+ * If the templates have changed since the previous run then all rows are
+ * converted and the output replaces, rather than updates, the previous output.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class DeltaConversion {
+    protected static final int REREAD_WINDOW = 64 * 1024;
+    
+    protected final ConverterProcess proc;
+    protected DeltaIndex previous;
+    protected final File previousData;
+    protected final String keyColumn;
+    protected final StreamRDF removed;
+    protected DeltaIndex index;
+    protected int keySlot = -1;
+    protected boolean[] seen;
+    protected FileChannel previousChannel;
+    protected Set<Triple> removals = new LinkedHashSet<>();  // Triples which may no longer be generated
+    protected boolean fullConversion;
+    protected int added, changed, unchanged, deleted;
+    
+    /**
+     * @param proc the conversion process, reading from an uncompressed file
+     * @param previous the index from the previous run, or null if there isn't one 
+     * @param previousData the data file used in the previous run
+     * @param keyColumn the name of the column which identifies a row, or null to match rows on their content
+     * @param removed stream to receive the triples that are no longer generated
+     */
+    public DeltaConversion(ConverterProcess proc, DeltaIndex previous, File previousData, String keyColumn, StreamRDF removed) {
+        this.proc = proc;
+        this.previous = previous;
+        this.previousData = previousData;
+        this.keyColumn = keyColumn;
+        this.removed = removed;
+    }
+    
+    /**
+     * Check the conversion can be run as a delta and prepare to read the previous data
+     */
+    public void start() throws IOException {
+        if (proc.sourceFile == null) {
+            throw new EpiException("Delta conversion requires an uncompressed source file");
+        }
+        if (TemplateBase.requiresOrderedRows(proc.getTemplate())) {
+            throw new EpiException("Delta conversion is not possible for templates which depend on row order");
+        }
+        if (proc.sortedFile != null) {
+            throw new EpiException("Delta conversion can't be combined with sorting the data");
+        }
+        if (keyColumn != null) {
+            keySlot = proc.columns.slotOf(keyColumn);
+            if (keySlot < 0) {
+                throw new EpiException("Delta key column not found: " + keyColumn);
+            }
+        }
+        long templateHash = templateHash();
+        if (previous != null && previous.getTemplateHash() != templateHash) {
+            proc.getMessageReporter().report("Warning: templates have changed since the previous run, converting all rows, the output replaces the previous output");
+            previous = null;
+            fullConversion = true;
+        }
+        if (previous != null) {
+            if (previousData == null) {
+                throw new EpiException("Delta conversion requires the data file used in the previous run");
+            }
+            if ( !previous.matchesSource(previousData) ) {
+                throw new EpiException("Data file used in the previous run has changed since then: " + previousData);
+            }
+        }
+        
+        index = new DeltaIndex( previous == null ? 1024 : previous.size() );
+        index.setSource( proc.sourceFile.getPath() );
+        index.setSourceFingerprint( proc.sourceFile.length(), DeltaIndex.hash(proc.sourceFile) );
+        index.setTemplateHash(templateHash);
+        if (previous != null) {
+            index.copyTripleCounts(previous);
+            seen = new boolean[ previous.capacity() ];
+            previousChannel = FileChannel.open(previousData.toPath(), StandardOpenOption.READ);
+            CSVInput old = new CSVInput( new CSVTokenizer(previousChannel, 0, previousChannel.size(), REREAD_WINDOW) );
+            if ( !Arrays.equals(old.getHeaders(), proc.getHeaders()) ) {
+                throw new EpiException("Delta conversion requires the same columns as the previous data");
+            }
+        }
+    }
+    
+    /**
+     * Process a row, only running the templates if it is new or changed
+     */
+    public void convertRow(RowBindingEnv row, int lineNumber) throws IOException {
+        CSVRecord record = row.record;
+        long content = record.fingerprint();
+        long key = content;
+        if (keySlot >= 0 && keySlot < record.getFieldCount()) {
+            key = DeltaIndex.hash( record.getTrimmedField(keySlot) );
+            if (index.find(key) >= 0) {
+                throw new EpiException("Delta key value is not unique: " + record.getTrimmedField(keySlot) + " on line " + lineNumber);
+            }
+        } else {
+            // Later copies of an identical row are keyed by their position among the copies
+            while (index.find(key) >= 0) {
+                key = (key ^ 0xff) * DeltaIndex.FNV_PRIME;
+            }
+        }
+        long offset = proc.getDataSource().getRecordOffset();
+        
+        int prev = previous == null ? -1 : previous.find(key);
+        if (prev >= 0) {
+            seen[prev] = true;
+            if (previous.getContentHash(prev) == content) {
+                index.put(key, content, previous.getTripleHash(prev), offset, lineNumber);
+                unchanged++;
+                return;
+            }
+        }
+        
+        Set<Triple> newTriples = new LinkedHashSet<>( convert(row, lineNumber).getTriples() );
+        long tripleHash = tripleHash(newTriples);
+        index.put(key, content, tripleHash, offset, lineNumber);
+        if (prev < 0) {
+            for (Triple t : newTriples) {
+                addTriple(t);
+            }
+            added++;
+        } else if (tripleHash != previous.getTripleHash(prev)) {
+            Set<Triple> oldTriples = new HashSet<>( reconvert(prev).getTriples() );
+            for (Triple t : newTriples) {
+                if ( !oldTriples.contains(t) ) addTriple(t);
+            }
+            for (Triple t : oldTriples) {
+                if ( !newTriples.contains(t) ) removeTriple(t);
+            }
+            changed++;
+        } else {
+            unchanged++;
+        }
+    }
+    
+    /**
+     * Count a row as generating the triple, output it if no other row does
+     */
+    protected void addTriple(Triple t) {
+        if (index.addTriple( tripleKey(t) ) == 1) {
+            proc.getOutputStream().triple(t);
+        }
+    }
+    
+    /**
+     * Count a row as no longer generating the triple. Whether it is removed
+     * can only be decided at the end since a later row might still generate it. 
+     */
+    protected void removeTriple(Triple t) {
+        if (index.removeTriple( tripleKey(t) ) == 0) {
+            removals.add(t);
+        }
+    }
+    
+    /**
+     * Emit the triples for rows in the previous data which have not been seen in this run
+     */
+    public void finish() throws IOException {
+        try {
+            if (previous != null) {
+                for (int slot = 0; slot < previous.capacity(); slot++) {
+                    if (previous.isUsed(slot) && !seen[slot]) {
+                        for (Triple t : new HashSet<>( reconvert(slot).getTriples() )) {
+                            removeTriple(t);
+                        }
+                        deleted++;
+                    }
+                }
+            }
+            for (Triple t : removals) {
+                if (index.getTripleCount( tripleKey(t) ) == 0) {
+                    removed.triple(t);
+                }
+            }
+            removals.clear();
+        } finally {
+            if (previousChannel != null) {
+                previousChannel.close();
+            }
+        }
+        proc.getMessageReporter().report( String.format("Delta: %d new, %d changed, %d unchanged, %d removed rows", added, changed, unchanged, deleted) );
+    }
+    
+    /**
+     * True if the templates had changed so every row was converted, in which case
+     * the output replaces the previous output rather than adding to it
+     */
+    public boolean isFullConversion() {
+        return fullConversion;
+    }
+    
+    /**
+     * The index for this run, to be saved for use by the next one
+     */
+    public DeltaIndex getIndex() {
+        return index;
+    }
+    
+    protected TripleBuffer convert(BindingEnv row, int lineNumber) {
+        TripleBuffer buffer = new TripleBuffer();
+        StreamRDF previousOut = proc.redirectOutput(buffer);
+        try {
+            proc.convertRow(row, lineNumber);
+        } finally {
+            proc.redirectOutput(previousOut);
+        }
+        for (Triple t : buffer.getTriples()) {
+            if (t.getSubject().isBlank() || t.getObject().isBlank()) {
+                throw new EpiException("Delta conversion is not possible for templates which create blank nodes, found on line " + lineNumber);
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     * Regenerate the triples for a row of the previous data
+     */
+    protected TripleBuffer reconvert(int slot) throws IOException {
+        int line = previous.getLine(slot);
+        CSVTokenizer tokenizer = new CSVTokenizer(previousChannel, previous.getOffset(slot), previousChannel.size(), REREAD_WINDOW);
+        CSVInput input = new CSVInput(tokenizer, proc.getHeaders(), line);
+        BindingEnv row = proc.nextRow(input);
+        if (row == null) {
+            throw new EpiException("Could not re-read line " + line + " of " + previousData);
+        }
+        row.put(ConverterProcess.ROW_OBJECT_NAME, new Row(line));
+        return convert(row, line);
+    }
+    
+    /**
+     * Hash of the definitions of all the templates used
+     */
+    protected long templateHash() {
+        long h = DeltaIndex.FNV_OFFSET;
+        for (Template t : proc.getPlan().getTemplates()) {
+            h = DeltaIndex.hash(h, t.getSource());
+        }
+        return h;
+    }
+    
+    /**
+     * Hash of a set of triples, independent of their order
+     */
+    protected static long tripleHash(Set<Triple> triples) {
+        long h = 0;
+        for (Triple t : triples) {
+            h += tripleKey(t);
+        }
+        return h;
+    }
+    
+    protected static long tripleKey(Triple t) {
+        return hash( hash( hash(DeltaIndex.FNV_OFFSET, t.getSubject()), t.getPredicate()), t.getObject() );
+    }
+    
+    private static long hash(long h, Node n) {
+        return DeltaIndex.hash(h, NodeCodec.encode(n) + " ");
+    }
+}
@@ -0,0 +1,387 @@
+/******************************************************************
+ * File:        DeltaIndex.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Compact index of the rows converted in one run, used to find the rows which
+ * have changed in a later run. For each row key (a hash of a key column or
+ * of the whole row) records a hash of the row content, a hash of the triples
+ * generated from it and where to find the row in the source file. 
+ * Held as an open addressing hash table over parallel arrays, 36 bytes per row.
+ * <p>
+ * Also records the size and content hash of the source file, so that a later
+ * run can check the file is unchanged before re-reading rows from it, and a
+ * hash of the templates used. For each distinct triple generated, keeps a count
+ * of the rows which generated it, 12 bytes per triple, so a triple is only
+ * removed once no row generates it.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class DeltaIndex {
+    protected static final int MAGIC = 0x44434C44;
+    protected static final int VERSION = 2;
+    protected static final long EMPTY = 0;
+    protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    protected static final long FNV_PRIME  = 0x100000001b3L;
+    
+    protected String source;
+    protected long sourceSize;
+    protected long sourceHash;
+    protected long templateHash;
+    protected long[] keys;
+    protected long[] contentHashes;
+    protected long[] tripleHashes;
+    protected long[] offsets;
+    protected int[] lines;
+    protected int size = 0;
+    protected long[] tripleKeys = new long[16];
+    protected int[] tripleCounts = new int[16];
+    protected int tripleSize = 0;
+    
+    public DeltaIndex() {
+        this(1024);
+    }
+    
+    public DeltaIndex(int expectedSize) {
+        allocate( tableSize(expectedSize) );
+    }
+    
+    private static int tableSize(int n) {
+        int cap = 16;
+        while (cap < n * 2) cap <<= 1;
+        return cap;
+    }
+    
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        contentHashes = new long[capacity];
+        tripleHashes = new long[capacity];
+        offsets = new long[capacity];
+        lines = new int[capacity];
+    }
+
+    /**
+     * Return the slot holding the given key, or -1 if it is not present
+     */
+    public int find(long key) {
+        key = safeKey(key);
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) return i;
+            if (keys[i] == EMPTY) return -1;
+        }
+    }
+    
+    /**
+     * Record a row, replacing any existing entry for its key
+     */
+    public void put(long key, long contentHash, long tripleHash, long offset, int line) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        key = safeKey(key);
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        keys[i] = key;
+        contentHashes[i] = contentHash;
+        tripleHashes[i] = tripleHash;
+        offsets[i] = offset;
+        lines[i] = line;
+    }
+    
+    private void grow() {
+        long[] oldKeys = keys, oldContent = contentHashes, oldTriples = tripleHashes, oldOffsets = offsets;
+        int[] oldLines = lines;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldContent[i], oldTriples[i], oldOffsets[i], oldLines[i]);
+            }
+        }
+    }
+    
+    private static long safeKey(long key) {
+        return key == EMPTY ? 1 : key;
+    }
+    
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    /** Number of rows in the index */
+    public int size() {
+        return size;
+    }
+    
+    /** Number of slots, some of which may be empty */
+    public int capacity() {
+        return keys.length;
+    }
+    
+    public boolean isUsed(int slot) {
+        return keys[slot] != EMPTY;
+    }
+    
+    public long getKey(int slot) {
+        return keys[slot];
+    }
+
+    public long getContentHash(int slot) {
+        return contentHashes[slot];
+    }
+
+    public long getTripleHash(int slot) {
+        return tripleHashes[slot];
+    }
+
+    public long getOffset(int slot) {
+        return offsets[slot];
+    }
+
+    public int getLine(int slot) {
+        return lines[slot];
+    }
+    
+    /**
+     * Add one to the count of rows generating the triple with the given hash
+     * @return the new count
+     */
+    public int addTriple(long tripleKey) {
+        if ((tripleSize + 1) * 2 > tripleKeys.length) {
+            growTriples();
+        }
+        int i = findTripleSlot(tripleKey);
+        if (tripleKeys[i] == EMPTY) {
+            tripleKeys[i] = safeKey(tripleKey);
+            tripleSize++;
+        }
+        return ++tripleCounts[i];
+    }
+    
+    /**
+     * Subtract one from the count of rows generating the triple with the given hash
+     * @return the new count
+     */
+    public int removeTriple(long tripleKey) {
+        int i = findTripleSlot(tripleKey);
+        if (tripleKeys[i] == EMPTY || tripleCounts[i] == 0) {
+            return 0;
+        }
+        return --tripleCounts[i];
+    }
+    
+    /**
+     * Return the number of rows generating the triple with the given hash
+     */
+    public int getTripleCount(long tripleKey) {
+        int i = findTripleSlot(tripleKey);
+        return tripleKeys[i] == EMPTY ? 0 : tripleCounts[i];
+    }
+    
+    private void putTriple(long tripleKey, int count) {
+        addTriple(tripleKey);
+        tripleCounts[ findTripleSlot(tripleKey) ] = count;
+    }
+    
+    /**
+     * Start from a copy of the triple counts of another index
+     */
+    public void copyTripleCounts(DeltaIndex other) {
+        tripleKeys = other.tripleKeys.clone();
+        tripleCounts = other.tripleCounts.clone();
+        tripleSize = other.tripleSize;
+    }
+    
+    // Slots whose count drops to zero are kept, they are dropped when the index is saved
+    private int findTripleSlot(long tripleKey) {
+        long key = safeKey(tripleKey);
+        int mask = tripleKeys.length - 1;
+        int i = mix(key) & mask;
+        while (tripleKeys[i] != EMPTY && tripleKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+    
+    private void growTriples() {
+        long[] oldKeys = tripleKeys;
+        int[] oldCounts = tripleCounts;
+        tripleKeys = new long[oldKeys.length * 2];
+        tripleCounts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = findTripleSlot(oldKeys[i]);
+                tripleKeys[j] = oldKeys[i];
+                tripleCounts[j] = oldCounts[i];
+            }
+        }
+    }
+    
+    /**
+     * The name of the source file which the index describes, may be null
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+    
+    /**
+     * Record the size and content hash of the source file which the index describes
+     */
+    public void setSourceFingerprint(long size, long hash) {
+        this.sourceSize = size;
+        this.sourceHash = hash;
+    }
+
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    public long getSourceHash() {
+        return sourceHash;
+    }
+    
+    /**
+     * Test if a file has the same size and content as the source file of the index
+     */
+    public boolean matchesSource(File file) throws IOException {
+        return file.isFile() && file.length() == sourceSize && hash(file) == sourceHash;
+    }
+
+    /**
+     * Hash of the definitions of the templates used to build the index
+     */
+    public long getTemplateHash() {
+        return templateHash;
+    }
+
+    public void setTemplateHash(long templateHash) {
+        this.templateHash = templateHash;
+    }
+    
+    /**
+     * Hash a string, combining with a previous hash value
+     */
+    public static long hash(long h, String s) {
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xFF);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+    
+    public static long hash(String s) {
+        return hash(FNV_OFFSET, s);
+    }
+    
+    /**
+     * Hash the contents of a file
+     */
+    public static long hash(File file) throws IOException {
+        long h = FNV_OFFSET;
+        byte[] buffer = new byte[64 * 1024];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                for (int i = 0; i < n; i++) {
+                    h ^= (buffer[i] & 0xFF);
+                    h *= FNV_PRIME;
+                }
+            }
+        }
+        return h;
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream(file) ) )) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(source == null ? "" : source);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceHash);
+            out.writeLong(templateHash);
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(contentHashes[i]);
+                    out.writeLong(tripleHashes[i]);
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lines[i]);
+                }
+            }
+            int triples = 0;
+            for (int i = 0; i < tripleKeys.length; i++) {
+                if (tripleCounts[i] > 0) triples++;
+            }
+            out.writeInt(triples);
+            for (int i = 0; i < tripleKeys.length; i++) {
+                if (tripleCounts[i] > 0) {
+                    out.writeLong(tripleKeys[i]);
+                    out.writeInt(tripleCounts[i]);
+                }
+            }
+        }
+    }
+    
+    public static DeltaIndex load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream(file) ) )) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new EpiException("Not a recognized delta index file: " + file);
+            }
+            String source = in.readUTF();
+            long sourceSize = in.readLong();
+            long sourceHash = in.readLong();
+            long templateHash = in.readLong();
+            int n = in.readInt();
+            DeltaIndex index = new DeltaIndex(n);
+            index.setSource( source.isEmpty() ? null : source );
+            index.setSourceFingerprint(sourceSize, sourceHash);
+            index.setTemplateHash(templateHash);
+            for (int i = 0; i < n; i++) {
+                index.put(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+            }
+            int triples = in.readInt();
+            for (int i = 0; i < triples; i++) {
+                index.putTriple(in.readLong(), in.readInt());
+            }
+            return index;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "DeltaIndex[" + size + " rows" + (source == null ? "" : " from " + source) + "]";
+    }
+}
@@ -0,0 +1,193 @@
+/******************************************************************
+ * File:        ExecutionPlan.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.epimorphics.dclib.templates.CompositeTemplate;
+import com.epimorphics.dclib.templates.DispatchIndex;
+import com.epimorphics.dclib.templates.TemplateBase;
+import com.epimorphics.dclib.templates.TemplateRef;
+
+/**
+ * The resolved form of a template tree for one conversion. Built at the start
+ * of a conversion, this binds every TemplateRef reachable from the root to the
+ * template currently registered under that name, so that rows are then converted
+ * without any template lookups or locks. The bindings belong to the plan, not to
+ * the references, so conversions running at the same time each see the templates
+ * as they were when they started. Templates loaded or reloaded while a
+ * conversion is running take effect at the start of the next conversion.
+ * The plan also records which templates apply to the shape of the data,
+ * so that this need not be rechecked for every row, and holds the indexes
+ * of the children of composite templates, see {@link DispatchIndex}.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ExecutionPlan {
+    protected final Template root;
+    protected final List<Template> templates = new ArrayList<>();
+    protected final List<String> unresolved = new ArrayList<>();
+    protected final Map<TemplateRef, Template> bindings = new IdentityHashMap<>();
+    protected final Map<Template, DispatchIndex> dispatch = new IdentityHashMap<>();
+    
+    // Header shape checks, resolved once the headers are known
+    protected String[] headers;
+    protected ColumnIndex columns;
+    protected final Map<Template, Shape> shapes = new IdentityHashMap<>();
+
+    protected ExecutionPlan(Template template) {
+        Map<Template, Boolean> visited = new IdentityHashMap<>();
+        visit(template, visited);
+        Template r = deref(template);
+        root = r == null ? template : r;
+        for (Template t : templates) {
+            if (t instanceof CompositeTemplate) {
+                DispatchIndex index = ((CompositeTemplate)t).buildDispatchIndex(this);
+                if (index != null) {
+                    dispatch.put(t, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve all the templates reachable from the given root
+     */
+    public static ExecutionPlan resolve(Template root) {
+        return new ExecutionPlan(root);
+    }
+
+    private void visit(Template template, Map<Template, Boolean> visited) {
+        if (template == null || visited.put(template, Boolean.TRUE) != null) {
+            return;
+        }
+        if (template instanceof TemplateRef) {
+            Template target = ((TemplateRef)template).lookup();
+            if (target != null) {
+                bindings.put((TemplateRef)template, target);
+            } else {
+                // Left to report an error if it is ever used
+                unresolved.add( template.getName() );
+            }
+            visit(target, visited);
+        } else {
+            templates.add(template);
+            if (template instanceof TemplateBase) {
+                for (Template child : ((TemplateBase)template).getChildTemplates()) {
+                    visit(child, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check each template in the plan against the data headers and resolve the
+     * slots of its required columns. Should be called before conversion of the
+     * rows starts, the plan is not modified after that.
+     */
+    public void bindHeaders(String[] headers, ColumnIndex columns) {
+        this.headers = headers;
+        this.columns = columns;
+        shapes.clear();
+        for (Template template : templates) {
+            int[] slots = null;
+            if (template instanceof TemplateBase) {
+                String[] required = ((TemplateBase)template).getRequiredColumns();
+                if (required != null) {
+                    slots = new int[required.length];
+                    for (int i = 0; i < required.length; i++) {
+                        slots[i] = columns.slotOf(required[i]);
+                    }
+                }
+            }
+            shapes.put(template, new Shape(template.isApplicableTo(headers), slots));
+        }
+    }
+
+    /**
+     * Test if the template can apply to the given headers, using the result
+     * from {@link #bindHeaders(String[], ColumnIndex)} if possible
+     */
+    public boolean isApplicableTo(Template template, String[] headers) {
+        Shape shape = headers == this.headers ? shapes.get(template) : null;
+        return shape == null ? template.isApplicableTo(headers) : shape.applicable;
+    }
+
+    /**
+     * Return the slots of a template's required columns in rows with the given
+     * column index (-1 for required names which aren't columns), or null if not known
+     */
+    public int[] getRequiredSlots(Template template, ColumnIndex columns) {
+        Shape shape = columns == this.columns ? shapes.get(template) : null;
+        return shape == null ? null : shape.requiredSlots;
+    }
+
+    /**
+     * Return the template to which a reference was bound, or null if the
+     * reference is not part of the plan or there was no such template
+     */
+    public Template getBinding(TemplateRef ref) {
+        return bindings.get(ref);
+    }
+
+    /**
+     * Follow any references, as bound by this plan, to an actual template.
+     * Returns null if a reference is not bound.
+     */
+    public Template deref(Template template) {
+        while (template instanceof TemplateRef) {
+            template = bindings.get(template);
+        }
+        return template;
+    }
+
+    /**
+     * Return the index of the children of a composite template, or null
+     * if the children can't be indexed
+     */
+    public DispatchIndex getDispatchIndex(Template composite) {
+        return dispatch.get(composite);
+    }
+
+    /**
+     * The root template, with any reference dereferenced
+     */
+    public Template getRoot() {
+        return root;
+    }
+
+    /**
+     * All the actual templates in the plan, root first
+     */
+    public List<Template> getTemplates() {
+        return Collections.unmodifiableList(templates);
+    }
+
+    /**
+     * Names of any references for which there is no registered template
+     */
+    public List<String> getUnresolved() {
+        return Collections.unmodifiableList(unresolved);
+    }
+
+    static class Shape {
+        final boolean applicable;
+        final int[] requiredSlots;
+
+        Shape(boolean applicable, int[] requiredSlots) {
+            this.applicable = applicable;
+            this.requiredSlots = requiredSlots;
+        }
+    }
+}
@@ -0,0 +1,979 @@
+/******************************************************************
+ * File:        ExpressionCompiler.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.introspection.JexlMethod;
+import org.apache.commons.jexl2.introspection.Uberspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.epimorphics.dclib.values.GlobalFunctions;
+import com.epimorphics.dclib.values.RegexCache;
+
+/**
+ * Compiles the common subset of pattern expressions into direct evaluation
+ * steps, avoiding re-interpreting the JEXL syntax tree for every row.
+ * <p>
+ * The subset covers variable references, string, integer and boolean literals,
+ * chained method calls such as <code>code.toCleanSegment()</code> or
+ * <code>x.map('src')</code>, calls to the global functions, <code>+</code>,
+ * <code>==</code>, <code>!=</code>, conditionals (<code>c ? a : b</code>
+ * and <code>a ?: b</code>) and parentheses. Anything else is left to JEXL.
+ * </p>
+ * <p>
+ * The aim is to give the same answers as the silent, non-strict, JEXL engine
+ * used by {@link Pattern}. So the operators delegate to a JEXL arithmetic, a
+ * method which fails returns null and calling a method on null makes the whole
+ * expression null. Method calls are bound to a MethodHandle when the choice of
+ * method is unambiguous (a single public, non-varargs, method of that name and
+ * arity which accepts the argument types as they are). The binding is cached
+ * against the receiver and argument classes. Any other case is resolved by
+ * JEXL's own introspection.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ExpressionCompiler {
+    static final Logger log = LoggerFactory.getLogger( ExpressionCompiler.class );
+
+    protected static final Set<String> KEYWORDS = new HashSet<>( Arrays.asList(
+            "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not",
+            "null", "true", "false", "new", "empty", "size", "if", "else", "for",
+            "foreach", "while", "function", "return", "var", "in") );
+
+    protected static final PatternArithmetic arithmetic = new PatternArithmetic();
+
+    protected static volatile boolean enabled = true;
+
+    /**
+     * Enable or disable compilation of patterns created after this call, enabled by default.
+     */
+    public static void setEnabled(boolean enabled) {
+        ExpressionCompiler.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compile the source of a pattern expression, which should already have been
+     * successfully parsed by JEXL. Returns null if the expression is not in the
+     * compilable subset.
+     */
+    public static CompiledExpression compile(String src) {
+        return compile(src, null);
+    }
+
+    /**
+     * Compile the source of a pattern expression, sharing pure method calls with any
+     * identical calls in other expressions compiled against the same table, so that
+     * they are only evaluated once per row. Returns null if the expression is not
+     * in the compilable subset.
+     */
+    public static CompiledExpression compile(String src, SharedExpressions shared) {
+        if (!enabled) return null;
+        try {
+            Parser parser = new Parser(src, shared);
+            Term root = parser.parseTernary();
+            parser.skipSpace();
+            if (!parser.atEnd()) {
+                return null;
+            }
+            return new CompiledExpression(src, root);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    // ---- Parsing --------------------------------------------------------------
+
+    @SuppressWarnings("serial")
+    static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    static class Parser {
+        final String src;
+        final SharedExpressions shared;
+        int pos = 0;
+
+        Parser(String src, SharedExpressions shared) {
+            this.src = src;
+            this.shared = shared;
+        }
+
+        Term share(MethodCall call) {
+            if (shared == null || !call.isPure()) {
+                return call;
+            }
+            Set<String> vars = new HashSet<>();
+            call.variables(vars);
+            return vars.isEmpty() ? call : shared.share(call);
+        }
+
+        boolean atEnd() {
+            return pos >= src.length();
+        }
+
+        char peek() {
+            return pos < src.length() ? src.charAt(pos) : 0;
+        }
+
+        char peek(int offset) {
+            int p = pos + offset;
+            return p < src.length() ? src.charAt(p) : 0;
+        }
+
+        void skipSpace() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
+        }
+
+        void expect(char c) {
+            skipSpace();
+            if (peek() != c) throw new Unsupported();
+            pos++;
+        }
+
+        Term parseTernary() {
+            Term cond = parseEquality();
+            skipSpace();
+            if (peek() != '?') return cond;
+            pos++;
+            skipSpace();
+            if (peek() == ':') {
+                pos++;
+                return new Elvis(cond, parseTernary());
+            }
+            Term ifTrue = parseTernary();
+            expect(':');
+            Term ifFalse = parseTernary();
+            return new Conditional(cond, ifTrue, ifFalse);
+        }
+
+        Term parseEquality() {
+            Term left = parseAdditive();
+            skipSpace();
+            boolean negate;
+            if (peek() == '=' && peek(1) == '=') {
+                negate = false;
+            } else if (peek() == '!' && peek(1) == '=') {
+                negate = true;
+            } else {
+                return left;
+            }
+            pos += 2;
+            Term right = parseAdditive();
+            skipSpace();
+            if ((peek() == '=' || peek() == '!') && peek(1) == '=') {
+                throw new Unsupported();
+            }
+            return new Equals(left, right, negate);
+        }
+
+        Term parseAdditive() {
+            Term left = parsePostfix();
+            while (true) {
+                skipSpace();
+                if (peek() == '+' && peek(1) != '+' && peek(1) != '=') {
+                    pos++;
+                    left = new Add(left, parsePostfix());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Term parsePostfix() {
+            Term term = parsePrimary();
+            while (true) {
+                skipSpace();
+                char c = peek();
+                if (c == '.') {
+                    pos++;
+                    skipSpace();
+                    String name = identifier();
+                    skipSpace();
+                    if (peek() != '(' || KEYWORDS.contains(name)) {
+                        // Property access is left to JEXL
+                        throw new Unsupported();
+                    }
+                    term = share( new MethodCall(term, name, arguments()) );
+                } else if (c == '[') {
+                    throw new Unsupported();
+                } else {
+                    return term;
+                }
+            }
+        }
+
+        Term parsePrimary() {
+            skipSpace();
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                Term term = parseTernary();
+                expect(')');
+                return term;
+            } else if (c == '\'' || c == '"') {
+                return new Constant( stringLiteral(c) );
+            } else if (c >= '0' && c <= '9') {
+                return new Constant( integerLiteral() );
+            } else {
+                String name = identifier();
+                if (name.equals("true")) return new Constant(Boolean.TRUE);
+                if (name.equals("false")) return new Constant(Boolean.FALSE);
+                if (name.equals("null")) return new Constant(null);
+                if (KEYWORDS.contains(name) || namespaceFollows()) throw new Unsupported();
+                skipSpace();
+                if (peek() == '(') {
+                    Object namespace = GlobalFunctions.getFunctions().get(null);
+                    if (namespace == null) throw new Unsupported();
+                    return share( new MethodCall(new Constant(namespace), name, arguments()) );
+                }
+                return new Variable(name);
+            }
+        }
+
+        // JEXL reads "a : f(" as a namespaced function call, which we leave to it
+        boolean namespaceFollows() {
+            int start = pos;
+            try {
+                skipSpace();
+                if (peek() != ':') return false;
+                pos++;
+                skipSpace();
+                if (!Character.isJavaIdentifierStart(peek())) return false;
+                identifier();
+                skipSpace();
+                return peek() == '(';
+            } finally {
+                pos = start;
+            }
+        }
+
+        Term[] arguments() {
+            expect('(');
+            List<Term> args = new ArrayList<>();
+            skipSpace();
+            if (peek() == ')') {
+                pos++;
+            } else {
+                while (true) {
+                    args.add( parseTernary() );
+                    skipSpace();
+                    char c = peek();
+                    pos++;
+                    if (c == ')') break;
+                    if (c != ',') throw new Unsupported();
+                }
+            }
+            return args.toArray( new Term[args.size()] );
+        }
+
+        String identifier() {
+            int start = pos;
+            char c = peek();
+            if ( !(Character.isLetter(c) || c == '_' || c == '$') ) throw new Unsupported();
+            pos++;
+            while (true) {
+                c = peek();
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (c == '@' || c == '#') throw new Unsupported();
+            return src.substring(start, pos);
+        }
+
+        String stringLiteral(char quote) {
+            int start = ++pos;
+            while (pos < src.length()) {
+                char c = src.charAt(pos);
+                if (c == '\\') throw new Unsupported();    // Escapes are left to JEXL
+                if (c == quote) {
+                    return src.substring(start, pos++);
+                }
+                pos++;
+            }
+            throw new Unsupported();
+        }
+
+        Integer integerLiteral() {
+            int start = pos;
+            while (Character.isDigit(peek())) pos++;
+            char c = peek();
+            if (c == '.' || Character.isLetter(c)) throw new Unsupported();
+            String digits = src.substring(start, pos);
+            if (digits.length() > 9 || (digits.length() > 1 && digits.charAt(0) == '0')) {
+                // Leave octal and long literals to JEXL
+                throw new Unsupported();
+            }
+            return Integer.valueOf(digits);
+        }
+    }
+
+    // ---- Evaluation -----------------------------------------------------------
+
+    /**
+     * Signals that the whole expression evaluates to null, as when JEXL
+     * is asked to call a method on null.
+     */
+    @SuppressWarnings("serial")
+    static class Abort extends RuntimeException {
+        static final Abort INSTANCE = new Abort();
+
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    static abstract class Term {
+        abstract Object eval(BindingEnv env);
+
+        /** Add the names of the variables referenced by the term */
+        void variables(Set<String> vars) {
+        }
+
+        /** Add the names of variables which, if unbound, make the term evaluate to null */
+        void required(Set<String> vars) {
+        }
+
+        /** True if the term might evaluate to a ValueError */
+        boolean mayFail() {
+            return false;
+        }
+
+        /** The sub-terms of this term */
+        Term[] children() {
+            return NO_TERMS;
+        }
+
+        /**
+         * True if the term only depends on its variables and has no side effects,
+         * apart from lookups in the map sources reported by {@link #mapSources(Set)}
+         */
+        boolean isPure() {
+            for (Term t : children()) {
+                if (!t.isPure()) return false;
+            }
+            return true;
+        }
+
+        /** Add the names of the map sources the term looks up */
+        void mapSources(Set<String> sources) {
+            for (Term t : children()) {
+                t.mapSources(sources);
+            }
+        }
+    }
+
+    static final Term[] NO_TERMS = new Term[0];
+
+    static void intersect(Term a, Term b, Set<String> vars) {
+        Set<String> ra = new HashSet<>();
+        a.required(ra);
+        Set<String> rb = new HashSet<>();
+        b.required(rb);
+        ra.retainAll(rb);
+        vars.addAll(ra);
+    }
+
+    static class Constant extends Term {
+        final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            if (value instanceof String) {
+                return "'" + ((String)value).replace("\\", "\\\\").replace("'", "\\'") + "'";
+            } else if (value instanceof Long) {
+                return value + "L";
+            }
+            return String.valueOf(value);
+        }
+    }
+
+    static class Variable extends Term {
+        final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            return env.get(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            vars.add(name);
+        }
+
+        @Override
+        void required(Set<String> vars) {
+            vars.add(name);
+        }
+    }
+
+    static class Add extends Term {
+        final Term left, right;
+
+        Add(Term left, Term right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            Object l = left.eval(env);
+            Object r = right.eval(env);
+            try {
+                return arithmetic.add(l, r);
+            } catch (ArithmeticException e) {
+                throw Abort.INSTANCE;
+            }
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            left.variables(vars);
+            right.variables(vars);
+        }
+
+        @Override
+        Term[] children() {
+            return new Term[]{ left, right };
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " + " + right + ")";
+        }
+    }
+
+    static class Equals extends Term {
+        final Term left, right;
+        final boolean negate;
+
+        Equals(Term left, Term right, boolean negate) {
+            this.left = left;
+            this.right = right;
+            this.negate = negate;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            Object l = left.eval(env);
+            Object r = right.eval(env);
+            try {
+                return arithmetic.equals(l, r) != negate ? Boolean.TRUE : Boolean.FALSE;
+            } catch (ArithmeticException e) {
+                throw Abort.INSTANCE;
+            }
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            left.variables(vars);
+            right.variables(vars);
+        }
+
+        @Override
+        Term[] children() {
+            return new Term[]{ left, right };
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + (negate ? " != " : " == ") + right + ")";
+        }
+    }
+
+    static class Conditional extends Term {
+        final Term cond, ifTrue, ifFalse;
+
+        Conditional(Term cond, Term ifTrue, Term ifFalse) {
+            this.cond = cond;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            Object c = cond.eval(env);
+            return (c != null && arithmetic.toBoolean(c)) ? ifTrue.eval(env) : ifFalse.eval(env);
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            cond.variables(vars);
+            ifTrue.variables(vars);
+            ifFalse.variables(vars);
+        }
+
+        @Override
+        Term[] children() {
+            return new Term[]{ cond, ifTrue, ifFalse };
+        }
+
+        @Override
+        public String toString() {
+            return "(" + cond + " ? " + ifTrue + " : " + ifFalse + ")";
+        }
+
+        @Override
+        void required(Set<String> vars) {
+            intersect(ifTrue, ifFalse, vars);
+        }
+
+        @Override
+        boolean mayFail() {
+            return ifTrue.mayFail() || ifFalse.mayFail();
+        }
+    }
+
+    static class Elvis extends Term {
+        final Term value, ifFalse;
+
+        Elvis(Term value, Term ifFalse) {
+            this.value = value;
+            this.ifFalse = ifFalse;
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            Object v = value.eval(env);
+            return (v != null && arithmetic.toBoolean(v)) ? v : ifFalse.eval(env);
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            value.variables(vars);
+            ifFalse.variables(vars);
+        }
+
+        @Override
+        Term[] children() {
+            return new Term[]{ value, ifFalse };
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + " ?: " + ifFalse + ")";
+        }
+
+        @Override
+        void required(Set<String> vars) {
+            intersect(value, ifFalse, vars);
+        }
+
+        @Override
+        boolean mayFail() {
+            return value.mayFail() || ifFalse.mayFail();
+        }
+    }
+
+    /**
+     * Value methods and global functions whose result only depends on their receiver and
+     * arguments. Excludes anything which writes to the output (fetch, referenceTime,
+     * addPropertyValue, print), reports errors (asNumber) or reads other state.
+     */
+    static final Set<String> PURE_METHODS = new HashSet<>( Arrays.asList(
+            "asString", "getString", "toString", "toLowerCase", "toUpperCase", "toSegment", "toCleanSegment",
+            "trim", "substring", "replaceAll", "regex", "matches", "split", "lastSegment", "append",
+            "format", "asDate", "asBoolean", "datatype", "lang", "digest", "isString", "isNumber", "isDate",
+            "isNull", "isEmpty", "getValue", "getYear", "getMonth", "getDay", "getHour", "getMinute",
+            "getSecond", "getFullSecond", "toWholeSeconds", "toLocalTime", "plus", "minus",
+            "plusYearDays", "minusYearDays", "getLexicalForm", "getURI", "getName", "getLanguage",
+            "isLiteral", "isResource", "isAnon", "round", "value", "asResource") );
+
+    static final Set<String> REGEX_METHODS = new HashSet<>( Arrays.asList("regex", "replaceAll", "matches", "split") );
+
+    static class MethodCall extends Term {
+        final Term receiver;
+        final String name;
+        final Term[] args;
+        volatile CallSite site;
+
+        MethodCall(Term receiver, String name, Term[] args) {
+            this.receiver = receiver;
+            this.name = name;
+            this.args = args;
+            if (REGEX_METHODS.contains(name) && args.length > 0 && args[0] instanceof Constant
+                    && ((Constant)args[0]).value instanceof String) {
+                // Compile literal regex arguments up front, a bad regex is left to be reported when used
+                try {
+                    RegexCache.compile( (String)((Constant)args[0]).value );
+                } catch (PatternSyntaxException e) {
+                    // ignore
+                }
+            }
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            Object bean = receiver.eval(env);
+            if (bean == null) {
+                throw Abort.INSTANCE;
+            }
+            Object[] argv = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argv[i] = args[i].eval(env);
+            }
+            CallSite s = site;
+            if (s == null || !s.matches(bean, argv)) {
+                s = CallSite.bind(bean, name, argv);
+                site = s;
+            }
+            return s.handle == null ? invokeByIntrospection(bean, argv) : s.invoke(bean, argv);
+        }
+
+        @Override
+        void variables(Set<String> vars) {
+            receiver.variables(vars);
+            for (Term arg : args) {
+                arg.variables(vars);
+            }
+        }
+
+        @Override
+        void required(Set<String> vars) {
+            // A null receiver makes the whole expression null
+            receiver.required(vars);
+        }
+
+        @Override
+        boolean mayFail() {
+            return true;
+        }
+
+        @Override
+        Term[] children() {
+            Term[] terms = Arrays.copyOf(args, args.length + 1);
+            terms[args.length] = receiver;
+            return terms;
+        }
+
+        @Override
+        boolean isPure() {
+            if (PURE_METHODS.contains(name) || isMapLookup()) {
+                return super.isPure();
+            }
+            return false;
+        }
+
+        @Override
+        void mapSources(Set<String> sources) {
+            if (isMapLookup()) {
+                sources.add( (String)((Constant)args[0]).value );
+            }
+            super.mapSources(sources);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder();
+            if (receiver instanceof Constant && ((Constant)receiver).value instanceof Class) {
+                str.append("fn:");
+            } else {
+                str.append(receiver).append('.');
+            }
+            str.append(name).append('(');
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) str.append(", ");
+                str.append(args[i]);
+            }
+            return str.append(')').toString();
+        }
+
+        // A map lookup from a single named source, which is pure unless the source enriches the output
+        private boolean isMapLookup() {
+            return name.equals("map") && args.length > 0 && args[0] instanceof Constant
+                    && ((Constant)args[0]).value instanceof String;
+        }
+
+        Object invokeByIntrospection(Object bean, Object[] argv) {
+            Uberspect uberspect = Pattern.engine.getUberspect();
+            try {
+                JexlMethod method = uberspect.getMethod(bean, name, argv, null);
+                if (method == null && arithmetic.narrow(argv)) {
+                    method = uberspect.getMethod(bean, name, argv, null);
+                }
+                if (method == null) {
+                    log.debug("No method " + name + " on " + bean);
+                    return null;
+                }
+                return method.invoke(bean, argv);
+            } catch (Exception e) {
+                log.debug("Method " + name + " failed", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A pure method call which occurs in more than one expression. Once it is used
+     * more than once the last result is kept, along with the row it was computed for
+     * and the values of its variables, so that the other occurrences in the same row
+     * can reuse it. The cached result is immutable and replaced as a whole so the
+     * term can be shared between threads.
+     */
+    static class Shared extends Term {
+        static final Object ABORTED = new Object();
+
+        final MethodCall call;
+        final String[] vars;
+        volatile int uses;
+        volatile RowResult last;
+
+        Shared(MethodCall call) {
+            this.call = call;
+            Set<String> v = new HashSet<>();
+            call.variables(v);
+            this.vars = v.toArray( new String[v.size()] );
+        }
+
+        @Override
+        Object eval(BindingEnv env) {
+            if (uses < 2) {
+                return call.eval(env);
+            }
+            Object row = env.getRowToken();
+            RowResult r = last;
+            if (r != null && r.row == row && r.matches(env, vars)) {
+                if (r.result == ABORTED) throw Abort.INSTANCE;
+                return r.result;
+            }
+            Object[] inputs = new Object[vars.length];
+            for (int i = 0; i < vars.length; i++) {
+                inputs[i] = env.get(vars[i]);
+            }
+            try {
+                Object result = call.eval(env);
+                last = new RowResult(row, inputs, result);
+                return result;
+            } catch (Abort e) {
+                last = new RowResult(row, inputs, ABORTED);
+                throw e;
+            }
+        }
+
+        @Override
+        void variables(Set<String> v) {
+            call.variables(v);
+        }
+
+        @Override
+        void required(Set<String> v) {
+            call.required(v);
+        }
+
+        @Override
+        boolean mayFail() {
+            return call.mayFail();
+        }
+
+        @Override
+        Term[] children() {
+            return call.children();
+        }
+
+        @Override
+        boolean isPure() {
+            return call.isPure();
+        }
+
+        @Override
+        void mapSources(Set<String> sources) {
+            call.mapSources(sources);
+        }
+
+        @Override
+        public String toString() {
+            return call.toString();
+        }
+    }
+
+    static final class RowResult {
+        final Object row;
+        final Object[] inputs;
+        final Object result;
+
+        RowResult(Object row, Object[] inputs, Object result) {
+            this.row = row;
+            this.inputs = inputs;
+            this.result = result;
+        }
+
+        boolean matches(BindingEnv env, String[] vars) {
+            for (int i = 0; i < vars.length; i++) {
+                if (env.get(vars[i]) != inputs[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A method bound for a particular receiver class and argument classes.
+     * Handles have the uniform type (Object, Object[])Object, for a static
+     * method the receiver is ignored.
+     */
+    static class CallSite {
+        static final MethodType SHAPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+        final Class<?> beanClass;   // The receiver class, or for static calls the namespace class itself
+        final boolean isStatic;
+        final Class<?>[] argClasses;
+        final MethodHandle handle;     // May be null
+
+        CallSite(Class<?> beanClass, boolean isStatic, Class<?>[] argClasses, MethodHandle handle) {
+            this.beanClass = beanClass;
+            this.isStatic = isStatic;
+            this.argClasses = argClasses;
+            this.handle = handle;
+        }
+
+        boolean matches(Object bean, Object[] argv) {
+            if (isStatic ? bean != beanClass : bean.getClass() != beanClass) {
+                return false;
+            }
+            for (int i = 0; i < argv.length; i++) {
+                Object arg = argv[i];
+                if ((arg == null ? null : arg.getClass()) != argClasses[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Object invoke(Object bean, Object[] argv) {
+            try {
+                return (Object) handle.invokeExact(bean, argv);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                log.debug("Method invocation failed", e);
+                return null;
+            }
+        }
+
+        /**
+         * Bind a call to a method handle. If the choice of method should be left
+         * to JEXL then returns a site with no handle, so that the decision is
+         * also cached.
+         */
+        static CallSite bind(Object bean, String name, Object[] argv) {
+            boolean isStatic = bean instanceof Class<?>;
+            Class<?> cls = isStatic ? (Class<?>) bean : bean.getClass();
+            Class<?>[] argClasses = new Class<?>[argv.length];
+            for (int i = 0; i < argv.length; i++) {
+                argClasses[i] = argv[i] == null ? null : argv[i].getClass();
+            }
+            MethodHandle handle = findHandle(cls, isStatic, name, argClasses);
+            return new CallSite(cls, isStatic, argClasses, handle);
+        }
+
+        static MethodHandle findHandle(Class<?> cls, boolean isStatic, String name, Class<?>[] argClasses) {
+            if (!Modifier.isPublic(cls.getModifiers())) return null;
+            if (isStatic && hasMethod(Class.class, name)) {
+                // JEXL would look for methods on the Class object first
+                return null;
+            }
+            Method method = null;
+            for (Method m : cls.getMethods()) {
+                if (!m.getName().equals(name)) continue;
+                if (m.isVarArgs()) return null;
+                if (m.getParameterTypes().length != argClasses.length) continue;
+                if (method != null) return null;
+                method = m;
+            }
+            if (method == null || isStatic != Modifier.isStatic(method.getModifiers())) {
+                return null;
+            }
+
+            Class<?>[] params = method.getParameterTypes();
+            for (int i = 0; i < argClasses.length; i++) {
+                Class<?> arg = argClasses[i];
+                Class<?> param = params[i];
+                if (arg == null) {
+                    if (param.isPrimitive()) return null;
+                } else if (param.isPrimitive()) {
+                    if (MethodType.methodType(param).wrap().returnType() != arg) return null;
+                } else if (!param.isAssignableFrom(arg)) {
+                    return null;
+                }
+            }
+
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(method)
+                        .asSpreader(Object[].class, argClasses.length);
+                if (isStatic) {
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+                }
+                return handle.asType(SHAPE);
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        static boolean hasMethod(Class<?> cls, String name) {
+            for (Method m : cls.getMethods()) {
+                if (m.getName().equals(name)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Lenient arithmetic, as used by the pattern JEXL engine, with access to
+     * the argument narrowing JEXL applies when a method can't be found.
+     */
+    static class PatternArithmetic extends JexlArithmetic {
+        PatternArithmetic() {
+            super(true);
+        }
+
+        boolean narrow(Object[] args) {
+            return narrowArguments(args);
+        }
+    }
+}
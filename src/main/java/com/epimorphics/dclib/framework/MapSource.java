@@ -44,4 +44,9 @@ public interface MapSource extends ConfigInstance {
      * Enrich the RDF outstream from other properties of a matched node
      */
     public void enrich(StreamRDF stream, Node match);
+    
+    /**
+     * True if {@link #enrich(StreamRDF, Node)} may write anything to the stream
+     */
+    public boolean isEnriching();
 }
@@ -19,19 +19,19 @@ package com.epimorphics.dclib.framework;
 public class MatchFailed extends RuntimeException 
 {
     public MatchFailed() {
-        super();
+        this(null, null);
     }
     
     public MatchFailed(String message) {
-        super(message); 
+        this(message, null); 
     }
     
     public MatchFailed(Throwable cause) { 
-        super(cause) ;
+        this(cause == null ? null : cause.toString(), cause) ;
     }
     
     public MatchFailed(String message, Throwable cause) { 
-        super(message, cause) ;
+        // No stack trace, these are used for control flow and can be thrown for every row
+        super(message, cause, false, false) ;
     }
-
 }
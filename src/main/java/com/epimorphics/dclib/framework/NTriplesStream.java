@@ -0,0 +1,124 @@
+/******************************************************************
+ * File:        NTriplesStream.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Writes triples (and quads) as N-Triples (N-Quads) lines, keeping track of the number
+ * of bytes written so that the output can be checkpointed. Blank node labels
+ * are derived directly from the node so they are the same in a resumed run.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class NTriplesStream extends StreamRDFBase implements Checkpointable {
+    protected CountingStream counter;
+    protected Writer out;
+
+    /**
+     * Write to the given stream
+     * @param stream the destination 
+     * @param initialPosition the number of bytes already in the destination, if appending
+     */
+    public NTriplesStream(OutputStream stream, long initialPosition) {
+        counter = new CountingStream(stream, initialPosition);
+        out = new BufferedWriter( new OutputStreamWriter(counter, StandardCharsets.UTF_8) );
+    }
+
+    public NTriplesStream(OutputStream stream) {
+        this(stream, 0);
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        write(triple.getSubject(), triple.getPredicate(), triple.getObject(), null);
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        Node g = quad.getGraph();
+        write(quad.getSubject(), quad.getPredicate(), quad.getObject(), 
+                (g == null || quad.isDefaultGraph()) ? null : g);
+    }
+
+    protected void write(Node s, Node p, Node o, Node g) {
+        try {
+            out.write( NodeFmtLib.str(s) );
+            out.write(' ');
+            out.write( NodeFmtLib.str(p) );
+            out.write(' ');
+            out.write( NodeFmtLib.str(o) );
+            if (g != null) {
+                out.write(' ');
+                out.write( NodeFmtLib.str(g) );
+            }
+            out.write(" .\n");
+        } catch (IOException e) {
+            throw new EpiException(e);
+        }
+    }
+
+    @Override
+    public long sync() throws IOException {
+        out.flush();
+        return counter.count;
+    }
+
+    @Override
+    public void finish() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new EpiException(e);
+        }
+    }
+
+    /**
+     * Close the underlying stream
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    static class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
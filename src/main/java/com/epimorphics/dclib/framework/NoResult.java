@@ -0,0 +1,44 @@
+/******************************************************************
+ * File:        NoResult.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+/**
+ * Returned by {@link Pattern#tryEvaluate(BindingEnv, ConverterProcess, int)} in place
+ * of throwing a {@link NullResult}, so that callers which just skip optional values
+ * don't pay for an exception on every missing cell.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public final class NoResult {
+    /** Result for missing data, where there is nothing to report */
+    public static final NoResult MISSING = new NoResult(null);
+
+    protected final String message;
+
+    public NoResult(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Return the equivalent exception, for callers which need one
+     */
+    public NullResult asException() {
+        return message == null ? NullResult.INSTANCE : new NullResult(message);
+    }
+
+    @Override
+    public String toString() {
+        return message == null ? "NoResult" : "NoResult: " + message;
+    }
+}
@@ -0,0 +1,46 @@
+/******************************************************************
+ * File:        NodeCodec.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+
+/**
+ * Encode nodes as strings, and back, for saving in checkpoints. URIs and
+ * literals use the N-Triples syntax, blank nodes keep their internal label
+ * so that a decoded blank node is the same node as the original.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class NodeCodec {
+    protected static final String BNODE_PREFIX = "_:";
+    
+    public static String encode(Node node) {
+        if (node == null) {
+            return "";
+        } else if (node.isBlank()) {
+            return BNODE_PREFIX + node.getBlankNodeLabel();
+        } else {
+            return NodeFmtLib.str(node);
+        }
+    }
+    
+    public static Node decode(String encoded) {
+        if (encoded.isEmpty()) {
+            return null;
+        } else if (encoded.startsWith(BNODE_PREFIX)) {
+            return NodeFactory.createBlankNode( encoded.substring(BNODE_PREFIX.length()) );
+        } else {
+            return NodeFactoryExtra.parseNode(encoded);
+        }
+    }
+}
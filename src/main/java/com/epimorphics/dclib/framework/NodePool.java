@@ -0,0 +1,59 @@
+/******************************************************************
+ * File:        NodePool.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+/**
+ * Process-wide pool of URI nodes which templates mint repeatedly, such as
+ * types, predicates, code list entries and the dataset. Nodes are immutable
+ * so can be shared freely between conversions and threads. The pool is capped,
+ * if it fills up it is simply cleared and starts again, so it should only be
+ * used for URIs which are expected to recur.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class NodePool {
+    public static final int MAX_SIZE = 50000;
+
+    protected static final ConcurrentHashMap<String, Node> uris = new ConcurrentHashMap<>();
+
+    /**
+     * Return a URI node for the given URI, reusing any pooled instance
+     */
+    public static Node createURI(String uri) {
+        Node node = uris.get(uri);
+        if (node == null) {
+            if (uris.size() >= MAX_SIZE) {
+                uris.clear();
+            }
+            node = NodeFactory.createURI(uri);
+            Node prior = uris.putIfAbsent(uri, node);
+            if (prior != null) {
+                node = prior;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Number of nodes currently pooled
+     */
+    public static int size() {
+        return uris.size();
+    }
+
+    public static void clear() {
+        uris.clear();
+    }
+}
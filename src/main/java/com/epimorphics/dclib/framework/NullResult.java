@@ -19,20 +19,23 @@ package com.epimorphics.dclib.framework;
 @SuppressWarnings("serial")
 public class NullResult extends RuntimeException 
 {
+    /** Shared instance for the common case where there is nothing to report */
+    public static final NullResult INSTANCE = new NullResult();
+    
     public NullResult() {
-        super();
+        this(null, null);
     }
     
     public NullResult(String message) {
-        super(message); 
+        this(message, null); 
     }
     
     public NullResult(Throwable cause) { 
-        super(cause) ;
+        this(cause == null ? null : cause.toString(), cause) ;
     }
     
     public NullResult(String message, Throwable cause) { 
-        super(message, cause) ;
+        // No stack trace, these are used for control flow and can be thrown for every row
+        super(message, cause, false, false) ;
     }
-
 }
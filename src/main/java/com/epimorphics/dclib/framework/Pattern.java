@@ -10,7 +10,10 @@
 package com.epimorphics.dclib.framework;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlEngine;
@@ -20,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import com.epimorphics.dclib.values.GlobalFunctions;
 import com.epimorphics.dclib.values.Value;
+import com.epimorphics.dclib.values.ValueDate;
 import com.epimorphics.dclib.values.ValueError;
 import com.epimorphics.dclib.values.ValueFunction;
 import com.epimorphics.dclib.values.ValueNode;
@@ -46,6 +50,19 @@ public class Pattern {
     protected boolean isConstant;
     
     protected List<Object> components = new ArrayList<>();
+    protected Set<String> variables = new HashSet<>();
+    protected String[] required;
+    
+    // For pure patterns whose results are worth memoizing, see ConverterProcess.setMemoize
+    protected boolean isPure;
+    protected Set<String> mapSources = new HashSet<>();
+    
+    // Table of shared sub-expressions, only used while parsing
+    protected SharedExpressions shared;
+    
+    // For constant patterns which can be resolved when the template is loaded
+    protected Object constantValue;
+    protected Node constantNode;
     
     static {
         engine.setStrict(false);
@@ -62,6 +79,7 @@ public class Pattern {
      * @param dc DataContext used for things like prefix expansion
      */
     public Pattern(String pattern, DataContext dc) {
+        shared = dc == null ? null : dc.getSharedExpressions();
         pattern = pattern.trim();
         if (pattern.startsWith("\\<") || pattern.startsWith("\\^")) {
             parse(pattern.substring(1));
@@ -76,6 +94,7 @@ public class Pattern {
             parse(pattern);
         }
         expandPrefixes(dc);
+        shared = null;
     }
     
     
@@ -87,18 +106,133 @@ public class Pattern {
     public boolean isInverse() {
         return isInverse;
     }
+    
+    public boolean isConstant() {
+        return isConstant;
+    }
+    
+    /**
+     * Return the names of the variables referenced by the pattern
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+    
+    /**
+     * Return the names of variables which must have a value for the pattern
+     * to evaluate. Only covers the expression blocks which were compiled,
+     * so a pattern may still fail when these are all bound.
+     */
+    public String[] getRequiredVariables() {
+        return required;
+    }
+    
+    /**
+     * True if one of the required variables of the pattern has no value (or is a
+     * ValueNull) in the environment, so that evaluation is bound to give a NullResult.
+     * Lets callers which ignore missing values skip the pattern without evaluating it.
+     */
+    public boolean isMissingInputs(BindingEnv env) {
+        for (String var : required) {
+            if (env.get(var) == null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
 
+    /**
+     * True if the pattern's value only depends on the values of its variables,
+     * evaluating it has no side effects and involves enough work to be worth memoizing
+     */
+    public boolean isPure() {
+        return isPure;
+    }
+    
+    /**
+     * If the pattern is a single expression testing a variable against a string
+     * constant, such as {@code {type == 'X'}}, return the variable name and the
+     * constant, otherwise return null
+     */
+    public String[] getEqualityTest() {
+        if (components.size() == 1 && components.get(0) instanceof CompiledExpression) {
+            return ((CompiledExpression)components.get(0)).getEqualityTest();
+        }
+        return null;
+    }
+    
     /**
      * Interpret the pattern in some binding environment of variables.
+     * Throws a {@link NullResult} if there is no value.
      */
     public Object evaluate(BindingEnv env, ConverterProcess proc, int rowNumber) {
-        if (isConstant) {
+        Object result = tryEvaluate(env, proc, rowNumber);
+        if (result instanceof NoResult) {
+            throw ((NoResult)result).asException();
+        }
+        return result;
+    }
+
+    /**
+     * Interpret the pattern in some binding environment of variables.
+     * Returns a {@link NoResult} rather than throwing if there is no value.
+     */
+    public Object tryEvaluate(BindingEnv env, ConverterProcess proc, int rowNumber) {
+        if (constantValue != null) {
+            return constantValue;
+        } else if (constantNode != null) {
+            // A ValueNode caches a wrapper bound to the model of a process so is never shared
+            return new ValueNode(constantNode);
+        } else if (isConstant) {
             return wrapResult( components.get(0) );
-            
-        } else if (components.size() == 1) {
+        } else if (isPure && proc != null && proc.isMemoize()) {
+            return memoEvaluate(env, proc, rowNumber);
+        } else {
+            return evaluateComponents(env, proc, rowNumber);
+        }
+    }
+    
+    private Object memoEvaluate(BindingEnv env, ConverterProcess proc, int rowNumber) {
+        PatternMemo m = proc.getMemo(this);
+        PatternMemo.Key key = m.isEnabled() ? m.keyFor(env) : null;
+        if (key == null) {
+            return evaluateComponents(env, proc, rowNumber);
+        }
+        Object result = m.get(key);
+        if (result == null) {
+            result = evaluateComponents(env, proc, rowNumber);
+            // Errors are not memoized so that they get reported for each row. Nor are
+            // dates, each row needs its own so that reftime triples are injected for it
+            if ( (!(result instanceof NoResult) || result == NoResult.MISSING) && !(result instanceof ValueDate) ) {
+                m.put(key, result);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Create an empty memo for the results of this pattern in the given process
+     */
+    protected PatternMemo createMemo(ConverterProcess proc) {
+        // Map lookups are only pure if the source doesn't add enrichment triples
+        boolean enabled = true;
+        for (String name : mapSources) {
+            try {
+                enabled &= !proc.getDataContext().getSource(name).isEnriching();
+            } catch (EpiException e) {
+                enabled = false;
+            }
+        }
+        return new PatternMemo(variables.toArray(new String[variables.size()]), enabled);
+    }
+    
+    private Object evaluateComponents(BindingEnv env, ConverterProcess proc, int rowNumber) {
+        if (components.size() == 1) {
             Object result = evaluateComponent(0, env);
-            checkForError(result, proc, rowNumber);
+            if (result == null) return NoResult.MISSING;
+            NoResult err = checkForError(result, proc, rowNumber);
+            if (err != null) return err;
             return wrapResult(result);
 
         } else {
@@ -109,7 +243,9 @@ public class Pattern {
             Value ans = null;
             for (int i = 0; i < len; i++) {
                 Object result = evaluateComponent(i, env);
-                checkForError(result, proc, rowNumber);
+                if (result == null) return NoResult.MISSING;
+                NoResult err = checkForError(result, proc, rowNumber);
+                if (err != null) return err;
                 if (result instanceof Value && ((Value)result).isMulti()) {
                     if (!multiValued) {
                         multiValued = true;
@@ -148,7 +284,7 @@ public class Pattern {
         return result;
     }
     
-    private void checkForError(Object result, ConverterProcess proc, int rowNumber) {
+    private NoResult checkForError(Object result, ConverterProcess proc, int rowNumber) {
         if (result instanceof ValueError) {
             ValueError err = (ValueError)result;
             ProgressReporter reporter = proc.getMessageReporter();
@@ -156,8 +292,9 @@ public class Pattern {
             if (err.isFatal()) {
                 reporter.setFailed();
             }
-            throw new NullResult(err.getErrorMessage());
-        }        
+            return new NoResult(err.getErrorMessage());
+        }
+        return null;
     }
 
 
@@ -166,6 +303,9 @@ public class Pattern {
      * Return the result converted to an RDF Node
      */
     public Node evaluateAsNode(BindingEnv env, ConverterProcess proc, int rowNumber) {
+        if (constantNode != null) {
+            return constantNode;
+        }
         return asNode( evaluate(env, proc, rowNumber) );
     }
 
@@ -175,6 +315,9 @@ public class Pattern {
      * exception if this is not possible
      */
     public Node evaluateAsURINode(BindingEnv env, ConverterProcess proc, int rowNumber) {
+        if (constantNode != null) {
+            return constantNode;
+        }
         return asNode( evaluate(env, proc, rowNumber) );
     }
 
@@ -208,7 +351,9 @@ public class Pattern {
      */
     public Node asNode(Object result) {
         // Assumes we have already taken care of multiple valued objects
-        if (isURI()) {
+        if (constantNode != null && result == constantValue) {
+            return constantNode;
+        } else if (isURI()) {
             return asURINode(result);
         } else if (result instanceof Node) {
             return (Node) result;
@@ -228,11 +373,16 @@ public class Pattern {
         return null;
     }
     
+    /**
+     * Evaluate one component of the pattern, returns null if there is no value
+     */
     protected Object evaluateComponent(int i, BindingEnv env) {
         Object component = components.get(i);
         Object result = null;
         if (component instanceof String) {
             result = component;
+        } else if (component instanceof CompiledExpression) {
+            result = ((CompiledExpression)component).evaluate(env);
         } else if (component instanceof Expression) {
             result = ((Expression)component).evaluate(env);
         } else if (component instanceof Script) {
@@ -244,18 +394,39 @@ public class Pattern {
             // Can't happen
             throw new EpiException("Internal state error in pattern evaluation");
         }
-        if (result == null) {
-            throw new NullResult();
-        }
         return result;
     }
     
     protected void expandPrefixes(DataContext dc) {
         if (isURI && isConstant) {
-            components.set(0, dc.expandURI((String)components.get(0)));
+            String uri = (String)components.get(0);
+            String expanded = dc.expandURI(uri);
+            components.set(0, expanded);
+            if (!expanded.equals(uri) || expanded.contains("://") || expanded.startsWith("urn:")) {
+                // Expanding again at evaluation time would make no difference so resolve it now,
+                // an unknown prefix is left in case the processing context defines it
+                constantNode = NodePool.createURI(expanded);
+            }
+        } else if (isConstant) {
+            ValueString value = new ValueString( (String)components.get(0) );
+            constantValue = value;
+            if (value.toString().indexOf("^^") == -1) {
+                // Typed literals depend on the prefixes of the processing context
+                constantNode = value.asNode();
+            }
         }
     }
     
+    /**
+     * Parse an expression block, using the compiled form if it is one
+     * that {@link ExpressionCompiler} handles and the JEXL expression otherwise.
+     */
+    protected Object compileExpression(String src) {
+        Expression expression = engine.createExpression(src);
+        CompiledExpression compiled = ExpressionCompiler.compile(src, shared);
+        return compiled == null ? expression : compiled;
+    }
+    
     protected static final String ESCAPED = "<>{}=";
 
     protected void parse(String pattern) {
@@ -312,7 +483,7 @@ public class Pattern {
                         if (isFunction) {
                             components.add( new ValueFunction( engine.createScript(src)) );
                         } else {
-                            components.add( isScript ? engine.createScript(src) : engine.createExpression(src) );
+                            components.add( isScript ? engine.createScript(src) : compileExpression(src) );
                         }
                     } catch (Exception e) {
                         log.error("Failed to parse pattern: " + src, e);
@@ -342,7 +513,49 @@ public class Pattern {
         } if (components.size() == 1 && components.get(0) instanceof String) {
             isConstant = true;
         }
+        analyseVariables();
+    }
+    
+    /**
+     * Find the variables the components reference. A compiled component which is null
+     * when one of its required variables is missing causes a NullResult, but only if
+     * no earlier component could have reported an error first.
+     */
+    protected void analyseVariables() {
+        Set<String> req = new LinkedHashSet<>();
+        boolean mayFail = false;
+        for (Object component : components) {
+            if (component instanceof CompiledExpression) {
+                CompiledExpression expr = (CompiledExpression)component;
+                variables.addAll( expr.getVariables() );
+                if (!mayFail) {
+                    req.addAll( expr.getRequiredVariables() );
+                }
+                mayFail |= expr.mayFail();
+            } else if (component instanceof Script) {
+                for (List<String> var : ((Script)component).getVariables()) {
+                    variables.add( var.get(0) );
+                }
+                mayFail = true;
+            } else if (component instanceof ValueFunction) {
+                mayFail = true;
+            }
+        }
+        required = req.toArray( new String[req.size()] );
         
+        // Only worth memoizing if there is some computation beyond looking up the variables
+        boolean computes = isURI;
+        isPure = !isConstant;
+        for (Object component : components) {
+            if (component instanceof CompiledExpression && ((CompiledExpression)component).isPure()) {
+                CompiledExpression expr = (CompiledExpression)component;
+                mapSources.addAll( expr.getMapSources() );
+                computes |= !expr.isSimple();
+            } else if ( !(component instanceof String) ) {
+                isPure = false;
+            }
+        }
+        isPure &= computes;
     }
     
     public String toString() {
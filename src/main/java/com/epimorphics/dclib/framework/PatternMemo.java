@@ -0,0 +1,160 @@
+/******************************************************************
+ * File:        PatternMemo.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.epimorphics.dclib.values.Value;
+
+/**
+ * Memo of the results of a pure pattern for one conversion process, keyed by
+ * the values of the variables the pattern references. Inputs such as codes,
+ * labels and dates repeat heavily so lookups, cleaning and date conversions
+ * need only be done once for each distinct combination.
+ * <p>
+ * The memo is a bounded LRU map. The hit rate is checked over each window
+ * of lookups and if it is too low memoization is switched off for the pattern,
+ * since the inputs are evidently not repeating enough to pay for the keys.
+ * Access is synchronized so the memo can be shared by the threads of a parallel
+ * conversion.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class PatternMemo {
+    public static final int MAX_ENTRIES     = 2048;
+    public static final int WINDOW          = 4096;
+    public static final double MIN_HIT_RATE = 0.25;
+
+    protected final String[] variables;
+    protected volatile boolean enabled;
+    protected long hits;
+    protected long misses;
+    protected int windowLookups;
+    protected int windowHits;
+
+    @SuppressWarnings("serial")
+    protected final Map<Key, Object> cache = new LinkedHashMap<Key, Object>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public PatternMemo(String[] variables, boolean enabled) {
+        this.variables = variables;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Return a key for the current values of the pattern's variables,
+     * or null if they can't be used as a key
+     */
+    public Key keyFor(BindingEnv env) {
+        Class<?>[] types = new Class<?>[variables.length];
+        String[] lexicals = new String[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            Object v = env.get(variables[i]);
+            if (v instanceof Value && ((Value)v).isNull()) {
+                return null;
+            }
+            if (v != null) {
+                types[i] = v.getClass();
+                lexicals[i] = v.toString();
+            }
+        }
+        return new Key(types, lexicals);
+    }
+
+    /**
+     * Return the memoized result for the key, or null if there is none
+     */
+    public synchronized Object get(Key key) {
+        Object result = cache.get(key);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+            windowHits++;
+        }
+        if (++windowLookups >= WINDOW) {
+            if (windowHits < WINDOW * MIN_HIT_RATE) {
+                enabled = false;
+                cache.clear();
+            }
+            windowLookups = 0;
+            windowHits = 0;
+        }
+        return result;
+    }
+
+    public synchronized void put(Key key, Object result) {
+        if (enabled) {
+            cache.put(key, result);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Fraction of all lookups which found a memoized result
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double)hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("memo %s: %d hits, %d misses, %d entries", enabled ? "on" : "off", hits, misses, cache.size());
+    }
+
+    /**
+     * Tuple of variable values, compared by class and lexical form. Values which
+     * are equal but written differently, such as the numbers 01 and 1, give
+     * different results from functions like toSegment() so must be different keys.
+     * Equally a string and a number with the same lexical form are different keys.
+     */
+    public static final class Key {
+        protected final Class<?>[] types;
+        protected final String[] lexicals;
+        protected final int hash;
+
+        protected Key(Class<?>[] types, String[] lexicals) {
+            this.types = types;
+            this.lexicals = lexicals;
+            this.hash = Arrays.hashCode(lexicals);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key k = (Key)other;
+            return k.hash == hash && Arrays.equals(k.types, types) && Arrays.equals(k.lexicals, lexicals);
+        }
+    }
+}
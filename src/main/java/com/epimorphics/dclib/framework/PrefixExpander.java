@@ -0,0 +1,99 @@
+/******************************************************************
+ * File:        PrefixExpander.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Map;
+
+import org.apache.jena.shared.PrefixMapping;
+
+/**
+ * Immutable snapshot of a set of prefix definitions, used to expand
+ * curies in generated URIs. Prefixes are held in an open addressing
+ * table keyed on the prefix text so that a lookup can match the prefix
+ * directly against the front of the curie without a substring or lock.
+ * Expansion gives the same results as PrefixMapping.expandPrefix.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public final class PrefixExpander {
+    protected final String[] prefixes;
+    protected final String[] namespaces;
+    protected final int mask;
+    protected final int size;
+
+    /**
+     * Take a snapshot of the current state of a prefix mapping
+     */
+    public static PrefixExpander of(PrefixMapping mapping) {
+        return new PrefixExpander( mapping.getNsPrefixMap() );
+    }
+
+    public PrefixExpander(Map<String, String> map) {
+        int capacity = 8;
+        while (capacity < map.size() * 2) {
+            capacity <<= 1;
+        }
+        prefixes = new String[capacity];
+        namespaces = new String[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            String prefix = entry.getKey();
+            int i = prefix.hashCode() & mask;
+            while (prefixes[i] != null && !prefixes[i].equals(prefix)) {
+                i = (i + 1) & mask;
+            }
+            prefixes[i] = prefix;
+            namespaces[i] = entry.getValue();
+        }
+        size = map.size();
+    }
+
+    /**
+     * Expand the prefix, if any, of the given curie. Returns the
+     * argument unchanged if it has no colon or the prefix is not defined.
+     */
+    public String expand(String uri) {
+        int colon = uri.indexOf(':');
+        if (colon < 0) return uri;
+        String ns = lookup(uri, colon);
+        if (ns == null) return uri;
+        return new StringBuilder(ns.length() + uri.length() - colon - 1)
+                .append(ns).append(uri, colon + 1, uri.length()).toString();
+    }
+
+    /**
+     * Return the namespace for the given prefix, or null if it is not defined
+     */
+    public String getNsPrefixURI(String prefix) {
+        return lookup(prefix, prefix.length());
+    }
+
+    /**
+     * Number of prefixes defined
+     */
+    public int size() {
+        return size;
+    }
+
+    // Find the namespace for the prefix given by the first len characters of s
+    private String lookup(String s, int len) {
+        int h = 0;
+        for (int j = 0; j < len; j++) {
+            h = 31 * h + s.charAt(j);
+        }
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String prefix = prefixes[i];
+            if (prefix == null) return null;
+            if (prefix.length() == len && prefix.regionMatches(0, s, 0, len)) {
+                return namespaces[i];
+            }
+        }
+    }
+}
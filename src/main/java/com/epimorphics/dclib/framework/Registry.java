@@ -0,0 +1,102 @@
+/******************************************************************
+ * File:        Registry.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copy on write table of named entries, such as the templates or sources of a
+ * {@link DataContext}, which may inherit entries from the table of a parent context.
+ * Lookups are made against an immutable snapshot which flattens the entries of
+ * the whole parent chain into a single map, so they take no locks. Updates copy
+ * the local entries and then bump a version number, shared by all the tables
+ * in the chain, so that any out of date snapshots are rebuilt on next use.
+ * Updates are expected to be rare compared to lookups.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class Registry<T> {
+    protected final Registry<T> parent;
+    protected final AtomicLong version;
+    protected volatile Map<String, T> local = Collections.emptyMap();
+    protected volatile Snapshot<T> snapshot;
+
+    public Registry() {
+        this.parent = null;
+        this.version = new AtomicLong();
+    }
+
+    /**
+     * Create a table which inherits the entries of the given parent table
+     */
+    public Registry(Registry<T> parent) {
+        this.parent = parent;
+        this.version = parent.version;
+    }
+
+    public synchronized void put(String name, T value) {
+        Map<String, T> entries = new HashMap<>(local);
+        entries.put(name, value);
+        local = Collections.unmodifiableMap(entries);
+        version.incrementAndGet();
+    }
+
+    public synchronized void remove(String name) {
+        if (local.containsKey(name)) {
+            Map<String, T> entries = new HashMap<>(local);
+            entries.remove(name);
+            local = Collections.unmodifiableMap(entries);
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the entry of the given name, from this table or a parent, or null if there is none
+     */
+    public T get(String name) {
+        return getAll().get(name);
+    }
+
+    /**
+     * Return an immutable map of all the visible entries, where local entries hide
+     * any of the same name in the parent
+     */
+    public Map<String, T> getAll() {
+        // Read the version first so that a concurrent update leaves the snapshot marked as stale
+        long current = version.get();
+        Snapshot<T> s = snapshot;
+        if (s == null || s.version != current) {
+            Map<String, T> entries;
+            if (parent == null) {
+                entries = local;
+            } else {
+                entries = new HashMap<>( parent.getAll() );
+                entries.putAll(local);
+                entries = Collections.unmodifiableMap(entries);
+            }
+            s = new Snapshot<>(current, entries);
+            snapshot = s;
+        }
+        return s.entries;
+    }
+
+    static final class Snapshot<T> {
+        final long version;
+        final Map<String, T> entries;
+
+        Snapshot(long version, Map<String, T> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/******************************************************************
+ * File:        RowBindingEnv.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.epimorphics.dclib.sources.CSVRecord;
+
+/**
+ * Binding environment for a single row of data. Column values are held in
+ * an array indexed by a {@link ColumnIndex} shared across all rows so there is
+ * no per-row hash table. Other names can still be bound and are stored in the
+ * normal way.
+ * <p>
+ * Column values can be bound lazily to the fields of a {@link CSVRecord}, in which
+ * case a field is only decoded and typed when it is first looked up, columns
+ * which no template refers to are never converted. Replacing or removing the
+ * binding of an unread field does not convert it either, so the old value
+ * returned for it is null.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class RowBindingEnv extends BindingEnv {
+    private static final long serialVersionUID = 1L;
+    
+    private static final Object UNREAD = new Object();
+
+    protected final ColumnIndex columns;
+    protected final Object[] values;
+    protected CSVRecord record;
+    protected Object[] cells;      // Converted record fields, shared with any extensions of this row
+
+    public RowBindingEnv(ColumnIndex columns, BindingEnv parent) {
+        super(parent);
+        this.columns = columns;
+        this.values = new Object[ columns.size() ];
+    }
+
+    /**
+     * Set the value of an indexed slot
+     */
+    public void setSlot(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Bind the first n slots to the corresponding fields of the record. The field 
+     * values are only converted when first looked up.
+     */
+    public void setRecord(CSVRecord record, int n) {
+        this.record = record;
+        this.cells = new Object[n];
+        Arrays.fill(values, 0, n, UNREAD);
+    }
+
+    /**
+     * Return the value of an indexed slot
+     */
+    public Object getSlot(int slot) {
+        Object value = values[slot];
+        if (value == UNREAD) {
+            value = cells[slot];
+            if (value == null) {
+                value = columns.asValue(slot, record);
+                cells[slot] = value;
+            }
+            values[slot] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Return the value already held in a slot without decoding a field which
+     * has not yet been read, in which case the result is null. Used when a
+     * binding is replaced, since the old value is rarely wanted.
+     */
+    private Object storedSlot(int slot) {
+        Object value = values[slot];
+        if (value == UNREAD) {
+            return cells[slot];
+        }
+        return value;
+    }
+
+    @Override
+    public Object getRowToken() {
+        return cells == null ? this : cells;
+    }
+
+    public ColumnIndex getColumnIndex() {
+        return columns;
+    }
+
+    @Override
+    protected Object lookupLocal(Object key) {
+        int slot = columns.slotOf(key);
+        if (slot >= 0 && values[slot] != null) {
+            return getSlot(slot);
+        }
+        return super.lookupLocal(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = columns.slotOf(key);
+        if (slot >= 0) {
+            Object old = storedSlot(slot);
+            values[slot] = value;
+            return old;
+        }
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        for (Map.Entry<? extends String, ? extends Object> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = columns.slotOf(key);
+        if (slot >= 0) {
+            Object old = storedSlot(slot);
+            values[slot] = null;
+            return old;
+        }
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = columns.slotOf(key);
+        return (slot >= 0 && values[slot] != null) || super.containsKey(key);
+    }
+
+    /**
+     * Create a child environment for local bindings. The child is a flat copy
+     * of this row so that lookups of column values do not need to go up a chain.
+     */
+    @Override
+    public BindingEnv extend() {
+        RowBindingEnv child = new RowBindingEnv(columns, parent);
+        System.arraycopy(values, 0, child.values, 0, values.length);
+        child.record = record;
+        child.cells = cells;
+        if ( !super.isEmpty() ) {
+            for (Map.Entry<String, Object> e : super.entrySet()) {
+                child.put(e.getKey(), e.getValue());
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Snapshot of the bindings in this environment, excluding the parent chain
+     */
+    protected Map<String, Object> localBindings() {
+        Map<String, Object> bindings = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && columns.isVisible(i)) {
+                bindings.put(columns.getName(i), getSlot(i));
+            }
+        }
+        if ( !super.isEmpty() ) {
+            for (Map.Entry<String, Object> e : super.entrySet()) {
+                bindings.put(e.getKey(), e.getValue());
+            }
+        }
+        return bindings;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new LinkedHashSet<>( localBindings().keySet() );
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return localBindings().entrySet();
+    }
+
+    @Override
+    public int size() {
+        return localBindings().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) return false;
+        }
+        return super.isEmpty();
+    }
+}
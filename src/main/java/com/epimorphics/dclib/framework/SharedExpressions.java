@@ -0,0 +1,58 @@
+/******************************************************************
+ * File:        SharedExpressions.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the pure method calls, such as <code>code.map('codes')</code>,
+ * found in the pattern expressions compiled for a data context. Identical calls
+ * in different patterns, e.g. in the "@id" and several property values of a
+ * template, are compiled to the same shared term which is then evaluated once
+ * per row and the result reused.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class SharedExpressions {
+    protected final Map<String, ExpressionCompiler.Shared> terms = new HashMap<>();
+
+    /**
+     * Return the shared term for the given call, recording another use of it
+     */
+    protected synchronized ExpressionCompiler.Term share(ExpressionCompiler.MethodCall call) {
+        String key = call.toString();
+        ExpressionCompiler.Shared term = terms.get(key);
+        if (term == null) {
+            term = new ExpressionCompiler.Shared(call);
+            terms.put(key, term);
+        }
+        term.uses++;
+        return term;
+    }
+
+    /**
+     * Number of distinct calls seen
+     */
+    public synchronized int size() {
+        return terms.size();
+    }
+
+    /**
+     * Number of calls which occur more than once and so are evaluated once per row
+     */
+    public synchronized int getSharedCount() {
+        int count = 0;
+        for (ExpressionCompiler.Shared term : terms.values()) {
+            if (term.uses > 1) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,58 @@
+/******************************************************************
+ * File:        TripleBuffer.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ * 
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+/**
+ * A StreamRDF which simply holds on to the triples sent to it so
+ * they can be replayed into another stream later. Used to capture the 
+ * output of a row, or batch of rows, converted off the main thread.
+ * 
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class TripleBuffer extends StreamRDFBase {
+    protected List<Triple> triples = new ArrayList<>();
+
+    @Override
+    public void triple(Triple triple) {
+        triples.add(triple);
+    }
+    
+    public List<Triple> getTriples() {
+        return triples;
+    }
+    
+    public int size() {
+        return triples.size();
+    }
+    
+    public boolean isEmpty() {
+        return triples.isEmpty();
+    }
+    
+    public void clear() {
+        triples.clear();
+    }
+    
+    /**
+     * Send all the buffered triples, in order, to the given stream
+     */
+    public void replay(StreamRDF out) {
+        for (Triple t : triples) {
+            out.triple(t);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/******************************************************************
+ * File:        ValueInterner.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import java.util.Arrays;
+
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.values.ColumnType;
+import com.epimorphics.dclib.values.Value;
+import com.epimorphics.dclib.values.ValueDate;
+import com.epimorphics.dclib.values.ValueFactory;
+
+/**
+ * Per-column cache of converted cell values. Categorical columns (codes,
+ * units, flags) repeat a small set of values many times so we can reuse
+ * a single, immutable, Value for each distinct cell text rather than
+ * allocating a new string and value for every row. Lookups compare the
+ * raw bytes of the record so a hit allocates nothing.
+ * <p>
+ * The interner adapts to the column. The hit rate is checked over each
+ * window of lookups and if it is too low the column is assumed to be
+ * high-cardinality and interning is switched off. The cache is also
+ * capped in size, when full it is cleared and if that keeps happening
+ * interning is again switched off. Dates are never interned, since a
+ * date records whether its reference time triples have been output.
+ * </p>
+ * <p>
+ * Hits are lock free so the interner can be shared by the threads of
+ * a parallel conversion. Entries are immutable and installed under a lock,
+ * a reader which fails to see a newly added entry just converts the
+ * value itself. The statistics are updated without synchronization and
+ * so are only approximate.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ValueInterner {
+    public static final int MAX_ENTRIES   = 4096;
+    public static final int WINDOW        = 2048;
+    public static final double MIN_HIT_RATE = 0.5;
+    public static final int MAX_RESETS    = 4;
+
+    protected static final int INITIAL_SIZE = 64;
+
+    protected final ColumnType type;
+    protected volatile Entry[] table = new Entry[INITIAL_SIZE];
+    protected volatile boolean enabled = true;
+    protected int count;
+    protected int resets;
+    protected int lookups;
+    protected int hits;
+
+    public ValueInterner(ColumnType type) {
+        this.type = type;
+        if (type == ColumnType.DATE) {
+            disable();
+        }
+    }
+
+    /**
+     * Return the value of a raw field of the record, reusing the value of
+     * any previous occurrence of the same text
+     */
+    public Value lookup(CSVRecord record, int field) {
+        if (!enabled) {
+            return ValueFactory.asValue(record.getTrimmedField(field), type);
+        }
+        int hash = spread( record.trimmedHash(field) );
+        Entry[] t = table;
+        int mask = t.length - 1;
+        lookups++;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Entry e = t[i];
+            if (e == null) break;
+            if (e.hash == hash && record.trimmedEquals(field, e.key)) {
+                hits++;
+                return e.value;
+            }
+        }
+        Value value = ValueFactory.asValue(record.getTrimmedField(field), type);
+        if ( !(value instanceof ValueDate) ) {
+            add( new Entry(record.getTrimmedBytes(field), hash, value) );
+        }
+        return value;
+    }
+
+    /**
+     * True if the column still looks worth interning
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of distinct values currently held
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    protected synchronized void add(Entry entry) {
+        if (!enabled) return;
+        if (lookups >= WINDOW) {
+            if (hits < lookups * MIN_HIT_RATE) {
+                disable();
+                return;
+            }
+            lookups = 0;
+            hits = 0;
+        }
+        if (count >= MAX_ENTRIES) {
+            if (++resets > MAX_RESETS) {
+                disable();
+                return;
+            }
+            table = new Entry[INITIAL_SIZE];
+            count = 0;
+        } else if (2 * (count + 1) > table.length) {
+            table = rehash(table, table.length * 2);
+        }
+        Entry[] t = table;
+        if (insert(t, entry)) {
+            count++;
+        }
+    }
+
+    protected void disable() {
+        enabled = false;
+        table = new Entry[1];
+        count = 0;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static Entry[] rehash(Entry[] old, int size) {
+        Entry[] t = new Entry[size];
+        for (Entry e : old) {
+            if (e != null) {
+                insert(t, e);
+            }
+        }
+        return t;
+    }
+
+    // Returns false if an equal entry was already present, added by a racing thread
+    private static boolean insert(Entry[] t, Entry entry) {
+        int mask = t.length - 1;
+        for (int i = entry.hash & mask; ; i = (i + 1) & mask) {
+            Entry e = t[i];
+            if (e == null) {
+                t[i] = entry;
+                return true;
+            }
+            if (e.hash == entry.hash && Arrays.equals(e.key, entry.key)) {
+                return false;
+            }
+        }
+    }
+
+    protected static final class Entry {
+        final byte[] key;
+        final int hash;
+        final Value value;
+
+        Entry(byte[] key, int hash, Value value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/******************************************************************
+ * File:        CSVChunk.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a CSV file which starts and ends on a record boundary
+ * so that it can be tokenized independently of the rest of the file.
+ * <p>
+ * Boundaries are found by running the {@link CSVTokenizer} over the file,
+ * without decoding any fields, so that quoted line breaks, escapes and
+ * doubled quotes are treated exactly as they are when the chunks are read.
+ * </p>
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CSVChunk {
+    public static final long DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    protected long start;
+    protected long end;
+    protected int firstRecord;
+    protected int numRecords;
+
+    public CSVChunk(long start, long end, int firstRecord, int numRecords) {
+        this.start = start;
+        this.end = end;
+        this.firstRecord = firstRecord;
+        this.numRecords = numRecords;
+    }
+
+    /**
+     * Byte offset of the first record in the chunk
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Byte offset just beyond the last record in the chunk
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Record number of the first record in the chunk, counting the header line as record 0
+     */
+    public int getFirstRecord() {
+        return firstRecord;
+    }
+
+    /**
+     * Number of records within the chunk
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Open the chunk for reading. The headers are those from the start of the full file
+     * and line numbers reported by the input will match those of a sequential read of the file.
+     */
+    public CSVInput open(File file, String[] headers) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            CSVTokenizer tokenizer = new CSVTokenizer(channel, start, end, CSVTokenizer.DEFAULT_WINDOW_SIZE);
+            return new CSVInput( tokenizer, headers, firstRecord );
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Split a CSV file into chunks of approximately the given size.
+     * @param file the file to split
+     * @param skipRecords the number of records (including the header line) to skip before the first chunk
+     * @param chunkSize the target size of each chunk in bytes, chunks will be extended to the next record boundary
+     */
+    public static List<CSVChunk> split(File file, int skipRecords, long chunkSize) throws IOException {
+        List<CSVChunk> chunks = new ArrayList<>();
+        try (CSVTokenizer tokenizer = new CSVTokenizer(file)) {
+            int record = 0;
+            while (record < skipRecords) {
+                if ( !tokenizer.next() ) {
+                    return chunks;
+                }
+                record++;
+            }
+            long chunkStart = tokenizer.getPosition();
+            long chunkEnd = chunkStart;
+            int chunkFirstRecord = record;
+            while (tokenizer.next()) {
+                record++;
+                chunkEnd = tokenizer.getPosition();
+                if (chunkEnd - chunkStart >= chunkSize) {
+                    chunks.add( new CSVChunk(chunkStart, chunkEnd, chunkFirstRecord, record - chunkFirstRecord) );
+                    chunkStart = chunkEnd;
+                    chunkFirstRecord = record;
+                }
+            }
+            if (record > chunkFirstRecord) {
+                chunks.add( new CSVChunk(chunkStart, chunkEnd, chunkFirstRecord, record - chunkFirstRecord) );
+            }
+        }
+        return chunks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunk[%d-%d, from record %d]", start, end, firstRecord);
+    }
+}
@@ -9,16 +9,11 @@
 
 package com.epimorphics.dclib.sources;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-
-import org.apache.commons.io.input.BOMInputStream;
-
-import au.com.bytecode.opencsv.CSVParser;
-import au.com.bytecode.opencsv.CSVReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import com.epimorphics.dclib.framework.BindingEnv;
 import com.epimorphics.util.EpiException;
@@ -29,23 +24,45 @@ import com.epimorphics.util.NameUtils;
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class CSVInput {
-    protected CSVReader in;
+    protected CSVTokenizer in;
     protected String[] headers;
+    protected String[] rawHeaders;
     protected int lineNumber = 0;
     protected boolean hasPreamble = false;
     protected String[] peekRow;
+    protected boolean peeked = false;
     
     public CSVInput(String filename) throws IOException {
-        this( new BOMInputStream( new FileInputStream(filename) ) );
+        this( tokenizerFor( new File(filename) ) );
     }
     
+    /**
+     * Read CSV from a stream, which may be gzip, bzip2 or zstd compressed
+     */
     public CSVInput(InputStream ins) throws IOException {
-        in = new CSVReader( new InputStreamReader(ins, StandardCharsets.UTF_8), CSVParser.DEFAULT_SEPARATOR, CSVParser.DEFAULT_QUOTE_CHARACTER, '\0' );
+        this( new CSVTokenizer( CompressedInput.decompress(ins) ) );
+    }
+    
+    /**
+     * Return a tokenizer for a file. Plain files are memory mapped, compressed
+     * files are decompressed on a background thread.
+     */
+    public static CSVTokenizer tokenizerFor(File file) throws IOException {
+        if (CompressedInput.isCompressed(file)) {
+            return new CSVTokenizer( CompressedInput.open(file) );
+        } else {
+            return new CSVTokenizer(file);
+        }
+    }
+    
+    public CSVInput(CSVTokenizer tokenizer) throws IOException {
+        in = tokenizer;
         
-        String[] headerLine = in.readNext();
-        if (headerLine == null) {
+        if ( !in.next() ) {
             throw new EpiException("No data, cannot read header line");
         }
+        String[] headerLine = in.getFields();
+        rawHeaders = headerLine;
         headers = new String[headerLine.length];
         for(int i = 0; i < headerLine.length; i++) {
             headers[i] = safeColName( headerLine[i].trim() );
@@ -56,6 +73,43 @@ public class CSVInput {
         }
     }
     
+    /**
+     * Read a headerless section of a CSV file, such as a {@link CSVChunk},
+     * using the headers from the start of the file.
+     * @param tokenizer the tokenizer positioned at the start of a record
+     * @param headers the (already sanitized) column names 
+     * @param lineNumber the line number of the first record in the stream
+     */
+    public CSVInput(CSVTokenizer tokenizer, String[] headers, int lineNumber) {
+        in = tokenizer;
+        this.headers = headers;
+        this.rawHeaders = headers;
+        this.lineNumber = lineNumber;
+    }
+    
+    public CSVInput(InputStream ins, String[] headers, int lineNumber) throws IOException {
+        this( new CSVTokenizer(ins), headers, lineNumber );
+    }
+    
+    /**
+     * Open a file for reading from the given byte offset, which must be the start of
+     * a record, such as that returned by {@link #getPosition()}.
+     * @param file the uncompressed source file
+     * @param headers the (already sanitized) column names 
+     * @param offset the offset of the first record to read
+     * @param lineNumber the line number of the first record to read
+     */
+    public static CSVInput openAt(File file, String[] headers, long offset, int lineNumber) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            CSVTokenizer tokenizer = new CSVTokenizer(channel, offset, channel.size(), CSVTokenizer.DEFAULT_WINDOW_SIZE);
+            return new CSVInput( tokenizer, headers, lineNumber );
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
     private String safeColName(String col) {
         if (col.startsWith("<") && col.endsWith(">")) {
             // Let through URI wrapped column names raw
@@ -73,8 +127,9 @@ public class CSVInput {
      * Repeat calls do not advance to further rows, 
      */
     public String[] getPeekRow() throws IOException {
-        if (peekRow == null) {
-            peekRow = in.readNext();
+        if (!peeked) {
+            peekRow = in.next() ? in.getFields() : null;
+            peeked = true;
         }
         return peekRow;
     }
@@ -84,12 +139,54 @@ public class CSVInput {
      * Returns true if a new peek was available.
      */
     public boolean advancePeek() throws IOException {
-        peekRow = in.readNext();
+        peekRow = in.next() ? in.getFields() : null;
+        peeked = true;
         lineNumber++;
         return peekRow != null;
     }
     
+    /**
+     * Move to the next row, or to the last peeked row if there has been a peek.
+     * The fields of the row are then available through {@link #getField(int)}
+     * without building a binding environment.
+     * @return false if there are no more rows
+     */
+    public boolean advance() throws IOException {
+        boolean available = peeked ? peekRow != null : in.next();
+        peeked = false;
+        peekRow = null;
+        lineNumber++;
+        return available && in.getFieldCount() > 0;
+    }
+    
+    /**
+     * Number of fields in the current row
+     */
+    public int getFieldCount() {
+        return in.getFieldCount();
+    }
+    
+    /**
+     * Return a field of the current row
+     */
+    public String getField(int i) throws IOException {
+        return in.getField(i);
+    }
+    
+    /**
+     * Return a field of the current row with surrounding white space removed 
+     */
+    public String getTrimmedField(int i) throws IOException {
+        return in.getTrimmedField(i);
+    }
     
+    /**
+     * Return a snapshot of the current row which can be held on to
+     * after the input has advanced. Fields are only decoded when read. 
+     */
+    public CSVRecord getRecord() throws IOException {
+        return in.snapshot();
+    }
     
     /**
      * Return the next row as a binding environment of strings
@@ -98,16 +195,13 @@ public class CSVInput {
      */
     public BindingEnv nextRow() throws IOException {
         if (in != null) {
-            String[] rowValues = (peekRow != null) ? peekRow : in.readNext();
-            lineNumber++;
-            peekRow = null;
-            if (rowValues == null || rowValues.length == 0) {
+            if ( !advance() ) {
                 return null;
             }
-            int safeLength = Math.min(rowValues.length,headers.length);
+            int safeLength = Math.min(in.getFieldCount(), headers.length);
             BindingEnv row = new BindingEnv( );
             for (int i = 0; i < safeLength; i++) {
-                row.put(headers[i], rowValues[i]);
+                row.put(headers[i], in.getField(i));
             }
             return row;
         }
@@ -127,6 +221,21 @@ public class CSVInput {
         return lineNumber;
     }
 
+    /**
+     * Return the byte offset in the source of the current record
+     */
+    public long getRecordOffset() {
+        return in.getRecordOffset();
+    }
+    
+    /**
+     * Return the byte offset in the source of the record after the current one.
+     * Not meaningful if there has been a peek beyond the current record.
+     */
+    public long getPosition() {
+        return in.getPosition();
+    }
+
     public boolean hasPreamble() {
         return hasPreamble;
     }
@@ -134,6 +243,13 @@ public class CSVInput {
     public String[] getHeaders() {
         return headers;
     }
+    
+    /**
+     * Return the column names as they appear in the source, before sanitizing
+     */
+    public String[] getRawHeaders() {
+        return rawHeaders;
+    }
 
     public void close() {
         try {
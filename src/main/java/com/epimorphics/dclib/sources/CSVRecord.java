@@ -0,0 +1,133 @@
+/******************************************************************
+ * File:        CSVRecord.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A snapshot of one record from a {@link CSVTokenizer}, independent of the
+ * tokenizer's buffer. Holds the raw bytes of the record and only decodes
+ * a field when it is asked for. Fields which needed unescaping are decoded
+ * when the snapshot is taken.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CSVRecord {
+    protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    protected static final long FNV_PRIME  = 0x100000001b3L;
+
+    protected final byte[] data;
+    protected final int[] bounds;       // Start and end offset of each field in data
+    protected final String[] decoded;   // Pre-decoded values for quoted fields, may be null
+
+    public CSVRecord(byte[] data, int[] bounds, String[] decoded) {
+        this.data = data;
+        this.bounds = bounds;
+        this.decoded = decoded;
+    }
+
+    public int getFieldCount() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * Return a 64 bit FNV-1a hash of the raw bytes of the record
+     */
+    public long fingerprint() {
+        long h = FNV_OFFSET;
+        for (byte b : data) {
+            h ^= (b & 0xFF);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Return the value of a field
+     */
+    public String getField(int i) {
+        if (decoded != null && decoded[i] != null) {
+            return decoded[i];
+        }
+        int start = bounds[2*i];
+        return new String(data, start, bounds[2*i + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the value of a field with leading and trailing white space removed,
+     * as for {@link String#trim()}
+     */
+    public String getTrimmedField(int i) {
+        if (decoded != null && decoded[i] != null) {
+            return decoded[i].trim();
+        }
+        int start = trimmedStart(i);
+        return new String(data, start, trimmedEnd(i, start) - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * True if the field is held as raw bytes, rather than having been
+     * decoded when the snapshot was taken. Only raw fields can be
+     * compared using {@link #trimmedHash(int)} and {@link #trimmedEquals(int, byte[])}.
+     */
+    public boolean isRaw(int i) {
+        return decoded == null || decoded[i] == null;
+    }
+
+    /**
+     * Return a hash of the trimmed raw bytes of a field
+     */
+    public int trimmedHash(int i) {
+        int start = trimmedStart(i);
+        int end = trimmedEnd(i, start);
+        int h = 1;
+        for (int j = start; j < end; j++) {
+            h = 31 * h + data[j];
+        }
+        return h;
+    }
+
+    /**
+     * Test if the trimmed raw bytes of a field are the same as the given key
+     */
+    public boolean trimmedEquals(int i, byte[] key) {
+        int start = trimmedStart(i);
+        int end = trimmedEnd(i, start);
+        if (end - start != key.length) return false;
+        for (int j = 0; j < key.length; j++) {
+            if (data[start + j] != key[j]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return a copy of the trimmed raw bytes of a field
+     */
+    public byte[] getTrimmedBytes(int i) {
+        int start = trimmedStart(i);
+        return Arrays.copyOfRange(data, start, trimmedEnd(i, start));
+    }
+
+    // Bytes up to space are all single byte characters in UTF-8 so can trim directly
+
+    private int trimmedStart(int i) {
+        int start = bounds[2*i];
+        int end = bounds[2*i + 1];
+        while (start < end && (data[start] & 0xFF) <= ' ') start++;
+        return start;
+    }
+
+    private int trimmedEnd(int i, int start) {
+        int end = bounds[2*i + 1];
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+        return end;
+    }
+}
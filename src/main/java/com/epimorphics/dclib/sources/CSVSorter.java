@@ -0,0 +1,285 @@
+/******************************************************************
+ * File:        CSVSorter.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * External sort of the rows of a CSV source by the values of some key columns,
+ * so that data such as a hierarchy can be converted in order even if it was
+ * not supplied that way. Rows are sorted in memory in runs of a limited size,
+ * each run is spilled to a temporary file and the runs are then merged.
+ * <p>
+ * Keys are compared as trimmed strings, column by column, so empty values sort
+ * first. The sort is stable, rows with equal keys stay in their original order.
+ * Any linked-csv style preamble rows are copied to the front of the output unsorted.
+ * The output is a complete CSV file, with the original header line, which can be
+ * read and split like any other source file.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CSVSorter {
+    public static final int DEFAULT_RUN_SIZE = 100000;
+
+    protected final String[] keyColumns;
+    protected int runSize = DEFAULT_RUN_SIZE;
+    protected File tempDir;
+    protected int runCount;
+
+    /**
+     * @param keyColumns the (sanitized) names of the columns to sort by, most significant first
+     */
+    public CSVSorter(String... keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Set the maximum number of rows to sort in memory at a time
+     */
+    public void setRunSize(int runSize) {
+        this.runSize = runSize;
+    }
+
+    /**
+     * Set the directory for the spilled runs and the sorted output, defaults to the system temp directory
+     */
+    public void setTempDirectory(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Number of runs spilled to disk by the last sort
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Sort the remaining rows of a source, which should be positioned just after
+     * the header line. The source is consumed but not closed.
+     * @return a temporary file containing the sorted CSV, the caller should delete it when done
+     */
+    public File sort(CSVInput input) throws IOException {
+        int[] keys = keySlots(input.getHeaders());
+        File sorted = File.createTempFile("dclib-sorted", ".csv", tempDir);
+        List<File> runs = new ArrayList<>();
+        try (Writer out = open(sorted)) {
+            writeRow(out, input.getRawHeaders());
+
+            List<SortRow> rows = new ArrayList<>();
+            boolean inPreamble = input.hasPreamble();
+            long sequence = 0;
+            while (input.advance()) {
+                String[] fields = fields(input);
+                if (inPreamble) {
+                    if (!fields[0].isEmpty()) {
+                        writeRow(out, fields);
+                        continue;
+                    }
+                    inPreamble = false;
+                }
+                rows.add( new SortRow(fields, keys, sequence++) );
+                if (rows.size() >= runSize) {
+                    runs.add( spill(rows) );
+                    rows.clear();
+                }
+            }
+
+            if (runs.isEmpty()) {
+                Collections.sort(rows, ORDER);
+                for (SortRow row : rows) {
+                    writeRow(out, row.fields);
+                }
+            } else {
+                if (!rows.isEmpty()) {
+                    runs.add( spill(rows) );
+                }
+                merge(runs, keys, out);
+            }
+            runCount = runs.size();
+        } catch (IOException | RuntimeException e) {
+            sorted.delete();
+            throw e;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+        return sorted;
+    }
+
+    protected int[] keySlots(String[] headers) {
+        int[] slots = new int[keyColumns.length];
+        for (int k = 0; k < keyColumns.length; k++) {
+            slots[k] = -1;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i].equals(keyColumns[k])) {
+                    slots[k] = i;
+                    break;
+                }
+            }
+            if (slots[k] == -1) {
+                throw new EpiException("Can't sort by missing column: " + keyColumns[k]);
+            }
+        }
+        return slots;
+    }
+
+    private String[] fields(CSVInput input) throws IOException {
+        String[] fields = new String[input.getFieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = input.getField(i);
+        }
+        return fields;
+    }
+
+    protected File spill(List<SortRow> rows) throws IOException {
+        Collections.sort(rows, ORDER);
+        File run = File.createTempFile("dclib-run", ".csv", tempDir);
+        try (Writer out = open(run)) {
+            for (SortRow row : rows) {
+                writeRow(out, row.fields);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * K-way merge of the sorted runs. Earlier runs hold earlier rows so ties are
+     * broken by run number to keep the sort stable.
+     */
+    protected void merge(List<File> runs, int[] keys, Writer out) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader a, RunReader b) {
+                return ORDER.compare(a.current, b.current);
+            }
+        });
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), keys, i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writeRow(out, reader.current.fields);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private Writer open(File file) throws IOException {
+        return new BufferedWriter( new OutputStreamWriter( new FileOutputStream(file), StandardCharsets.UTF_8 ), 64 * 1024 );
+    }
+
+    protected static void writeRow(Writer out, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) out.write(',');
+            String field = fields[i];
+            if (needsQuotes(field)) {
+                out.write('"');
+                out.write( field.replace("\"", "\"\"") );
+                out.write('"');
+            } else {
+                out.write(field);
+            }
+        }
+        out.write('\n');
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Order rows by key, then by sequence within a run or by run number
+     */
+    protected static final Comparator<SortRow> ORDER = new Comparator<SortRow>() {
+        @Override
+        public int compare(SortRow a, SortRow b) {
+            for (int k = 0; k < a.keys.length; k++) {
+                int c = a.keys[k].compareTo(b.keys[k]);
+                if (c != 0) return c;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    protected static class SortRow {
+        final String[] fields;
+        final String[] keys;
+        final long sequence;
+
+        SortRow(String[] fields, int[] slots, long sequence) {
+            this.fields = fields;
+            this.sequence = sequence;
+            keys = new String[slots.length];
+            for (int k = 0; k < slots.length; k++) {
+                keys[k] = slots[k] < fields.length ? fields[slots[k]].trim() : "";
+            }
+        }
+    }
+
+    protected static class RunReader {
+        final CSVTokenizer in;
+        final int[] keys;
+        final int run;
+        SortRow current;
+
+        RunReader(File file, int[] keys, int run) throws IOException {
+            this.in = new CSVTokenizer(file);
+            this.keys = keys;
+            this.run = run;
+        }
+
+        boolean next() throws IOException {
+            if (in.next() && in.getFieldCount() > 0) {
+                current = new SortRow(in.getFields(), keys, run);
+                return true;
+            }
+            current = null;
+            return false;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
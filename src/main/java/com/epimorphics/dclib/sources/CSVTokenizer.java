@@ -0,0 +1,488 @@
+/******************************************************************
+ * File:        CSVTokenizer.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Low level CSV tokenizer working directly on UTF-8 bytes, either from a memory mapped
+ * region of a file or from a buffered input stream. Each record is scanned into a set of
+ * field slices (offset and length) and fields are only decoded into Strings when asked for.
+ * <p>
+ * Follows the conventions of the opencsv reader we used to use: comma separator,
+ * double quote as quote character, doubled quotes within a field as a literal quote,
+ * and '\0' as an escape character. Line breaks within quoted fields are returned as
+ * '\n'. A leading byte order mark is skipped. Blank lines are returned as a single
+ * empty field.
+ * </p>
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CSVTokenizer implements Closeable {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    static final byte SEPARATOR = ',';
+    static final byte QUOTE = '"';
+    static final byte ESCAPE = '\0';
+
+    static final int NEED_MORE = -1;
+    static final int NO_RECORD = -2;
+
+    // Source is either a file region or a stream
+    protected FileChannel channel;
+    protected long regionEnd;
+    protected int windowSize;
+    protected InputStream in;
+
+    // Current window onto the source
+    protected ByteBuffer buf;
+    protected ByteBuffer view;      // Duplicate of a mapped window used for bulk copies
+    protected byte[] array;         // Backing array if reading from a stream
+    protected long windowStart;     // Offset in the source of buf index 0
+    protected int limit;            // Number of valid bytes in buf
+    protected boolean eof;          // True if there is no more data beyond limit
+    protected int pos;              // Start of the next record
+
+    // Current record
+    protected int fieldCount;
+    protected int[] fieldStart = new int[16];
+    protected int[] fieldEnd = new int[16];
+    protected int[] fieldColumn = new int[16];    // Character column of the field within its line, or -1 if no unescaping needed
+    protected String[] decoded = new String[16];
+    protected byte[] scratch = new byte[256];
+
+    // Results of the last field scan
+    protected boolean scanComplex;
+    protected int scanColumn;
+    protected int scanLength;
+
+    /**
+     * Tokenize a complete file using memory mapped windows onto the file
+     */
+    public CSVTokenizer(File file) throws IOException {
+        this( FileChannel.open(file.toPath(), StandardOpenOption.READ) );
+    }
+
+    /**
+     * Tokenize a complete file using memory mapped windows onto the file
+     */
+    public CSVTokenizer(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size(), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Tokenize the region of a file between the given offsets, which must be
+     * on record boundaries. The channel will be closed when the tokenizer is closed.
+     * @param channel the open file
+     * @param start offset of the first byte of the region
+     * @param end offset just beyond the last byte of the region
+     * @param windowSize the size of each mapped window onto the file, windows are
+     * extended if a single record is larger than this
+     */
+    public CSVTokenizer(FileChannel channel, long start, long end, int windowSize) throws IOException {
+        this.channel = channel;
+        this.regionEnd = end;
+        this.windowSize = windowSize;
+        this.windowStart = start;
+        this.limit = 0;
+        refill(0);
+        if (start == 0) {
+            skipBOM();
+        }
+    }
+
+    /**
+     * Tokenize a stream of bytes, reading through a buffer
+     */
+    public CSVTokenizer(InputStream in) throws IOException {
+        this.in = in;
+        this.array = new byte[DEFAULT_BUFFER_SIZE];
+        this.buf = ByteBuffer.wrap(array);
+        this.limit = 0;
+        refill(0);
+        skipBOM();
+    }
+
+    private void skipBOM() throws IOException {
+        while (limit < 3 && !eof) {
+            refill(0);
+        }
+        if (limit - pos >= 3 && buf.get(pos) == (byte)0xEF && buf.get(pos+1) == (byte)0xBB && buf.get(pos+2) == (byte)0xBF) {
+            pos += 3;
+        }
+    }
+
+    /**
+     * Move the window on so that it starts at the given buffer index and
+     * includes more data, if there is any.
+     */
+    protected void refill(int keepFrom) throws IOException {
+        int kept = limit - keepFrom;
+        if (channel != null) {
+            long start = windowStart + keepFrom;
+            long size = Math.min(regionEnd - start, Math.max(windowSize, 2L * kept));
+            size = Math.min(size, Integer.MAX_VALUE);
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            view = buf.duplicate();
+            windowStart = start;
+            limit = (int)size;
+            eof = start + size >= regionEnd;
+        } else {
+            if (keepFrom > 0) {
+                System.arraycopy(array, keepFrom, array, 0, kept);
+            } else if (kept == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+                buf = ByteBuffer.wrap(array);
+            }
+            windowStart += keepFrom;
+            limit = kept;
+            int n = in.read(array, limit, array.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+    }
+
+    /**
+     * Offset in the source of the start of the next record, counting the bytes
+     * of any byte order mark.
+     */
+    public long getPosition() {
+        return windowStart + pos;
+    }
+
+    /**
+     * Offset in the source of the start of the current record
+     */
+    public long getRecordOffset() {
+        return windowStart + (fieldCount > 0 ? fieldStart[0] : pos);
+    }
+
+    /**
+     * Advance to the next record.
+     * @return false if there are no more records
+     * @throws IOException if the data could not be read or ends within a quoted field
+     */
+    public boolean next() throws IOException {
+        Arrays.fill(decoded, 0, fieldCount, null);
+        while (true) {
+            int end = parseRecord(pos);
+            if (end == NO_RECORD) {
+                fieldCount = 0;
+                return false;
+            } else if (end == NEED_MORE) {
+                refill(pos);
+                pos = 0;
+            } else {
+                pos = end;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Scan the record starting at the given position, recording the field slices.
+     * @return the position of the start of the following record, or NEED_MORE or NO_RECORD
+     */
+    protected int parseRecord(int start) throws IOException {
+        fieldCount = 0;
+        if (start >= limit) {
+            return eof ? NO_RECORD : NEED_MORE;
+        }
+        int i = start;
+        int column = 0;
+        while (true) {
+            int end = scanField(i, column, false);
+            if (end == NEED_MORE) {
+                return NEED_MORE;
+            }
+            addField(i, end, scanComplex ? column : -1);
+            if (end >= limit) {
+                return end;
+            }
+            byte b = buf.get(end);
+            if (b == SEPARATOR) {
+                i = end + 1;
+                column = scanColumn + 1;
+            } else {
+                // Line terminator
+                int next = end + 1;
+                if (b == '\r') {
+                    if (next >= limit && !eof) return NEED_MORE;
+                    if (next < limit && buf.get(next) == '\n') next++;
+                }
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Run the field state machine from the given position, optionally
+     * writing the unescaped field into the scratch buffer.
+     * @param i the buffer position of the start of the field
+     * @param column the character column of the start of the field within its line
+     * @param emit if true then write the unescaped field to the scratch buffer
+     * @return the position of the byte (separator, line terminator or limit) which ended the field, or NEED_MORE
+     */
+    protected int scanField(int i, int column, boolean emit) throws IOException {
+        boolean inQuotes = false;
+        boolean inField = false;
+        boolean complex = false;
+        int out = 0;
+        while (true) {
+            if (i >= limit) {
+                if (!eof) return NEED_MORE;
+                if (inQuotes) {
+                    throw new IOException("Un-terminated quoted field at end of CSV data");
+                }
+                break;
+            }
+            byte b = buf.get(i);
+            if (b == '\n' || b == '\r') {
+                if (!inQuotes) break;
+                // Line break within a quoted field
+                int next = i + 1;
+                if (b == '\r') {
+                    if (next >= limit && !eof) return NEED_MORE;
+                    if (next < limit && buf.get(next) == '\n') next++;
+                }
+                if (emit) out = put(out, (byte)'\n');
+                complex = true;
+                i = next;
+                column = 0;
+                continue;
+            }
+            if (b == QUOTE || b == ESCAPE) {
+                if (i + 1 >= limit && !eof) return NEED_MORE;
+                complex = true;
+                byte nb = (i + 1 < limit) ? buf.get(i + 1) : (byte)'\n';
+                boolean hasNext = nb != '\n' && nb != '\r';
+                if (b == ESCAPE) {
+                    if ((inQuotes || inField) && hasNext && (nb == QUOTE || nb == ESCAPE)) {
+                        if (emit) out = put(out, nb);
+                        i += 2;
+                        column += 2;
+                    } else {
+                        // Unused escape characters are dropped
+                        i++;
+                        column++;
+                    }
+                    continue;
+                }
+                if ((inQuotes || inField) && hasNext && nb == QUOTE) {
+                    // Doubled quote
+                    if (emit) out = put(out, QUOTE);
+                    i += 2;
+                    column += 2;
+                } else {
+                    if (column > 2 && buf.get(i - 1) != SEPARATOR && hasNext && nb != SEPARATOR) {
+                        // Embedded quote in the middle of a field is kept, unless preceded by just white space
+                        if (emit) {
+                            if (out > 0 && isAllWhiteSpace(out)) {
+                                out = 0;
+                            } else {
+                                out = put(out, QUOTE);
+                            }
+                        }
+                    }
+                    inQuotes = !inQuotes;
+                    i++;
+                    column++;
+                }
+                inField = !inField;
+                continue;
+            }
+            if (b == SEPARATOR && !inQuotes) break;
+            if (emit) out = put(out, b);
+            inField = true;
+            if ((b & 0xC0) != 0x80) {
+                // Count characters not bytes, ignoring UTF-8 continuation bytes
+                column++;
+            }
+            i++;
+        }
+        scanComplex = complex;
+        scanColumn = column;
+        scanLength = out;
+        return i;
+    }
+
+    private int put(int out, byte b) {
+        if (out >= scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[out] = b;
+        return out + 1;
+    }
+
+    private boolean isAllWhiteSpace(int len) {
+        for (int i = 0; i < len; i++) {
+            if ( !Character.isWhitespace( scratch[i] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addField(int start, int end, int column) {
+        if (fieldCount == fieldStart.length) {
+            int size = fieldCount * 2;
+            fieldStart = Arrays.copyOf(fieldStart, size);
+            fieldEnd = Arrays.copyOf(fieldEnd, size);
+            fieldColumn = Arrays.copyOf(fieldColumn, size);
+            decoded = Arrays.copyOf(decoded, size);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldColumn[fieldCount] = column;
+        fieldCount++;
+    }
+
+    /**
+     * Return the number of fields in the current record
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Return the offset, within the source, of the raw bytes of a field of the current record
+     */
+    public long getFieldOffset(int i) {
+        return windowStart + fieldStart[i];
+    }
+
+    /**
+     * Return the length of the raw bytes, including any quotes, of a field of the current record
+     */
+    public int getFieldLength(int i) {
+        return fieldEnd[i] - fieldStart[i];
+    }
+
+    /**
+     * True if the field includes quotes, escapes or line breaks and so needs unescaping to read
+     */
+    public boolean isFieldQuoted(int i) {
+        return fieldColumn[i] >= 0;
+    }
+
+    /**
+     * Return the decoded value of a field of the current record
+     */
+    public String getField(int i) throws IOException {
+        String value = decoded[i];
+        if (value == null) {
+            if (fieldColumn[i] < 0) {
+                value = decode(fieldStart[i], fieldEnd[i]);
+            } else {
+                scanField(fieldStart[i], fieldColumn[i], true);
+                value = new String(scratch, 0, scanLength, StandardCharsets.UTF_8);
+            }
+            decoded[i] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Return the decoded value of a field of the current record with leading and
+     * trailing white space removed, as for {@link String#trim()}. Avoids
+     * creating an intermediate untrimmed string for unquoted fields.
+     */
+    public String getTrimmedField(int i) throws IOException {
+        if (fieldColumn[i] >= 0 || decoded[i] != null) {
+            return getField(i).trim();
+        }
+        int start = fieldStart[i];
+        int end = fieldEnd[i];
+        // Bytes up to space are all single byte characters in UTF-8 so can trim directly
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') start++;
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') end--;
+        if (start == fieldStart[i] && end == fieldEnd[i]) {
+            return getField(i);
+        }
+        return decode(start, end);
+    }
+
+    /**
+     * Return all the fields of the current record
+     */
+    public String[] getFields() throws IOException {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getField(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Return a copy of the current record which remains valid after the
+     * tokenizer has moved on. Unquoted fields are kept as raw bytes.
+     */
+    public CSVRecord snapshot() throws IOException {
+        if (fieldCount == 0) {
+            return new CSVRecord(new byte[0], new int[0], null);
+        }
+        int base = fieldStart[0];
+        int len = fieldEnd[fieldCount - 1] - base;
+        byte[] data = new byte[len];
+        if (array != null) {
+            System.arraycopy(array, base, data, 0, len);
+        } else {
+            view.limit(base + len).position(base);
+            view.get(data, 0, len);
+        }
+        int[] bounds = new int[fieldCount * 2];
+        String[] quoted = null;
+        for (int i = 0; i < fieldCount; i++) {
+            bounds[2*i] = fieldStart[i] - base;
+            bounds[2*i + 1] = fieldEnd[i] - base;
+            if (fieldColumn[i] >= 0) {
+                if (quoted == null) {
+                    quoted = new String[fieldCount];
+                }
+                quoted[i] = getField(i);
+            }
+        }
+        return new CSVRecord(data, bounds, quoted);
+    }
+
+    private String decode(int start, int end) {
+        int len = end - start;
+        if (array != null) {
+            return new String(array, start, len, StandardCharsets.UTF_8);
+        }
+        if (len > scratch.length) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        view.limit(end).position(start);
+        view.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (in != null) {
+            in.close();
+        }
+    }
+}
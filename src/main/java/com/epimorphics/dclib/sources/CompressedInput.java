@@ -0,0 +1,138 @@
+/******************************************************************
+ * File:        CompressedInput.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * Support for reading compressed CSV sources. The compression format is 
+ * detected from the leading magic bytes, not the file name. Decompression
+ * is run on a separate thread (see {@link ReadAheadInputStream}) so that it
+ * overlaps with tokenizing and converting the data.
+ * <p>
+ * gzip (including multi-member files) and bzip2 are always supported, zstd 
+ * is supported if the zstd-jni library is on the classpath.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class CompressedInput {
+    protected static final int MAGIC_LENGTH = 4;
+    protected static final int DECODE_BUFFER_SIZE = 64 * 1024;
+    protected static final String ZSTD_STREAM = "com.github.luben.zstd.ZstdInputStream";
+    
+    public enum Format { NONE, GZIP, BZIP2, ZSTD }
+
+    /**
+     * Determine the compression format from the first few bytes of a source
+     */
+    public static Format detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return Format.GZIP;
+        } else if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+            return Format.BZIP2;
+        } else if (length >= 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5 
+                && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD) {
+            return Format.ZSTD;
+        }
+        return Format.NONE;
+    }
+    
+    /**
+     * Determine the compression format of a file
+     */
+    public static Format detect(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC_LENGTH];
+            return detect(magic, readFully(in, magic));
+        }
+    }
+    
+    /**
+     * True if the file is compressed in a format we recognize
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        return detect(file) != Format.NONE;
+    }
+    
+    /**
+     * Open a file, decompressing it if necessary
+     */
+    public static InputStream open(File file) throws IOException {
+        return decompress( new FileInputStream(file) );
+    }
+    
+    /**
+     * Return a stream of the decompressed content of the given stream, which 
+     * may be the original content if it is not compressed.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in, DECODE_BUFFER_SIZE);
+        byte[] magic = new byte[MAGIC_LENGTH];
+        bin.mark(MAGIC_LENGTH);
+        int length = readFully(bin, magic);
+        bin.reset();
+        Format format = detect(magic, length);
+        if (format == Format.NONE) {
+            return bin;
+        }
+        return new ReadAheadInputStream( decoderFor(format, bin) );
+    }
+
+    /**
+     * Remove any file name extension which indicates compression, so that 
+     * "data.csv.gz" becomes "data.csv"
+     */
+    public static String removeCompressionExtension(String filename) {
+        return filename.replaceFirst("\\.(gz|gzip|bz2|zst)$", "");
+    }
+    
+    protected static InputStream decoderFor(Format format, InputStream in) throws IOException {
+        switch (format) {
+        case GZIP:
+            return new GZIPInputStream(in, DECODE_BUFFER_SIZE);
+            
+        case BZIP2:
+            return new BZip2CompressorInputStream(in, true);
+            
+        case ZSTD:
+            try {
+                Class<?> zstd = Class.forName(ZSTD_STREAM);
+                return (InputStream) zstd.getConstructor(InputStream.class).newInstance(in);
+            } catch (ClassNotFoundException e) {
+                throw new EpiException("Source is zstd compressed but zstd-jni is not available");
+            } catch (ReflectiveOperationException e) {
+                throw new EpiException("Failed to open zstd decoder", e);
+            }
+            
+        default:
+            return in;
+        }
+    }
+    
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int n = 0;
+        while (n < buf.length) {
+            int count = in.read(buf, n, buf.length - n);
+            if (count < 0) break;
+            n += count;
+        }
+        return n;
+    }
+}
@@ -47,4 +47,9 @@ public class MapSourceBase extends MapSourceBaseBase implements MapSource {
         // Default is no enrichment
     }
     
+    @Override
+    public boolean isEnriching() {
+        return false;
+    }
+    
 }
@@ -166,6 +166,11 @@ public class RDFMapSource extends MapSourceBase implements MapSource {
         } 
     }
     
+    @Override
+    public boolean isEnriching() {
+        return enrichDescribe || !enrich.isEmpty();
+    }
+    
     private Property asProperty(String val, ConverterProcess proc) {
         return (val == null)  ? null : ResourceFactory.createProperty( asURI(val, proc) );
     }
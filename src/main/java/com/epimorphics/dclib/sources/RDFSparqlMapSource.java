@@ -114,6 +114,11 @@ public class RDFSparqlMapSource extends MapSourceBaseBase implements MapSource {
         // No enrichment supported
     }
 
+    @Override
+    public boolean isEnriching() {
+        return false;
+    }
+
 
 
 }
@@ -0,0 +1,144 @@
+/******************************************************************
+ * File:        ReadAheadInputStream.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads ahead from a source stream on a background thread, passing blocks
+ * of data to the consumer through a bounded queue. Used to run expensive 
+ * source streams, such as decompressors, in parallel with the consumer.
+ * Any failure of the source is rethrown to the consumer, as an IOException,
+ * once it has read the blocks before the failure.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class ReadAheadInputStream extends InputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    public static final int DEFAULT_DEPTH = 4;
+    
+    protected static final byte[] END = new byte[0];
+    
+    protected final InputStream source;
+    protected final BlockingQueue<byte[]> blocks;
+    protected final Thread reader;
+    protected volatile IOException error;
+    protected byte[] current = new byte[0];
+    protected int pos = 0;
+    protected boolean eof = false;
+
+    public ReadAheadInputStream(InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH);
+    }
+    
+    public ReadAheadInputStream(InputStream source, final int blockSize, int depth) {
+        this.source = source;
+        this.blocks = new ArrayBlockingQueue<>(depth);
+        this.reader = new Thread("dclib-read-ahead") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        byte[] block = new byte[blockSize];
+                        int n = fill(block);
+                        if (n > 0) {
+                            blocks.put( n == blockSize ? block : Arrays.copyOf(block, n) );
+                        }
+                        if (n < blockSize) break;
+                    }
+                } catch (InterruptedException e) {
+                    return;   // Consumer has closed the stream
+                } catch (IOException e) {
+                    error = e;
+                } catch (Throwable e) {
+                    // Anything else, such as an Error from a decompressor, must still end the stream
+                    error = new IOException("Failed reading ahead from source: " + e, e);
+                }
+                try {
+                    blocks.put(END);
+                } catch (InterruptedException e) {
+                    // Consumer has closed the stream
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    private int fill(byte[] block) throws IOException {
+        int n = 0;
+        while (n < block.length) {
+            int count = source.read(block, n, block.length - n);
+            if (count < 0) break;
+            n += count;
+        }
+        return n;
+    }
+    
+    private boolean nextBlock() throws IOException {
+        if (eof) return false;
+        try {
+            current = blocks.take();
+            pos = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for read ahead");
+        }
+        if (current == END) {
+            eof = true;
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos >= current.length && !nextBlock()) {
+            return -1;
+        }
+        return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos >= current.length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
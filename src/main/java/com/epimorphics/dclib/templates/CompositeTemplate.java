@@ -9,6 +9,7 @@
 
 package com.epimorphics.dclib.templates;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
@@ -20,6 +21,8 @@ import org.apache.jena.riot.system.StreamRDF;
 import com.epimorphics.dclib.framework.BindingEnv;
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.DataContext;
+import com.epimorphics.dclib.framework.ExecutionPlan;
+import com.epimorphics.dclib.framework.NodePool;
 import com.epimorphics.dclib.framework.NullResult;
 import com.epimorphics.dclib.framework.Pattern;
 import com.epimorphics.dclib.framework.Template;
@@ -33,6 +36,7 @@ import org.apache.jena.graph.Triple;
 public class CompositeTemplate extends ParameterizedTemplate implements Template {
     protected List<Template> templates;
     protected Pattern guard;
+    protected String dispatchColumn;
     
     /**
      * Test if a json object specifies on of these templates
@@ -64,6 +68,10 @@ public class CompositeTemplate extends ParameterizedTemplate implements Template
             guard = new Pattern( spec.get(JSONConstants.GUARD).getAsString().value(), dc);
         }
         
+        if (spec.get(JSONConstants.DISPATCH) != null) {
+            dispatchColumn = spec.get(JSONConstants.DISPATCH).getAsString().value();
+        }
+        
         // Extract the list of to level templates to run
         templates = getTemplates(spec.get(JSONConstants.TEMPLATES), dc);
         
@@ -87,6 +95,13 @@ public class CompositeTemplate extends ParameterizedTemplate implements Template
         }
         return true;
     }
+    
+    /**
+     * Return the guard pattern which must be true for the template to apply, or null if none
+     */
+    public Pattern getGuard() {
+        return guard;
+    }
 
     @Override
     public Node convertRow(ConverterProcess proc, BindingEnv row, int rowNumber) {
@@ -97,9 +112,13 @@ public class CompositeTemplate extends ParameterizedTemplate implements Template
             proc.getMessageReporter().report("Bindings for " + getName() + ": " + env);
         }
 
-        for (Template template : templates) {
+        // When debugging try every child so that all the non-applicable ones get reported
+        ExecutionPlan plan = proc.getPlan();
+        DispatchIndex index = (proc.isDebugging() || plan == null) ? null : plan.getDispatchIndex(this);
+        List<Template> children = index == null ? templates : index.getCandidates(env);
+        for (Template template : children) {
             template = template.deref();
-            if (template.isApplicableTo(proc.getHeaders()) && template.isApplicableTo(proc, env, rowNumber)) {
+            if (proc.isApplicableToHeaders(template) && template.isApplicableTo(proc, env, rowNumber)) {
                 reportApplying(proc, template, rowNumber);
                 try {
                     Node n = template.convertRow(proc, env, rowNumber);
@@ -121,6 +140,40 @@ public class CompositeTemplate extends ParameterizedTemplate implements Template
         return result;
     }
     
+    /**
+     * Build an index of the child templates, as bound by the given plan,
+     * or return null if they can't be indexed
+     */
+    public DispatchIndex buildDispatchIndex(ExecutionPlan plan) {
+        List<Template> children = new ArrayList<>( templates.size() );
+        for (Template t : templates) {
+            Template child = plan.deref(t);
+            if (child == null) {
+                // Unresolved reference, leave it to be reported row by row
+                return null;
+            }
+            children.add(child);
+        }
+        DispatchIndex index = new DispatchIndex(children, dispatchColumn);
+        return index.getColumn() == null ? null : index;
+    }
+    
+    @Override
+    public List<Template> getChildTemplates() {
+        List<Template> children = new ArrayList<>( super.getChildTemplates() );
+        children.addAll(templates);
+        return children;
+    }
+    
+    @Override
+    public boolean requiresOrderedRows() {
+        if (super.requiresOrderedRows()) return true;
+        for (Template t : templates) {
+            if (requiresOrderedRows(t)) return true;
+        }
+        return false;
+    }
+    
     /**
      * Check for any columns of form "<url>" and extract those directly.
      */
@@ -130,7 +183,7 @@ public class CompositeTemplate extends ParameterizedTemplate implements Template
             String col = i.next();
             if (isURI(col)) {
                 String p = proc.getDataContext().expandURI( asURI(col) );
-                Node predicate = NodeFactory.createURI(p);
+                Node predicate = NodePool.createURI(p);
                 Object v = row.get(col);
                 Node obj = null;
                 if (v instanceof Value) {
@@ -0,0 +1,134 @@
+/******************************************************************
+ * File:        DispatchIndex.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.templates;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.epimorphics.dclib.framework.BindingEnv;
+import com.epimorphics.dclib.framework.ExecutionPlan;
+import com.epimorphics.dclib.framework.Pattern;
+import com.epimorphics.dclib.framework.Template;
+
+/**
+ * Index of the child templates of a composite by the value of a discriminator
+ * column. Children whose guard is of the form {@code {col == 'X'}} are only
+ * candidates for rows where col has that value, so a composite with many such
+ * children only needs to try the few which can apply to each row.
+ * <p>
+ * The index is only a filter, candidates are still checked in full, so results
+ * are the same as trying every child. Candidates are returned in the order the
+ * children were declared. The discriminator can be declared in the composite
+ * (the "dispatch" key) or is inferred if enough children test the same column.
+ * Indexes are built from the dereferenced children so each execution plan
+ * builds its own, see {@link ExecutionPlan#getDispatchIndex(Template)}.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class DispatchIndex {
+    /** Minimum number of children testing a column for it to be used as an inferred discriminator */
+    public static final int MIN_INFERRED = 3;
+
+    protected final List<Template> children = new ArrayList<>();
+    protected final List<Template> unindexed = new ArrayList<>();
+    protected final Map<String, List<Template>> index = new HashMap<>();
+    protected String column;
+
+    /**
+     * Build an index for a list of child templates.
+     * @param templates the child templates, already dereferenced
+     * @param column the declared discriminator column, or null to infer it from the guards
+     */
+    public DispatchIndex(List<Template> templates, String column) {
+        List<String[]> tests = new ArrayList<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (Template child : templates) {
+            String[] test = null;
+            if (child instanceof CompositeTemplate) {
+                Pattern guard = ((CompositeTemplate)child).getGuard();
+                test = guard == null ? null : guard.getEqualityTest();
+            }
+            if (test != null) {
+                Integer count = counts.get(test[0]);
+                counts.put(test[0], count == null ? 1 : count + 1);
+            }
+            children.add(child);
+            tests.add(test);
+        }
+
+        if (column == null) {
+            int best = MIN_INFERRED - 1;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                if (entry.getValue() > best) {
+                    best = entry.getValue();
+                    column = entry.getKey();
+                }
+            }
+        }
+        if (column == null || !counts.containsKey(column)) {
+            return;
+        }
+        this.column = column;
+
+        // Each value's list merges its children with the unindexed ones, in declaration order
+        for (int i = 0; i < children.size(); i++) {
+            Template child = children.get(i);
+            String[] test = tests.get(i);
+            if (test != null && test[0].equals(column)) {
+                if (!index.containsKey(test[1])) {
+                    index.put(test[1], new ArrayList<>(unindexed));
+                }
+                index.get(test[1]).add(child);
+            } else {
+                unindexed.add(child);
+                for (List<Template> candidates : index.values()) {
+                    candidates.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the discriminator column, or null if the children are not indexed
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Return the children which might apply in the given environment
+     */
+    public List<Template> getCandidates(BindingEnv env) {
+        if (column == null) {
+            return children;
+        }
+        Object value = env.get(column);
+        if (value == null) {
+            // A missing value never equals a guard's constant
+            return unindexed;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            // Guards would compare these numerically or logically
+            return children;
+        }
+        List<Template> candidates = index.get(value.toString());
+        return candidates == null ? unindexed : candidates;
+    }
+
+    /**
+     * Number of distinct discriminator values indexed
+     */
+    public int size() {
+        return index.size();
+    }
+}
@@ -0,0 +1,81 @@
+/******************************************************************
+ * File:        HierarchyIndex.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.templates;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * Record of the current resource at each level of a hierarchy as it stands
+ * after each row of the data, built by a first pass over the rows. A second
+ * pass can then look up the ancestors for any row directly, rather than relying
+ * on the rows being converted in order, so the rows can be converted in parallel.
+ * <p>
+ * Only the rows which change the state are recorded. Resources at the leaf level
+ * are never the parent of another row so changes to that level are ignored, a 
+ * hierarchy with many leaves per parent only needs a few entries. The index is held
+ * by the conversion process which built it, see {@link com.epimorphics.dclib.framework.ConverterProcess#getHierarchyIndex()}.
+ * </p>
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class HierarchyIndex {
+    protected final HierarchyTemplate template;
+    protected final Node[] state;
+    protected final TreeMap<Integer, Node[]> changes = new TreeMap<>();
+
+    public HierarchyIndex(HierarchyTemplate template, int levels) {
+        this.template = template;
+        this.state = new Node[levels];
+    }
+
+    /**
+     * The hierarchy template for which the index was built
+     */
+    public HierarchyTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Note the resource found for a level of the hierarchy on the current row
+     * @return true if this changes the ancestors of later rows
+     */
+    protected boolean setLevel(int level, Node resource) {
+        if (level >= state.length - 1 || resource.equals(state[level])) {
+            return false;
+        }
+        state[level] = resource;
+        return true;
+    }
+
+    /**
+     * Record the state after the given row, which should be later than any row already recorded
+     */
+    protected void record(int rowNumber) {
+        changes.put(rowNumber, state.clone());
+    }
+
+    /**
+     * Return a copy of the state as it stood before the given row
+     */
+    public Node[] getAncestors(int rowNumber) {
+        Map.Entry<Integer, Node[]> entry = changes.lowerEntry(rowNumber);
+        return entry == null ? new Node[state.length] : entry.getValue().clone();
+    }
+
+    /**
+     * Number of rows which changed the state
+     */
+    public int size() {
+        return changes.size();
+    }
+}
@@ -29,6 +29,7 @@ public class HierarchyTemplate extends TemplateBase implements Template {
     protected Pattern topLink;
     protected Pattern invTopLink;
     protected List<Template> levelTemplates = new ArrayList<>();
+    protected String[] sortColumns;
     
     /**
      * Test if a json object specifies on of these templates
@@ -56,6 +57,7 @@ public class HierarchyTemplate extends TemplateBase implements Template {
         if (spec.hasKey(JSONConstants.INV_TOP)) {
             invTopLink = new Pattern( getRequiredField(JSONConstants.INV_TOP), dc );
         }
+        sortColumns = getList(JSONConstants.SORT_BY);
         for (String key : spec.keys()) {
             try {
                 int index = Integer.parseInt( key );
@@ -73,12 +75,24 @@ public class HierarchyTemplate extends TemplateBase implements Template {
         }
     }
     
+    @Override
+    public List<Template> getChildTemplates() {
+        return levelTemplates;
+    }
+    
     public Node convertRow(ConverterProcess proc, BindingEnv row, int rowNumber) {
         super.convertRow(proc, row, rowNumber);
-        Node[] state = (Node[]) proc.getState();
-        if (state == null) {
-            state = new Node[ levelTemplates.size() ];
-            proc.setState(state);
+        Node[] state;
+        HierarchyIndex idx = proc.getHierarchyIndex();
+        if (idx != null && idx.getTemplate() == this) {
+            // Ancestors were found by a first pass, this row's state is private to it
+            state = idx.getAncestors(rowNumber);
+        } else {
+            state = (Node[]) proc.getState();
+            if (state == null) {
+                state = new Node[ levelTemplates.size() ];
+                proc.setState(state);
+            }
         }
         
         Node resource = null;
@@ -105,6 +119,69 @@ public class HierarchyTemplate extends TemplateBase implements Template {
         }
         return resource;
     }
+    
+    /**
+     * Return the (sanitized) names of the columns by which the data should be
+     * sorted to put the rows in hierarchy order, or null if none are declared
+     */
+    public String[] getSortColumns() {
+        return sortColumns;
+    }
+    
+    /**
+     * True if the ancestors of each row can be found by a first pass over the rows,
+     * which needs the level templates themselves to be independent of row order
+     */
+    public boolean canIndex() {
+        for (Template t : levelTemplates) {
+            if (requiresOrderedRows(t)) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Start a new index of the ancestors of each row, for the current conversion
+     */
+    public HierarchyIndex startIndex() {
+        return new HierarchyIndex(this, levelTemplates.size());
+    }
+    
+    /**
+     * First pass processing of a row, finds the resources at each level of the
+     * hierarchy and records them in the index. The rows must be passed in order and
+     * any output should be discarded by the caller, it will be regenerated when
+     * the row is converted.
+     */
+    public void indexRow(ConverterProcess proc, HierarchyIndex idx, BindingEnv row, int rowNumber) {
+        boolean changed = false;
+        try {
+            super.convertRow(proc, row, rowNumber);
+            for (int i = 0; i < levelTemplates.size(); i++) {
+                try {
+                    Node resource = levelTemplates.get(i).convertRow(proc, row, rowNumber);
+                    if (resource != null) {
+                        changed |= idx.setLevel(i, resource);
+                    }
+                } catch (NullResult e) {
+                    // No successful match so proceed to later templates
+                }
+            }
+        } catch (Exception e) {
+            // Row fails, will be reported when it is converted
+        }
+        if (changed) {
+            idx.record(rowNumber);
+        }
+    }
+    
+    /**
+     * Relies on the ancestor state left behind by earlier rows, unless
+     * a first pass has been used to index them, see {@link #indexRow}
+     */
+    @Override
+    public boolean requiresOrderedRows() {
+        return true;
+    }
 
     protected void condLink(ConverterProcess proc, BindingEnv row, Pattern link,
             Node resource, Node parent, int rowNumber) {
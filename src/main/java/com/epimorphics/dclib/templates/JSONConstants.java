@@ -30,6 +30,10 @@ public class JSONConstants {
     public static final String REFERENCED   = "referenced";
     public static final String PREFIXES     = "prefixes";
     public static final String GUARD        = "onlyIf" ;
+    public static final String DISPATCH     = "dispatch";
+    public static final String COLUMN_TYPES = "columnTypes";
+    public static final String INFER_TYPES  = "inferColumnTypes";
+    public static final String SORT_BY      = "sortBy";
     
     public static final String TYPE         = "type";
     public static final String HIERARCHY    = "Hierarchy";
@@ -15,6 +15,7 @@ import static com.epimorphics.dclib.templates.JSONConstants.TEMPLATE;
 import static com.epimorphics.dclib.templates.JSONConstants.TYPE;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -27,12 +28,12 @@ import org.apache.jena.atlas.json.JsonValue;
 import com.epimorphics.dclib.framework.BindingEnv;
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.DataContext;
-import com.epimorphics.dclib.framework.NullResult;
+import com.epimorphics.dclib.framework.NoResult;
+import com.epimorphics.dclib.framework.NodePool;
 import com.epimorphics.dclib.framework.Pattern;
 import com.epimorphics.dclib.framework.Template;
 import com.epimorphics.util.EpiException;
 import org.apache.jena.graph.Node;
-import org.apache.jena.graph.NodeFactory;
 
 public class ParameterizedTemplate extends TemplateBase implements Template {
     protected List<Map<String, Pattern>> parameters = new ArrayList<>();
@@ -68,6 +69,11 @@ public class ParameterizedTemplate extends TemplateBase implements Template {
         }
     }
     
+    @Override
+    public List<Template> getChildTemplates() {
+        return template == null ? Collections.<Template>emptyList() : Collections.singletonList(template);
+    }
+    
     protected void parseBindings(JsonValue jv) {
         if (jv.isObject()) {
             parameters.add( getBindingSet( jv.getAsObject() ) );
@@ -106,19 +112,24 @@ public class ParameterizedTemplate extends TemplateBase implements Template {
         }
     }  
     
+    @Override
+    public boolean requiresOrderedRows() {
+        return template != null && requiresOrderedRows(template);
+    }
+    
     protected BindingEnv bindParameters(ConverterProcess proc, BindingEnv row, int rowNumber) {
-        BindingEnv env = new BindingEnv(row);
+        BindingEnv env = row.extend();
         for (Map<String, Pattern> bindingSet : parameters) {
             for (Entry<String, Pattern> ent : bindingSet.entrySet()) {
-                try {
-                    proc.debugCheck(env, rowNumber, ent.getValue());
-                    Object value = ent.getValue().evaluate(env, proc, rowNumber);
-                    env.put(ent.getKey(), value);
-                } catch (NullResult e) {
+                proc.debugCheck(env, rowNumber, ent.getValue());
+                Object value = ent.getValue().tryEvaluate(env, proc, rowNumber);
+                if (value instanceof NoResult) {
                     // fall through to allow missing bindings
                     
                     // TODO was an abort - 
                     // throw new NullResult("Failed to bind variable " + ent.getKey());
+                } else {
+                    env.put(ent.getKey(), value);
                 }
             }
         }
@@ -126,7 +137,7 @@ public class ParameterizedTemplate extends TemplateBase implements Template {
         // Fix up dataset binding in-case the BIND has changed the $base
         Object baseURI = env.get(ConverterProcess.BASE_OBJECT_NAME);
         if (baseURI != null && !baseURI.toString().isEmpty()) {
-            Node dataset = NodeFactory.createURI(baseURI.toString());
+            Node dataset = NodePool.createURI(baseURI.toString());
             env.put(ConverterProcess.DATASET_OBJECT_NAME, dataset);
         }
 
@@ -21,6 +21,7 @@ import org.apache.jena.riot.system.StreamRDF;
 import com.epimorphics.dclib.framework.BindingEnv;
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.DataContext;
+import com.epimorphics.dclib.framework.NoResult;
 import com.epimorphics.dclib.framework.NullResult;
 import com.epimorphics.dclib.framework.Pattern;
 import com.epimorphics.dclib.framework.Template;
@@ -79,17 +80,27 @@ public class ResourceMapTemplate extends TemplateBase implements Template {
         proc.debugCheck(row, rowNumber, root);
         Node subject = root.evaluateAsURINode(row, proc, rowNumber);
         if (subject == null) return subject;
-        BindingEnv env = new BindingEnv(row);
+        BindingEnv env = row.extend();
         env.put(ConverterProcess.ROOT_NAME, new ValueNode(subject));
         for (Map.Entry<Pattern, Pattern> entry : patterns.entrySet()) {
             Pattern propPattern = entry.getKey();
             proc.debugCheck(env, rowNumber, propPattern);
             Pattern valPattern = entry.getValue();
             proc.debugCheck(env, rowNumber, valPattern);
+            if (propPattern.isMissingInputs(env) || (propPattern.isConstant() && valPattern.isMissingInputs(env))) {
+                // Would give a NullResult, skip without evaluating
+                continue;
+            }
             try {
-                Node prop = propPattern.evaluateAsNode(env, proc, rowNumber);
+                Object propValue = propPattern.tryEvaluate(env, proc, rowNumber);
+                if (propValue instanceof NoResult) continue;
+                Node prop = propPattern.asNode(propValue);
                 validateNode(prop);
-                Object value = valPattern.evaluate(env, proc, rowNumber);
+                Object value = valPattern.tryEvaluate(env, proc, rowNumber);
+                if (value instanceof NoResult) {
+                    // Missing data at this stage is silently ignored so can have optional properties in the map
+                    continue;
+                }
                 if (value instanceof Node) {
                     validateNode((Node)value);
                 }
@@ -11,9 +11,12 @@ package com.epimorphics.dclib.templates;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 
@@ -27,8 +30,10 @@ import com.epimorphics.dclib.framework.EvalFailed;
 import com.epimorphics.dclib.framework.MapSource;
 import com.epimorphics.dclib.framework.NullResult;
 import com.epimorphics.dclib.framework.Pattern;
+import com.epimorphics.dclib.framework.RowBindingEnv;
 import com.epimorphics.dclib.framework.Template;
 import com.epimorphics.dclib.sources.MapSourceFactory;
+import com.epimorphics.dclib.values.ColumnType;
 import com.epimorphics.dclib.values.ValueNull;
 import com.epimorphics.util.EpiException;
 import com.epimorphics.util.NameUtils;
@@ -47,6 +52,8 @@ public class TemplateBase implements Template {
     protected String[] requiredColumns;
     protected String[] requiredColumnNames;
     protected String[] optionalColumns;
+    protected Map<String, ColumnType> columnTypes;
+    protected int inferTypeRows;
     protected String name;
     
     public TemplateBase(JsonObject spec) {
@@ -58,13 +65,22 @@ public class TemplateBase implements Template {
         requiredColumns = getList( JSONConstants.REQUIRED );
         requiredColumnNames = getList( JSONConstants.REQUIRED_COL );
         optionalColumns = getList( JSONConstants.OPTIONAL );
+        columnTypes = getColumnTypeSpec();
+        if (spec.hasKey(JSONConstants.INFER_TYPES)) {
+            JsonValue infer = spec.get(JSONConstants.INFER_TYPES);
+            if (infer.isNumber()) {
+                inferTypeRows = infer.getAsNumber().value().intValue();
+            } else {
+                throw new EpiException("Expected number of rows for " + JSONConstants.INFER_TYPES + " but found: " + infer);
+            }
+        }
         name = getJsonString(JSONConstants.NAME);
         if (name == null) {
             name = "anon";
         }
     }
     
-    private String[] getList(String key) {
+    protected String[] getList(String key) {
         if (spec.hasKey(key)) {
             Object[] required = spec.get(key).getAsArray().toArray();
             String[] result = new String[ required.length ];
@@ -76,6 +92,22 @@ public class TemplateBase implements Template {
         return null;
     }
     
+    private Map<String, ColumnType> getColumnTypeSpec() {
+        if (spec.hasKey(JSONConstants.COLUMN_TYPES)) {
+            JsonValue types = spec.get(JSONConstants.COLUMN_TYPES);
+            if ( !types.isObject() ) {
+                throw new EpiException("Expected " + JSONConstants.COLUMN_TYPES + " to be an object mapping column names to types: " + types);
+            }
+            JsonObject typesObj = types.getAsObject();
+            Map<String, ColumnType> result = new HashMap<>();
+            for (String col : typesObj.keys()) {
+                result.put( NameUtils.safeVarName(col), ColumnType.fromName( typesObj.get(col).getAsString().value() ) );
+            }
+            return result;
+        }
+        return null;
+    }
+    
     protected String getRequiredField(String name) {
         JsonValue field = spec.get(name);
         if (field == null) {
@@ -96,6 +128,20 @@ public class TemplateBase implements Template {
         return requiredColumnNames;
     }
     
+    /**
+     * Return the declared types of data columns, keyed by safe column name, or null if none declared
+     */
+    public Map<String, ColumnType> getColumnTypes() {
+        return columnTypes;
+    }
+    
+    /**
+     * Return the number of rows over which to infer the types of undeclared columns, 0 for no inference
+     */
+    public int getInferTypeRows() {
+        return inferTypeRows;
+    }
+    
     public String listMissingColumns(String[] columnNames) {
         StringBuffer missing = new StringBuffer();
         if (requiredColumnNames != null) {
@@ -137,8 +183,12 @@ public class TemplateBase implements Template {
     @Override
     public boolean isApplicableTo(ConverterProcess config, BindingEnv row, int rowNumber) {
         if (requiredColumns != null) {
-            for (String required : requiredColumns) {
-                Object value = row.get(required);
+            int[] slots = (config != null && row instanceof RowBindingEnv) ? config.getRequiredSlots(this, (RowBindingEnv)row) : null;
+            for (int i = 0; i < requiredColumns.length; i++) {
+                Object value = (slots != null && slots[i] >= 0) ? ((RowBindingEnv)row).getSlot(slots[i]) : null;
+                if (value == null) {
+                    value = row.get(requiredColumns[i]);
+                }
                 if (value == null || value instanceof ValueNull) {
                     return false;
                 }
@@ -149,7 +199,7 @@ public class TemplateBase implements Template {
 
     @Override
     public Node convertRow(ConverterProcess config, BindingEnv row, int rowNumber) {
-        if (!isApplicableTo(config, row, rowNumber) || !isApplicableTo(config.getHeaders())) {
+        if (!isApplicableTo(config, row, rowNumber) || !config.isApplicableToHeaders(this)) {
             throw new NullResult("Template " + getName() + " is not applicable");
         }
 //        if (requiredColumns != null) {
@@ -266,6 +316,13 @@ public class TemplateBase implements Template {
         return spec.toString();
     }
 
+    /**
+     * Return the names of the columns or parameters which must be bound for the template to apply
+     */
+    public String[] getRequiredColumns() {
+        return requiredColumns;
+    }
+
     @Override
     public List<String> required() {
         return asList(requiredColumns);
@@ -331,6 +388,33 @@ public class TemplateBase implements Template {
     static final java.util.regex.Pattern BAD_CHARS = java.util.regex.Pattern.compile("[{}<>]");
     static final java.util.regex.Pattern PREFIX = java.util.regex.Pattern.compile("([^/:]+):.*");
     
+    /**
+     * Returns true if this template relies on rows being presented 
+     * one at a time, in file order, and so can't be run in parallel.
+     */
+    public boolean requiresOrderedRows() {
+        return false;
+    }
+    
+    /**
+     * Test if the given template relies on ordered rows. Templates
+     * which aren't derived from TemplateBase are assumed to.
+     */
+    public static boolean requiresOrderedRows(Template template) {
+        Template t = template.deref();
+        if (t instanceof TemplateBase) {
+            return ((TemplateBase)t).requiresOrderedRows();
+        }
+        return true;
+    }
+    
+    /**
+     * Return the templates this template may call, which may include TemplateRefs
+     */
+    public List<Template> getChildTemplates() {
+        return Collections.emptyList();
+    }
+    
     @Override
     public String toString() {
         return "Template-" + name;
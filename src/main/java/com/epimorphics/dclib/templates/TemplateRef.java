@@ -14,6 +14,7 @@ import java.util.List;
 import com.epimorphics.dclib.framework.BindingEnv;
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.DataContext;
+import com.epimorphics.dclib.framework.ExecutionPlan;
 import com.epimorphics.dclib.framework.Template;
 import com.epimorphics.util.EpiException;
 import org.apache.jena.graph.Node;
@@ -21,35 +22,56 @@ import org.apache.jena.graph.Node;
 /**
  * An indirect pointref to a template that allows for late binding of template names
  * to actual templates. Used internally.
+ * <p>
+ * A conversion process binds each reference when it starts, in its 
+ * {@link com.epimorphics.dclib.framework.ExecutionPlan}, so that rows can be
+ * converted without looking up the template each time. Outside of a
+ * conversion the template is looked up on every use.
+ * </p>
  * 
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public class TemplateRef implements Template {
     protected String name;
     protected DataContext dc;
-//    protected Template template;
     
     public TemplateRef(String name, DataContext dc) {
         this.name = name;
         this.dc = dc;
     }
 
-    protected synchronized Template getTemplate() {
-        // Switched to late binding rather than attempting to clear cached early binding
-//        if (template == null) {
-            Template template = dc.getTemplate(name);
+    protected Template getTemplate() {
+        return getTemplate( ConverterProcess.get() );
+    }
+    
+    /**
+     * Return the template bound to this reference in the plan of the given
+     * process, or the template currently registered if there is no binding
+     */
+    protected Template getTemplate(ConverterProcess proc) {
+        ExecutionPlan plan = proc == null ? null : proc.getPlan();
+        Template template = plan == null ? null : plan.getBinding(this);
+        if (template == null) {
+            template = dc.getTemplate(name);
             if (template == null) {
                 throw new EpiException("Can't find template called: " + name);
             }
-//        }
+        }
         return template;
     }
     
+    /**
+     * Return the currently registered template of this name, or null if there is none
+     */
+    public Template lookup() {
+        return dc.getTemplate(name);
+    }
+    
     /**
      * Clear any cached template dereferences, used when dynamically loading templates into a running system.
+     * References are bound by each conversion, see {@link ExecutionPlan}, so there is nothing to clear.
      */
-    public synchronized void clearReference() {
-//        template = null;
+    public void clearReference() {
     }
     
     @Override
@@ -60,7 +82,7 @@ public class TemplateRef implements Template {
     @Override
     public Node convertRow(ConverterProcess config, BindingEnv row,
             int rowNumber) {
-        return getTemplate().convertRow(config, row, rowNumber);
+        return getTemplate(config).convertRow(config, row, rowNumber);
     }
 
     @Override
@@ -75,12 +97,12 @@ public class TemplateRef implements Template {
 
     @Override
     public boolean isApplicableTo(ConverterProcess config, BindingEnv row, int rowNumber) {
-        return getTemplate().isApplicableTo(config, row, rowNumber);
+        return getTemplate(config).isApplicableTo(config, row, rowNumber);
     }
 
     @Override
     public void preamble(ConverterProcess config, BindingEnv env) {
-        getTemplate().preamble(config, env);
+        getTemplate(config).preamble(config, env);
     }
 
     @Override
@@ -0,0 +1,42 @@
+/******************************************************************
+ * File:        ColumnType.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import com.epimorphics.util.EpiException;
+
+/**
+ * The type to assume for the values in a data column. AUTO means
+ * each value is sniffed to see if it looks like a number or date,
+ * the others skip or restrict that check. A value which does not fit
+ * a declared NUMBER or DATE type is treated as a string.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public enum ColumnType {
+    STRING, NUMBER, DATE, AUTO;
+    
+    /**
+     * Parse a column type name as used in a template, case insensitive
+     */
+    public static ColumnType fromName(String name) {
+        try {
+            return valueOf( name.trim().toUpperCase() );
+        } catch (IllegalArgumentException e) {
+            throw new EpiException("Unrecognized column type: " + name);
+        }
+    }
+    
+    /**
+     * Convert a string value according to this type
+     */
+    public Value asValue(String string) {
+        return ValueFactory.asValue(string, this);
+    }
+}
@@ -0,0 +1,205 @@
+/******************************************************************
+ * File:        FormatCache.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Process-wide caches of the compiled forms of date and string format
+ * patterns. Templates almost always use a few constant formats so these are
+ * compiled once rather than on every row. Joda formatters are immutable and
+ * thread safe so can be shared directly. The caches are capped, if one fills
+ * up it is simply cleared and starts again.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class FormatCache {
+    public static final int MAX_SIZE = 1000;
+
+    protected static final ConcurrentHashMap<String, DateTimeFormatter> dateFormatters = new ConcurrentHashMap<>();
+    protected static final ConcurrentHashMap<String, DateParser[]> dateParsers = new ConcurrentHashMap<>();
+    protected static final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Return a Joda formatter for the given pattern
+     * @throws IllegalArgumentException if the pattern is not legal
+     */
+    public static DateTimeFormatter dateFormatter(String pattern) {
+        DateTimeFormatter formatter = dateFormatters.get(pattern);
+        if (formatter == null) {
+            formatter = DateTimeFormat.forPattern(pattern);
+            put(dateFormatters, pattern, formatter);
+        }
+        return formatter;
+    }
+
+    /**
+     * Return the parsers for a "|" separated set of alternative date patterns,
+     * as used by {@link ValueDate#parse(String, String, String)}. Illegal patterns
+     * are omitted.
+     */
+    public static DateParser[] dateParsers(String format) {
+        DateParser[] parsers = dateParsers.get(format);
+        if (parsers == null) {
+            List<DateParser> options = new ArrayList<>();
+            for(String fmt : format.split("\\|")) {
+                try {
+                    boolean withTZ = fmt.contains("Z");
+                    DateTimeFormatter p = DateTimeFormat.forPattern(fmt);
+                    if (withTZ) {
+                        p = p.withOffsetParsed();
+                    }
+                    options.add( new DateParser(p, withTZ) );
+                } catch (IllegalArgumentException e) {
+                    // Will never parse so leave it out
+                }
+            }
+            parsers = options.toArray( new DateParser[options.size()] );
+            put(dateParsers, format, parsers);
+        }
+        return parsers;
+    }
+
+    /**
+     * Equivalent to String.format(fmtstr, arg). Simple templates, with a single
+     * %s or %d conversion, are compiled and applied directly, anything else is
+     * left to String.format.
+     */
+    public static String format(String fmtstr, Object arg) {
+        Template template = templates.get(fmtstr);
+        if (template == null) {
+            template = Template.compile(fmtstr);
+            put(templates, fmtstr, template);
+        }
+        String result = template.apply(arg);
+        return result == null ? String.format(fmtstr, arg) : result;
+    }
+
+    public static void clear() {
+        dateFormatters.clear();
+        dateParsers.clear();
+        templates.clear();
+    }
+
+    private static <T> void put(ConcurrentHashMap<String, T> cache, String key, T value) {
+        if (cache.size() >= MAX_SIZE) {
+            cache.clear();
+        }
+        cache.putIfAbsent(key, value);
+    }
+
+    /**
+     * One alternative pattern for parsing a date
+     */
+    public static class DateParser {
+        public final DateTimeFormatter formatter;
+        public final boolean withTZ;
+
+        public DateParser(DateTimeFormatter formatter, boolean withTZ) {
+            this.formatter = formatter;
+            this.withTZ = withTZ;
+        }
+    }
+
+    /**
+     * Compiled form of a String.format template with literal text around
+     * a single conversion of the form %s, %d, %Nd or %0Nd.
+     */
+    static class Template {
+        static final Template UNSUPPORTED = new Template(null, null, ' ', 0, false);
+
+        final String prefix;
+        final String suffix;
+        final char conversion;
+        final int width;
+        final boolean zeroPad;
+
+        Template(String prefix, String suffix, char conversion, int width, boolean zeroPad) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.conversion = conversion;
+            this.width = width;
+            this.zeroPad = zeroPad;
+        }
+
+        static Template compile(String fmtstr) {
+            int start = fmtstr.indexOf('%');
+            if (start < 0 || fmtstr.indexOf('%', start + 1) >= 0) {
+                return UNSUPPORTED;
+            }
+            int i = start + 1;
+            boolean zeroPad = false;
+            if (i < fmtstr.length() && fmtstr.charAt(i) == '0') {
+                zeroPad = true;
+                i++;
+            }
+            int width = 0;
+            while (i < fmtstr.length() && Character.isDigit(fmtstr.charAt(i)) && width < 100) {
+                width = width * 10 + fmtstr.charAt(i++) - '0';
+            }
+            if (i >= fmtstr.length()) {
+                return UNSUPPORTED;
+            }
+            char conversion = fmtstr.charAt(i);
+            if (conversion == 'd') {
+                // Formatter uses the locale's digits for decimal conversions
+                if (zeroPad && width == 0 || DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getZeroDigit() != '0') {
+                    return UNSUPPORTED;
+                }
+            } else if (conversion != 's' || zeroPad || width != 0) {
+                return UNSUPPORTED;
+            }
+            return new Template(fmtstr.substring(0, start), fmtstr.substring(i + 1), conversion, width, zeroPad);
+        }
+
+        /**
+         * Return the formatted result, or null if the argument needs the full formatter
+         */
+        String apply(Object arg) {
+            if (this == UNSUPPORTED) return null;
+            String text;
+            if (conversion == 's') {
+                if (arg instanceof Formattable) return null;
+                text = String.valueOf(arg);
+            } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+                text = pad( Long.toString( ((Number)arg).longValue() ) );
+            } else {
+                return null;
+            }
+            return new StringBuilder(prefix.length() + text.length() + suffix.length())
+                    .append(prefix).append(text).append(suffix).toString();
+        }
+
+        private String pad(String digits) {
+            int padding = width - digits.length();
+            if (padding <= 0) return digits;
+            StringBuilder result = new StringBuilder(width);
+            int i = 0;
+            if (zeroPad) {
+                if (digits.charAt(0) == '-') {
+                    result.append('-');
+                    i = 1;
+                }
+                for (int j = 0; j < padding; j++) result.append('0');
+            } else {
+                for (int j = 0; j < padding; j++) result.append(' ');
+            }
+            return result.append(digits, i, digits.length()).toString();
+        }
+    }
+}
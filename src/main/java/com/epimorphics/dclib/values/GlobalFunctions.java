@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import com.epimorphics.dclib.framework.ConverterProcess;
 import com.epimorphics.dclib.framework.EvalFailed;
+import com.epimorphics.dclib.framework.NodePool;
 import com.epimorphics.geo.GeoPoint;
 import com.epimorphics.util.EpiException;
 import org.apache.jena.datatypes.RDFDatatype;
@@ -126,7 +127,7 @@ public class GlobalFunctions {
             return (ValueNode) value;
         } else {
             String uri = ConverterProcess.get().getDataContext().expandURI( value.toString() );
-            return new ValueNode( NodeFactory.createURI(uri) );
+            return new ValueNode( NodePool.createURI(uri) );
         }
     }
     
@@ -174,7 +175,7 @@ public class GlobalFunctions {
     
     static protected Map<Object, Node> bNodes;
     
-    public static  ValueNode bnodeFor(Object key) {
+    public static synchronized ValueNode bnodeFor(Object key) {
         if (bNodes == null) {
             bNodes = new HashMap<Object, Node>();
         }
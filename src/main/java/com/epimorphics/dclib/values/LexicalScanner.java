@@ -0,0 +1,222 @@
+/******************************************************************
+ * File:        LexicalScanner.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Single pass recognition of the lexical forms of numbers and dates used
+ * to type raw data values. Accepts exactly the same strings as the regular
+ * expressions in {@link ValueNumber} and {@link ValueDate}, including the
+ * way the date patterns treat a leading "-".
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class LexicalScanner {
+    public static final int NOT_TYPED   = 0;
+    public static final int INTEGER     = 1;
+    public static final int DECIMAL     = 2;
+    public static final int FLOAT       = 3;
+    public static final int DATETIME    = 4;
+    public static final int DATE        = 5;
+    public static final int TIME        = 6;
+    public static final int GYEARMONTH  = 7;
+
+    /** Flag added to a date kind if the string has a leading "-" */
+    public static final int NEGATIVE    = 0x10;
+
+    protected static final int MAX_LONG_DIGITS = 18;
+
+    /**
+     * Classify a string as the kind of number or date it represents,
+     * numbers are preferred over dates.
+     */
+    public static int classify(String s) {
+        int kind = classifyNumber(s);
+        return kind != NOT_TYPED ? kind : classifyDate(s);
+    }
+
+    public static boolean isNumber(int kind) {
+        return kind >= INTEGER && kind <= FLOAT;
+    }
+
+    public static boolean isDate(int kind) {
+        return (kind & ~NEGATIVE) >= DATETIME;
+    }
+
+    /**
+     * Recognize <code>[-+]?[0-9]+(\.[0-9]+)?([eE][-+]?[0-9]+(\.[0-9]+)?)?</code>
+     * @return INTEGER, DECIMAL, FLOAT or NOT_TYPED
+     */
+    public static int classifyNumber(String s) {
+        int n = s.length();
+        int i = 0;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) i++;
+        int j = digits(s, i);
+        if (j == i) return NOT_TYPED;
+        i = j;
+        int kind = INTEGER;
+        if (i < n && s.charAt(i) == '.') {
+            j = digits(s, i + 1);
+            if (j == i + 1) return NOT_TYPED;
+            i = j;
+            kind = DECIMAL;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) i++;
+            j = digits(s, i);
+            if (j == i) return NOT_TYPED;
+            i = j;
+            if (i < n && s.charAt(i) == '.') {
+                j = digits(s, i + 1);
+                if (j == i + 1) return NOT_TYPED;
+                i = j;
+            }
+            kind = FLOAT;
+        }
+        return i == n ? kind : NOT_TYPED;
+    }
+
+    /**
+     * Convert a string which has been classified as a number
+     */
+    public static Number toNumber(String s, int kind) {
+        switch (kind) {
+        case INTEGER:
+            return parseInteger(s);
+        case FLOAT:
+            return Double.valueOf(s);
+        case DECIMAL:
+            return new BigDecimal(s);
+        default:
+            return null;
+        }
+    }
+
+    private static Number parseInteger(String s) {
+        int n = s.length();
+        int i = 0;
+        boolean negative = false;
+        char c = s.charAt(0);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        if (n - i > MAX_LONG_DIGITS) {
+            // Might overflow, leave it to the library
+            try {
+                return Long.valueOf(s);
+            } catch (NumberFormatException e) {
+                return new BigInteger(s);
+            }
+        }
+        long value = 0;
+        for (; i < n; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return Long.valueOf( negative ? -value : value );
+    }
+
+    /**
+     * Recognize the date, time, dateTime and gYearMonth forms, each with an optional
+     * timezone and, as a whole, an optional leading "-". Alternatives are tried in
+     * the same order as {@link ValueDate} assigns types.
+     * @return DATETIME, DATE, TIME or GYEARMONTH, possibly with the NEGATIVE flag, or NOT_TYPED
+     */
+    public static int classifyDate(String s) {
+        int n = s.length();
+        int i = 0;
+        int flags = 0;
+        if (n > 0 && s.charAt(0) == '-') {
+            i = 1;
+            flags = NEGATIVE;
+        }
+        int j = dateBlock(s, i);
+        if (j > 0) {
+            if (j < n && s.charAt(j) == 'T') {
+                int k = timeBlock(s, j + 1);
+                if (k > 0 && timezoneToEnd(s, k)) return DATETIME | flags;
+            }
+            if (timezoneToEnd(s, j)) return DATE | flags;
+        }
+        j = timeBlock(s, i);
+        if (j > 0 && timezoneToEnd(s, j)) return TIME | flags;
+        j = yearMonthBlock(s, i);
+        if (j > 0 && timezoneToEnd(s, j)) return GYEARMONTH | flags;
+        return NOT_TYPED;
+    }
+
+    // [0-9]{4}-[01][0-9]
+    private static int yearMonthBlock(String s, int i) {
+        if (s.length() < i + 7) return -1;
+        if ( !(isDigit(s, i) && isDigit(s, i+1) && isDigit(s, i+2) && isDigit(s, i+3)) ) return -1;
+        if (s.charAt(i+4) != '-') return -1;
+        if ( !(inRange(s, i+5, '0', '1') && isDigit(s, i+6)) ) return -1;
+        return i + 7;
+    }
+
+    // [0-9]{4}-[01][0-9]-[0-3][0-9]
+    private static int dateBlock(String s, int i) {
+        int j = yearMonthBlock(s, i);
+        if (j < 0 || s.length() < j + 3) return -1;
+        if (s.charAt(j) != '-') return -1;
+        if ( !(inRange(s, j+1, '0', '3') && isDigit(s, j+2)) ) return -1;
+        return j + 3;
+    }
+
+    // [0-6][0-9]:[0-6][0-9]:[0-6][0-9](\.[0-9]+)?
+    private static int timeBlock(String s, int i) {
+        if (s.length() < i + 8) return -1;
+        for (int k = 0; k < 3; k++) {
+            int p = i + 3*k;
+            if ( !(inRange(s, p, '0', '6') && isDigit(s, p+1)) ) return -1;
+            if (k < 2 && s.charAt(p+2) != ':') return -1;
+        }
+        int j = i + 8;
+        if (j < s.length() && s.charAt(j) == '.') {
+            int k = digits(s, j + 1);
+            if (k > j + 1) {
+                j = k;
+            }
+        }
+        return j;
+    }
+
+    // (([+-][0-6][0-9]:[0-6][0-9])|Z)? then end of string
+    private static boolean timezoneToEnd(String s, int i) {
+        int n = s.length();
+        if (i == n) return true;
+        char c = s.charAt(i);
+        if (c == 'Z') return i + 1 == n;
+        if ((c == '+' || c == '-') && i + 6 == n) {
+            return inRange(s, i+1, '0', '6') && isDigit(s, i+2) && s.charAt(i+3) == ':'
+                    && inRange(s, i+4, '0', '6') && isDigit(s, i+5);
+        }
+        return false;
+    }
+
+    private static int digits(String s, int i) {
+        int n = s.length();
+        while (i < n && isDigit(s, i)) i++;
+        return i;
+    }
+
+    private static boolean isDigit(String s, int i) {
+        char c = s.charAt(i);
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean inRange(String s, int i, char low, char high) {
+        char c = s.charAt(i);
+        return c >= low && c <= high;
+    }
+}
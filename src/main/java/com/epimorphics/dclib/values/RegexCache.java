@@ -0,0 +1,54 @@
+/******************************************************************
+ * File:        RegexCache.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Process-wide cache of compiled regular expressions used by the value
+ * string functions. Templates almost always call these with a constant regex
+ * so compiling once, rather than on every row, saves a lot. The cache is
+ * capped, if it fills up it is simply cleared and starts again.
+ *
+ * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
+ */
+public class RegexCache {
+    public static final int MAX_SIZE = 1000;
+
+    protected static final ConcurrentHashMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * Return the compiled form of the given regex
+     * @throws java.util.regex.PatternSyntaxException if the regex is not legal
+     */
+    public static Pattern compile(String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern == null) {
+            if (patterns.size() >= MAX_SIZE) {
+                patterns.clear();
+            }
+            pattern = Pattern.compile(regex);
+            patterns.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Number of patterns currently cached
+     */
+    public static int size() {
+        return patterns.size();
+    }
+
+    public static void clear() {
+        patterns.clear();
+    }
+}
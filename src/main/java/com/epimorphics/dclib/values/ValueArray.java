@@ -125,7 +125,7 @@ public class ValueArray extends ValueBase<Value[]> implements Value {
     public Object format(final String fmtstr) {
         return applyFunction(new MapValue() {
             public Value map(Value value) {
-                return new ValueString(String.format(fmtstr, value)); 
+                return new ValueString(FormatCache.format(fmtstr, value));
             }
         });
         
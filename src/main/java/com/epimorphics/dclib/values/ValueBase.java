@@ -42,6 +42,8 @@ import org.apache.jena.vocabulary.XSD;
  * @author <a href="mailto:dave@epimorphics.com">Dave Reynolds</a>
  */
 public abstract class ValueBase<T> implements Value {
+    protected static final Pattern NON_SEGMENT = Pattern.compile("[^@$a-zA-Z0-9\\.~]+");
+    protected static final Pattern UNDERSCORE = Pattern.compile("_");
     
     protected T value;
     
@@ -127,7 +129,7 @@ public abstract class ValueBase<T> implements Value {
     }
     
     public Object format(String fmtstr) {
-        return new ValueString(String.format(fmtstr, value));
+        return new ValueString(FormatCache.format(fmtstr, value));
     }
 
     public boolean isString() {
@@ -239,7 +241,7 @@ public abstract class ValueBase<T> implements Value {
     
     public Value toCleanSegment() {
         String seg = toString().toLowerCase().replace("'", "");
-        seg =  seg.replaceAll("[^@$a-zA-Z0-9\\.~]+", "-");
+        seg =  NON_SEGMENT.matcher(seg).replaceAll("-");
         if (seg.endsWith("-")) {
             seg = seg.substring(0, seg.length()-1);
         }
@@ -247,7 +249,7 @@ public abstract class ValueBase<T> implements Value {
     }
     
     public Value toSegment(String repl) {
-        return wrap( NameUtils.safeName(toString()).replaceAll("_", repl) );
+        return wrap( UNDERSCORE.matcher(NameUtils.safeName(toString())).replaceAll(repl) );
     }
     
     public Value trim() {
@@ -263,11 +265,11 @@ public abstract class ValueBase<T> implements Value {
     }
 
     public Value replaceAll(String regex, String replacement) {
-        return wrap( toString().replaceAll(regex, replacement) );
+        return wrap( RegexCache.compile(regex).matcher(toString()).replaceAll(replacement) );
     }
 
     public Value regex(String regex) {
-        Matcher m = Pattern.compile(regex).matcher(toString());
+        Matcher m = RegexCache.compile(regex).matcher(toString());
         if (m.matches()) {
             if (m.groupCount() > 0) {
                 return wrap( m.group(1));
@@ -280,7 +282,7 @@ public abstract class ValueBase<T> implements Value {
     }
     
     public boolean matches(String regex) {
-        return toString().matches(regex);
+        return RegexCache.compile(regex).matcher(toString()).matches();
     }
     
     public Value lastSegment() {
@@ -317,7 +319,7 @@ public abstract class ValueBase<T> implements Value {
         if (model != null) {
             StreamRDF out = proc.getOutputStream();
             for (String puri : strings) {
-                puri = proc.getDataContext().getPrefixes().expandPrefix(puri);
+                puri = proc.getDataContext().expandURI(puri);
                 Node p = NodeFactory.createURI(puri);
                 Node s = NodeFactory.createURI(uri );
                 ExtendedIterator<Triple> it = model.getGraph().find(s, p, null);
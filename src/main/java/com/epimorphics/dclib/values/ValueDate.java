@@ -50,29 +50,40 @@ public class ValueDate extends ValueNode implements Value {
     protected RefTimeRepresentation reftime;
     
     public ValueDate(String value) {
-        super(stringToDate(value));
+        super(kindToDate(value, LexicalScanner.classifyDate(value)));
+    }
+    
+    /**
+     * Construct from a string which has already been classified
+     * by {@link LexicalScanner#classifyDate(String)}
+     */
+    public ValueDate(String value, int kind) {
+        super(kindToDate(value, kind));
     }
     
     public ValueDate(Node node) {
         super(node);
     }
     
-    private static Node stringToDate(String value) {
-        if (DATETIME_PATTERN.matcher(value).matches()) {
+    private static Node kindToDate(String value, int kind) {
+        switch (kind) {
+        case LexicalScanner.DATETIME:
+        case LexicalScanner.DATETIME | LexicalScanner.NEGATIVE:
             return NodeFactory.createLiteral(value, XSDDatatype.XSDdateTime);
-        } else if (DATE_PATTERN.matcher(value).matches()) {
+        case LexicalScanner.DATE:
+        case LexicalScanner.DATE | LexicalScanner.NEGATIVE:
             return NodeFactory.createLiteral(value, XSDDatatype.XSDdate);
-        } else if (TIME_PATTERN.matcher(value).matches()) {
+        case LexicalScanner.TIME:
             return NodeFactory.createLiteral(value, XSDDatatype.XSDtime);
-        } else if (GYEARMONTH_PATTERN.matcher(value).matches()) {
+        case LexicalScanner.GYEARMONTH:
             return NodeFactory.createLiteral(value, XSDDatatype.XSDgYearMonth);
-        } else {
+        default:
             return null;
         }
     }
-
+    
     public static boolean isDate(String str) {
-        return ANYDATE_PATTERN.matcher(str).matches();
+        return LexicalScanner.isDate( LexicalScanner.classifyDate(str) );
     }
     
     @Override
@@ -90,6 +101,8 @@ public class ValueDate extends ValueNode implements Value {
     protected static final Pattern GYEARMONTH_PATTERN = Pattern.compile( String.format("%s(%s)?", GYM_BLOCK, TZONE_BLOCK) );
     protected static final Pattern ANYDATE_PATTERN = Pattern.compile( String.format("-?(%sT%s|%s|%s|%s)(%s)?", DATE_BLOCK, TIME_BLOCK, DATE_BLOCK, TIME_BLOCK, GYM_BLOCK, TZONE_BLOCK) );
     
+    protected static final Pattern FRACTIONAL_SECONDS = Pattern.compile("\\.[0-9]*$");
+
     protected static final DateTimeFormatter DATETIME_FMT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss");
     protected static final DateTimeFormatter DATETIME_TZ_FMT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZZZ").withOffsetParsed();
     protected static final DateTimeFormatter DATETIME_FMT_MS = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
@@ -114,15 +127,10 @@ public class ValueDate extends ValueNode implements Value {
      * @return A ValueDate containing a legal RDF literal of the given time, or a ValueNull if non of the parse options worked.
      */
     public static Value parse(String lex, String format, String typeURI) {
-        for(String fmt : format.split("\\|")) {
+        for(FormatCache.DateParser p : FormatCache.dateParsers(format)) {
             try {
-                boolean withTZ = fmt.contains("Z");
-                DateTimeFormatter p = DateTimeFormat.forPattern(fmt);
-                if (withTZ) {
-                    p = p.withOffsetParsed();
-                }
-                DateTime time = p.parseDateTime(lex);
-                return fromDateTime(time, typeURI, withTZ);
+                DateTime time = p.formatter.parseDateTime(lex);
+                return fromDateTime(time, typeURI, p.withTZ);
             } catch(Exception e) {
                 // Ignore and loop round to try the next pattern
             }
@@ -391,7 +399,7 @@ public class ValueDate extends ValueNode implements Value {
     
     @Override
     public Object format(String format) {
-        DateTimeFormatter formatter = DateTimeFormat.forPattern(format);
+        DateTimeFormatter formatter = FormatCache.dateFormatter(format);
         String result = null;
         if (value.getLiteralDatatypeURI().equals(XSD.time.getURI())) {
             // Times are not datetimes and have to treated separately
@@ -424,7 +432,7 @@ public class ValueDate extends ValueNode implements Value {
                         time.getYears(), time.getMonths()-1, time.getDays(), 
                         time.getHours(), time.getMinutes(), time.getFullSeconds() );
                 // Remove any trailing fractional seconds if present
-                ref = NodeFactory.createURI("http://reference.data.gov.uk/id/gregorian-instant/" + value.getLiteralLexicalForm().replaceAll("\\.[0-9]*$", ""));
+                ref = NodeFactory.createURI("http://reference.data.gov.uk/id/gregorian-instant/" + FRACTIONAL_SECONDS.matcher(value.getLiteralLexicalForm()).replaceAll(""));
                 i_woy_year = CalendarUtils.getWeekOfYearYear(bcal);
                 i_woy_week = bcal.get(Calendar.WEEK_OF_YEAR);
                 new CalendarInstant(model, bcal, true);       
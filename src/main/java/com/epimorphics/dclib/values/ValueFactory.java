@@ -22,12 +22,39 @@ public class ValueFactory {
     public static Value asValue(String string) {
         if (string == null || string.isEmpty()) {
             return new ValueNull();
-        } else if (ValueNumber.isNumber(string)) {
-            return new ValueNumber(string);
-        } else if (ValueDate.isDate(string)) {
-            return new ValueDate(string);
+        }
+        int kind = LexicalScanner.classify(string);
+        if (LexicalScanner.isNumber(kind)) {
+            return new ValueNumber(string, kind);
+        } else if (LexicalScanner.isDate(kind)) {
+            return new ValueDate(string, kind);
         } else {
             return new ValueString(string);
         }
     }
+    
+    /**
+     * Construct a value for a string which is declared or known to be
+     * of the given column type.
+     */
+    public static Value asValue(String string, ColumnType type) {
+        if (string == null || string.isEmpty()) {
+            return new ValueNull();
+        }
+        switch (type) {
+        case STRING:
+            return new ValueString(string);
+            
+        case NUMBER:
+            int kind = LexicalScanner.classifyNumber(string);
+            return kind == LexicalScanner.NOT_TYPED ? new ValueString(string) : new ValueNumber(string, kind);
+            
+        case DATE:
+            kind = LexicalScanner.classifyDate(string);
+            return kind == LexicalScanner.NOT_TYPED ? new ValueString(string) : new ValueDate(string, kind);
+            
+        default:
+            return asValue(string);
+        }
+    }
 }
@@ -70,9 +70,12 @@ public class ValueNode extends ValueBase<Node> implements Value{
         if (wnode == null) {
             ConverterProcess proc = ConverterProcess.get();
             Model model = proc.getModel();
-            model.setNsPrefixes( proc.getDataContext().getPrefixes() );
-            ModelWrapper wmodel = new ModelWrapper(model);
-            wnode = wmodel.getNode( model.asRDFNode((Node)value) );
+            // Workers of a parallel conversion may share the model
+            synchronized (model) {
+                model.setNsPrefixes( proc.getDataContext().getPrefixes() );
+                ModelWrapper wmodel = new ModelWrapper(model);
+                wnode = wmodel.getNode( model.asRDFNode((Node)value) );
+            }
         }
         return wnode;
     }
@@ -31,29 +31,27 @@ public class ValueNumber extends ValueBase<Number> implements Value {
     }
 
     public ValueNumber(String value) {
-        super(stringToNumber(value));
+        this(value, LexicalScanner.classifyNumber(value));
+    }
+    
+    /**
+     * Construct from a string which has already been classified
+     * by {@link LexicalScanner#classifyNumber(String)}
+     */
+    public ValueNumber(String value, int kind) {
+        super(LexicalScanner.toNumber(value, kind));
         lexical = value;
     }
     
     public static Number stringToNumber(String string) {
         if (string != null) {
-            if (INTEGER_PATTERN.matcher(string).matches()) {
-                try {
-                    return Long.valueOf(string);
-                } catch (NumberFormatException e) {
-                    return new BigInteger(string);
-                }
-            } else if (FLOAT_PATTERN.matcher(string).matches()) {
-                return Double.valueOf(string);
-            } else if (DECIMAL_PATTERN.matcher(string).matches()) {
-                return new BigDecimal(string);
-            }
+            return LexicalScanner.toNumber(string, LexicalScanner.classifyNumber(string));
         }
         return null;
     }
 
     public static boolean isNumber(String value) {
-        return NUMBER_PATTERN.matcher(value).matches();
+        return LexicalScanner.classifyNumber(value) != LexicalScanner.NOT_TYPED;
     }
     
     public Value asNumber() {
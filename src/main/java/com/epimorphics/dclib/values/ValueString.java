@@ -25,7 +25,7 @@ public class ValueString extends ValueBase<String> implements Value {
     }
 
     public ValueArray split(String pattern) {
-        return new ValueArray( value.split(pattern) );
+        return new ValueArray( RegexCache.compile(pattern).split(value) );
     }
     
     @Override
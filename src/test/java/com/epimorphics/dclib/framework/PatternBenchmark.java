@@ -0,0 +1,74 @@
+/******************************************************************
+ * File:        PatternBenchmark.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import com.epimorphics.dclib.values.ValueFactory;
+
+/**
+ * Rough timing comparison of pattern evaluation using compiled expressions
+ * against interpreting them with JEXL. The patterns are the common forms from
+ * the templates in test/. Not run as part of the tests.
+ */
+public class PatternBenchmark {
+    static final String[] PATTERNS = new String[] {
+        "<{$base}{notation}>", "{notation.toString()}", "{label.toSegment()}", "{notation.asString()}",
+        "{code.toString()}", "{label}@en", "{region.toLowerCase().replaceAll(' ', '_')}",
+        "{telemetry_id.replaceAll(' ', '_').replaceAll('/', '_')}", "{notation == null ? code : notation}",
+        "{date.asDate('dd/MM/yyyy HH:mm:ss', 'xsd:date')}", "{lang('£'+value, 'en')}",
+    };
+    static final int ROUNDS = 200000;
+
+    public static void main(String[] args) {
+        DataContext dc = new DataContext();
+        ConverterProcess proc = new ConverterProcess(dc, null);
+        BindingEnv env = new BindingEnv();
+        env.set("$base", "http://example.com/");
+        env.set("notation", ValueFactory.asValue("A12"));
+        env.set("code", ValueFactory.asValue("1234"));
+        env.set("label", ValueFactory.asValue("Some label text"));
+        env.set("region", ValueFactory.asValue("North East"));
+        env.set("telemetry_id", ValueFactory.asValue("E 123/45"));
+        env.set("date", ValueFactory.asValue("03/10/2014 10:50:23"));
+        env.set("value", ValueFactory.asValue("12.50"));
+
+        Pattern[] compiled = patterns(dc, true);
+        Pattern[] interpreted = patterns(dc, false);
+        for (int warm = 0; warm < 3; warm++) {
+            long jexl = time(proc, interpreted, env);
+            long direct = time(proc, compiled, env);
+            System.out.println(String.format("jexl %d ms, compiled %d ms", jexl, direct));
+        }
+    }
+
+    private static Pattern[] patterns(DataContext dc, boolean compile) {
+        ExpressionCompiler.setEnabled(compile);
+        try {
+            Pattern[] patterns = new Pattern[PATTERNS.length];
+            for (int i = 0; i < PATTERNS.length; i++) {
+                patterns[i] = new Pattern(PATTERNS[i], dc);
+            }
+            return patterns;
+        } finally {
+            ExpressionCompiler.setEnabled(true);
+        }
+    }
+
+    private static long time(ConverterProcess proc, Pattern[] patterns, BindingEnv env) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (Pattern pattern : patterns) {
+                if (proc.evaluate(pattern, env, r) != null) count++;
+            }
+        }
+        if (count < 0) System.out.println(count);
+        return System.currentTimeMillis() - start;
+    }
+}
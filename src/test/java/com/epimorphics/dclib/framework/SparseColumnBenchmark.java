@@ -0,0 +1,94 @@
+/******************************************************************
+ * File:        SparseColumnBenchmark.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import com.epimorphics.dclib.values.ValueFactory;
+
+/**
+ * Rough timing of property patterns over rows where most optional columns
+ * are empty. Compares signalling the missing values with exceptions which
+ * capture a stack trace (as NullResult used to), with the stackless NullResult
+ * and with the NoResult sentinel. Not run as part of the tests.
+ */
+public class SparseColumnBenchmark {
+    static final String[] PATTERNS = new String[] {
+        "{label}", "{description}", "{note}", "{altLabel}@en", "{code.toString()}",
+        "{broader.toSegment()}", "<{$base}{related}>", "{comment.toLowerCase()}",
+    };
+    static final int ROUNDS = 500000;
+
+    enum Mode { STACK_TRACE, STACKLESS, SENTINEL };
+
+    @SuppressWarnings("serial")
+    static class OldNullResult extends RuntimeException {
+    }
+
+    public static void main(String[] args) {
+        DataContext dc = new DataContext();
+        ConverterProcess proc = new ConverterProcess(dc, null);
+        BindingEnv env = new BindingEnv();
+        env.set("$base", "http://example.com/");
+        env.set("label", ValueFactory.asValue("A label"));
+        env.set("code", ValueFactory.asValue("A12"));
+        for (String empty : new String[]{"description", "note", "altLabel", "broader", "related", "comment"}) {
+            env.set(empty, ValueFactory.asValue(""));
+        }
+
+        Pattern[] patterns = new Pattern[PATTERNS.length];
+        for (int i = 0; i < PATTERNS.length; i++) {
+            patterns[i] = new Pattern(PATTERNS[i], dc);
+        }
+        for (int warm = 0; warm < 3; warm++) {
+            StringBuilder report = new StringBuilder();
+            for (Mode mode : Mode.values()) {
+                report.append(String.format("%s %d ms  ", mode, time(mode, proc, patterns, env)));
+            }
+            System.out.println(report);
+        }
+    }
+
+    private static long time(Mode mode, ConverterProcess proc, Pattern[] patterns, BindingEnv env) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (Pattern pattern : patterns) {
+                switch (mode) {
+                case STACK_TRACE:
+                    try {
+                        if (pattern.tryEvaluate(env, proc, r) instanceof NoResult) {
+                            throw new OldNullResult();
+                        }
+                        count++;
+                    } catch (OldNullResult e) {
+                        // skip
+                    }
+                    break;
+
+                case STACKLESS:
+                    try {
+                        pattern.evaluate(env, proc, r);
+                        count++;
+                    } catch (NullResult e) {
+                        // skip
+                    }
+                    break;
+
+                case SENTINEL:
+                    if ( !(pattern.tryEvaluate(env, proc, r) instanceof NoResult) ) {
+                        count++;
+                    }
+                    break;
+                }
+            }
+        }
+        if (count < 0) System.out.println(count);
+        return System.currentTimeMillis() - start;
+    }
+}
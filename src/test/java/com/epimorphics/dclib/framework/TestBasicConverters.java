@@ -15,21 +15,33 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
+import com.epimorphics.dclib.templates.TemplateFactory;
+import com.epimorphics.dclib.values.ColumnType;
 import com.epimorphics.rdfutil.RDFUtil;
+import com.epimorphics.tasks.ProgressMessage;
 import com.epimorphics.tasks.SimpleProgressMonitor;
 import com.epimorphics.util.NameUtils;
 import com.epimorphics.vocabs.SKOS;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.util.FileManager;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.jena.vocabulary.RDF;
@@ -237,6 +249,7 @@ public class TestBasicConverters {
     @Test
     public void testGuards() throws IOException {
         checkAgainstExpected("test/composite/guardTest.yaml", "test/composite/guardTest.csv", "test/composite/guardTest.ttl");
+        checkAgainstExpected("test/composite/dispatchTest.yaml", "test/composite/dispatchTest.csv", "test/composite/dispatchTest.ttl");
     }
     
     private RDFNode getRDFValue(Model model, Resource r, int i) {
@@ -295,6 +308,339 @@ public class TestBasicConverters {
         }
     }
 
+    @Test
+    public void testParallelConversion() throws IOException {
+        checkParallelAgainstExpected("test/simple-skos-template.json", "test/test-map.csv", false, "test/test-map-result.ttl");
+        checkParallelAgainstExpected("test/top.json", "test/test-map.csv", true, "test/top.ttl");
+        checkParallelAgainstExpected("test/mapping/dept-type.json", "test/mapping/dept-type-data.csv", false, "test/mapping/dept-type-result.ttl");
+        // Hierarchies fall back to sequential processing
+        checkParallelAgainstExpected("test/hierarchy/hierarchy.json", "test/hierarchy/hierarchy1.csv", false, "test/hierarchy/hierarchy-result.ttl");
+        
+        // Chunked reading, including quoted fields spanning lines
+        checkParallelAgainstExpected("test/simple-skos-template.json", "test/test-map.csv", false, 1, "test/test-map-result.ttl");
+        checkParallelAgainstExpected("test/bugCases/multi-line-test.yaml", "test/bugCases/multi-line-literal.csv", false, 1, "test/bugCases/multi-line-expected.ttl");
+        checkParallelAgainstExpected("test/mapping/dept-type.json", "test/mapping/dept-type-data.csv", true, 64, "test/mapping/dept-type-result.ttl");
+    }
+    
+    @Test
+    public void testSortedHierarchy() throws IOException {
+        checkAgainstExpected("test/hierarchy/hierarchy-sorted.json", "test/hierarchy/hierarchy1-unsorted.csv", "test/hierarchy/hierarchy-result.ttl");
+        
+        // Two pass conversion of a hierarchy in parallel
+        ConverterService service = new ConverterService();
+        service.getDataContext().registerTemplate("test/simple-skos-template.json");
+        service.put("$base", "http://example.com/");
+        DataContext dc = service.getDataContext();
+        ConverterProcess process = ConverterProcess.forFile(dc, new File("test/hierarchy/hierarchy1-unsorted.csv"));
+        process.setTemplate( TemplateFactory.templateFrom("test/hierarchy/hierarchy-sorted.json", dc) );
+        process.setMessageReporter( new SimpleProgressMonitor() );
+        process.setParallelism(3);
+        process.setParallelBatchSize(1);
+        process.setChunkSize(1);
+        process.setTwoPass(true);
+        assertTrue( process.process() );
+        assertMatchesExpected(process.getModel(), "test/hierarchy/hierarchy-result.ttl");
+        // Only rows at the upper levels change the ancestors of later rows
+        assertEquals(5, process.getHierarchyIndex().size());
+    }
+    
+    @Test
+    public void testChildColumnTypes() throws IOException {
+        // Column types declared by child templates apply, unless they conflict
+        DataContext dc = new DataContext();
+        SimpleProgressMonitor monitor = new SimpleProgressMonitor();
+        ConverterProcess process = ConverterProcess.forFile(dc, new File("test/composite/dispatchTest.csv"));
+        process.setTemplate( TemplateFactory.templateFrom("test/composite/columnTypesTest.yaml", dc) );
+        process.setMessageReporter(monitor);
+        assertTrue( process.process() );
+        assertEquals(ColumnType.STRING, process.columns.getType( process.columns.slotOf("id") ));
+        assertEquals(ColumnType.AUTO, process.columns.getType( process.columns.slotOf("value") ));
+        boolean warned = false;
+        for (ProgressMessage message : monitor.getMessages()) {
+            warned |= message.getMessage().contains("conflicting types declared for column value");
+        }
+        assertTrue(warned);
+    }
+    
+    @Test
+    public void testPipelinedConversion() throws IOException {
+        checkPipelinedAgainstExpected("test/simple-skos-template.json", "test/test-map.csv", "test/test-map-result.ttl");
+        checkPipelinedAgainstExpected("test/hierarchy/hierarchy.json", "test/hierarchy/hierarchy1.csv", "test/hierarchy/hierarchy-result.ttl");
+        checkPipelinedAgainstExpected("test/bugCases/multi-line-test.yaml", "test/bugCases/multi-line-literal.csv", "test/bugCases/multi-line-expected.ttl");
+    }
+    
+    public static void checkPipelinedAgainstExpected(String templateFile, String dataFile, String resultFile) throws IOException {
+        ConverterService service = new ConverterService();
+        service.put("$base", "http://example.com/");
+        DataContext dc = service.getDataContext();
+        ConverterProcess process = ConverterProcess.forFile(dc, new File(dataFile));
+        process.setTemplate( TemplateFactory.templateFrom(templateFile, dc) );
+        process.setMessageReporter( new SimpleProgressMonitor() );
+        process.setPipelined(true);
+        process.setParallelBatchSize(1);
+        // Streamed output so that results are written on the writer thread
+        Model result = ModelFactory.createDefaultModel();
+        process.setOutputStream( StreamRDFLib.graph(result.getGraph()) );
+        assertTrue( process.process() );
+        assertMatchesExpected(result, resultFile);
+    }
+    
+    @Test
+    public void testCheckpointResume() throws IOException {
+        File dir = Files.createTempDirectory("checkpoint-test").toFile();
+        File partial = new File(dir, "partial.csv");
+        File output = new File(dir, "out.nt");
+        File checkpointFile = new File(dir, "out.nt.checkpoint");
+        try {
+            // First run only sees part of the data, as if it had died part way through
+            List<String> lines = Files.readAllLines( new File("test/hierarchy/hierarchy1.csv").toPath() );
+            Files.write( partial.toPath(), lines.subList(0, 7) );
+            OutputStream out = new FileOutputStream(output);
+            runCheckpointed(partial, out, 0, checkpointFile, null);
+            out.close();
+            
+            Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+            assertEquals(6, checkpoint.getLineNumber());
+            assertTrue( checkpoint.getOutputPosition() < output.length() );
+            assertNotNull( checkpoint.getState() );
+            
+            out = checkpoint.openOutput(output);
+            runCheckpointed(new File("test/hierarchy/hierarchy1.csv"), out, checkpoint.getOutputPosition(), checkpointFile, checkpoint);
+            out.close();
+            
+            Model result = ModelFactory.createDefaultModel();
+            result.read(new FileInputStream(output), null, "N-TRIPLES");
+            assertMatchesExpected(result, "test/hierarchy/hierarchy-result.ttl");
+        } finally {
+            partial.delete();
+            output.delete();
+            checkpointFile.delete();
+            dir.delete();
+        }
+    }
+    
+    private void runCheckpointed(File data, OutputStream out, long position, File checkpointFile, Checkpoint resume) throws IOException {
+        ConverterService service = new ConverterService();
+        service.getDataContext().registerTemplate("test/simple-skos-template.json");
+        service.put("$base", "http://example.com/");
+        DataContext dc = service.getDataContext();
+        ConverterProcess process = ConverterProcess.forFile(dc, data);
+        process.setTemplate( TemplateFactory.templateFrom("test/hierarchy/hierarchy.json", dc) );
+        process.setMessageReporter( new SimpleProgressMonitor() );
+        NTriplesStream stream = new NTriplesStream(out, position);
+        process.setOutputStream(stream);
+        process.setCheckpointing(checkpointFile, 2);
+        if (resume != null) {
+            process.setResumeFrom(resume);
+        }
+        assertTrue( process.process() );
+        stream.finish();
+    }
+    
+    @Test
+    public void testDeltaConversion() throws IOException {
+        File dir = Files.createTempDirectory("delta-test").toFile();
+        File v1 = new File(dir, "v1.csv");
+        File v2 = new File(dir, "v2.csv");
+        try {
+            Files.write(v1.toPath(), Arrays.asList("notation,label", "1,one", "2,two", "3,three"));
+            Files.write(v2.toPath(), Arrays.asList("notation,label", "1,one", "3,trois", "4,four"));
+            
+            Model added = ModelFactory.createDefaultModel();
+            Model removed = ModelFactory.createDefaultModel();
+            DeltaIndex index = runDelta(SKOS_TEMPLATE, v1, null, null, added, removed);
+            assertEquals(3, index.size());
+            assertEquals(9, added.size());
+            assertTrue( removed.isEmpty() );
+            
+            added = ModelFactory.createDefaultModel();
+            index = runDelta(SKOS_TEMPLATE, v2, index, v1, added, removed);
+            assertEquals(3, index.size());
+            Resource r2 = added.createResource("http://example.com/2");
+            Resource r3 = added.createResource("http://example.com/3");
+            Resource r4 = added.createResource("http://example.com/4");
+            assertEquals(4, added.size());
+            assertTrue( added.contains(r3, SKOS.prefLabel, "trois") );
+            assertTrue( added.contains(r4, SKOS.prefLabel, "four") );
+            assertEquals(4, removed.size());
+            assertTrue( removed.contains(r3, SKOS.prefLabel, "three") );
+            assertTrue( removed.contains(r2, SKOS.prefLabel, "two") );
+            
+            // Changed templates force a full conversion
+            added = ModelFactory.createDefaultModel();
+            removed = ModelFactory.createDefaultModel();
+            runDelta("test/delta/label-template.json", v2, index, v2, added, removed);
+            assertEquals(3, added.size());
+            assertTrue( added.contains(r4, RDFS.label, "four") );
+            assertTrue( removed.isEmpty() );
+        } finally {
+            v1.delete();
+            v2.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testDeltaSharedTriples() throws IOException {
+        File dir = Files.createTempDirectory("delta-test").toFile();
+        File v1 = new File(dir, "v1.csv");
+        File v2 = new File(dir, "v2.csv");
+        File v3 = new File(dir, "v3.csv");
+        try {
+            Files.write(v1.toPath(), Arrays.asList("notation,category", "1,a", "2,a", "3,b"));
+            Files.write(v2.toPath(), Arrays.asList("notation,category", "1,a", "3,b"));
+            Files.write(v3.toPath(), Arrays.asList("notation,category", "3,b"));
+            
+            Model added = ModelFactory.createDefaultModel();
+            Model removed = ModelFactory.createDefaultModel();
+            DeltaIndex index = runDelta(CATEGORY_TEMPLATE, v1, null, null, added, removed);
+            assertEquals(5, added.size());
+            
+            // Type of category a is still generated by row 1
+            Resource a = added.createResource("http://example.com/a");
+            index = runDelta(CATEGORY_TEMPLATE, v2, index, v1, added, removed);
+            assertEquals(1, removed.size());
+            assertTrue( removed.contains(a, SKOS.member, added.createResource("http://example.com/2")) );
+            
+            removed = ModelFactory.createDefaultModel();
+            index = runDelta(CATEGORY_TEMPLATE, v3, index, v2, added, removed);
+            assertEquals(2, removed.size());
+            assertTrue( removed.contains(a, RDF.type, SKOS.Collection) );
+        } finally {
+            v1.delete();
+            v2.delete();
+            v3.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testDeltaChangedSource() throws IOException {
+        File dir = Files.createTempDirectory("delta-test").toFile();
+        File data = new File(dir, "data.csv");
+        try {
+            Files.write(data.toPath(), Arrays.asList("notation,label", "1,one", "2,two", "3,three"));
+            Model added = ModelFactory.createDefaultModel();
+            Model removed = ModelFactory.createDefaultModel();
+            DeltaIndex index = runDelta(SKOS_TEMPLATE, data, null, null, added, removed);
+            
+            // Overwriting the previous data in place means the old rows can't be regenerated
+            Files.write(data.toPath(), Arrays.asList("notation,label", "1,one", "3,trois", "4,four"));
+            ConverterProcess process = deltaProcess(SKOS_TEMPLATE, data, index, data, added, removed);
+            assertFalse( process.process() );
+            assertTrue( removed.isEmpty() );
+        } finally {
+            data.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testDeltaDuplicateRows() throws IOException {
+        File dir = Files.createTempDirectory("delta-test").toFile();
+        File v1 = new File(dir, "v1.csv");
+        File v2 = new File(dir, "v2.csv");
+        try {
+            Files.write(v1.toPath(), Arrays.asList("notation,label", "1,one", "1,one", "2,two"));
+            Files.write(v2.toPath(), Arrays.asList("notation,label", "1,one", "2,two"));
+            Model added = ModelFactory.createDefaultModel();
+            Model removed = ModelFactory.createDefaultModel();
+            
+            // Key values must be unique
+            assertFalse( deltaProcess(SKOS_TEMPLATE, v1, null, null, added, removed).process() );
+            
+            // Identical rows matched by content are kept apart, triples go when the last copy does
+            added = ModelFactory.createDefaultModel();
+            DeltaIndex index = runDelta(SKOS_TEMPLATE, null, v1, null, null, added, removed);
+            assertEquals(3, index.size());
+            assertEquals(6, added.size());
+            index = runDelta(SKOS_TEMPLATE, null, v2, index, v1, added, removed);
+            assertEquals(2, index.size());
+            assertTrue( removed.isEmpty() );
+            index = runDelta(SKOS_TEMPLATE, null, v1, index, v2, added, removed);
+            assertEquals(3, index.size());
+            assertTrue( removed.isEmpty() );
+            runDelta(SKOS_TEMPLATE, null, v2, index, v1, added, removed);
+            assertTrue( removed.isEmpty() );
+            
+            Files.write(v2.toPath(), Arrays.asList("notation,label", "2,two"));
+            runDelta(SKOS_TEMPLATE, null, v2, index, v1, added, removed);
+            assertEquals(3, removed.size());
+            assertTrue( removed.contains(added.createResource("http://example.com/1"), SKOS.prefLabel, "one") );
+        } finally {
+            v1.delete();
+            v2.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testDeltaBlankNodes() throws IOException {
+        File dir = Files.createTempDirectory("delta-test").toFile();
+        File data = new File(dir, "data.csv");
+        try {
+            Files.write(data.toPath(), Arrays.asList("notation,label", "1,one", "2,two"));
+            Model added = ModelFactory.createDefaultModel();
+            Model removed = ModelFactory.createDefaultModel();
+            assertFalse( deltaProcess("test/delta/bnode-template.json", data, null, null, added, removed).process() );
+        } finally {
+            data.delete();
+            dir.delete();
+        }
+    }
+    
+    private static final String SKOS_TEMPLATE = "test/simple-skos-template.json";
+    private static final String CATEGORY_TEMPLATE = "test/delta/category-template.json";
+    
+    private DeltaIndex runDelta(String template, File data, DeltaIndex previous, File previousData, Model added, Model removed) throws IOException {
+        return runDelta(template, "notation", data, previous, previousData, added, removed);
+    }
+    
+    private DeltaIndex runDelta(String template, String keyColumn, File data, DeltaIndex previous, File previousData, Model added, Model removed) throws IOException {
+        ConverterProcess process = deltaProcess(template, keyColumn, data, previous, previousData, added, removed);
+        assertTrue( process.process() );
+        return process.getDeltaIndex();
+    }
+    
+    private ConverterProcess deltaProcess(String template, File data, DeltaIndex previous, File previousData, Model added, Model removed) throws IOException {
+        return deltaProcess(template, "notation", data, previous, previousData, added, removed);
+    }
+    
+    private ConverterProcess deltaProcess(String template, String keyColumn, File data, DeltaIndex previous, File previousData, Model added, Model removed) throws IOException {
+        ConverterService service = new ConverterService();
+        service.put("$base", "http://example.com/");
+        DataContext dc = service.getDataContext();
+        ConverterProcess process = ConverterProcess.forFile(dc, data);
+        process.setTemplate( TemplateFactory.templateFrom(template, dc) );
+        process.setMessageReporter( new SimpleProgressMonitor() );
+        process.setOutputStream( StreamRDFLib.graph(added.getGraph()) );
+        process.setDelta(previous, previousData, keyColumn, StreamRDFLib.graph(removed.getGraph()));
+        return process;
+    }
+    
+    public static void checkParallelAgainstExpected(String templateFile, String dataFile, boolean unordered, String resultFile) throws IOException {
+        checkParallelAgainstExpected(templateFile, dataFile, unordered, 0, resultFile);
+    }
+    
+    public static void checkParallelAgainstExpected(String templateFile, String dataFile, boolean unordered, long chunkSize, String resultFile) throws IOException {
+        ConverterService service = new ConverterService();
+        service.getDataContext().registerTemplate("test/simple-skos-template.json");
+        service.put("$base", "http://example.com/");
+        DataContext dc = service.getDataContext();
+        ConverterProcess process = new ConverterProcess(dc, new FileInputStream(dataFile));
+        process.setTemplate( TemplateFactory.templateFrom(templateFile, dc) );
+        process.setMessageReporter( new SimpleProgressMonitor() );
+        process.setParallelism(3);
+        process.setParallelBatchSize(1);
+        process.setUnordered(unordered);
+        if (chunkSize > 0) {
+            process.setSourceFile( new File(dataFile) );
+            process.setChunkSize(chunkSize);
+        }
+        assertTrue( process.process() );
+        assertMatchesExpected(process.getModel(), resultFile);
+    }
+
     public static Model convert(String templateFile, String dataFile) throws IOException {
         return convert(templateFile, dataFile, null);
     }
@@ -332,6 +678,10 @@ public class TestBasicConverters {
     public static void checkAgainstExpected(String templateFile, String dataFile, String loadDirs, String resultFile) throws IOException {
         Model m = convert(templateFile, dataFile, loadDirs);
         assertNotNull(m);
+        assertMatchesExpected(m, resultFile);
+    }
+    
+    public static void assertMatchesExpected(Model m, String resultFile) {
         String DUMMY = "http://example.com/DONOTUSE/";
         Model expected = FileManager.get().loadModel(resultFile, DUMMY, "Turtle");
         expected = RDFUtil.mapNamespace(expected, DUMMY, "");
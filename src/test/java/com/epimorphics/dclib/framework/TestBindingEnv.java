@@ -10,9 +10,23 @@
 package com.epimorphics.dclib.framework;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.sources.CSVTokenizer;
+import com.epimorphics.dclib.values.ValueNull;
+import com.epimorphics.dclib.values.ValueNumber;
+
 public class TestBindingEnv {
     
     @Test
@@ -29,6 +43,81 @@ public class TestBindingEnv {
         assertEquals("bar",   child.get("key2"));
         assertEquals("foo",   parent.get("key1"));
     }
+    
+    @Test
+    public void testRowEnv() {
+        BindingEnv parent = new BindingEnv();
+        parent.put("global", "g");
+        parent.put("b", "fromParent");
+        
+        ColumnIndex columns = new ColumnIndex(new String[]{"a", "b", "a"}, "$row");
+        RowBindingEnv row = new RowBindingEnv(columns, parent);
+        row.setSlot(0, "first");
+        row.setSlot(2, "second");
+        assertEquals("second", row.get("a"));
+        assertEquals("fromParent", row.get("b"));
+        assertEquals("g", row.get("global"));
+        
+        row.put("b", "local");
+        row.put("$row", "r");
+        row.put("other", "o");
+        assertEquals("local", row.get("b"));
+        assertEquals("r", row.getSlot(3));
+        assertEquals("o", row.get("other"));
+        assertTrue( row.has("other") );
+        
+        Set<String> keys = row.keySet();
+        assertEquals(4, keys.size());
+        assertTrue( keys.contains("a") && keys.contains("b") && keys.contains("$row") && keys.contains("other") );
+        
+        BindingEnv child = row.extend();
+        child.put("a", "child");
+        child.put("extra", "x");
+        assertEquals("child", child.get("a"));
+        assertEquals("local", child.get("b"));
+        assertEquals("o", child.get("other"));
+        assertEquals("g", child.get("global"));
+        assertEquals("second", row.get("a"));
+        assertNull( row.get("extra") );
+        
+        row.remove("b");
+        assertEquals("fromParent", row.get("b"));
+        assertFalse( row.containsKey("b") );
+    }
+    
+    @Test
+    public void testLazyRow() throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer( new ByteArrayInputStream(" 42 ,\" text \",,extra\n".getBytes(StandardCharsets.UTF_8)) );
+        assertTrue( tokenizer.next() );
+        CSVRecord record = tokenizer.snapshot();
+        assertFalse( tokenizer.next() );
+        tokenizer.close();
+        
+        ColumnIndex columns = new ColumnIndex(new String[]{"num", "str", "empty"});
+        RowBindingEnv row = new RowBindingEnv(columns, null);
+        row.setRecord(record, 3);
+        
+        BindingEnv child = row.extend();
+        Object num = child.get("num");
+        assertTrue( num instanceof ValueNumber );
+        assertEquals(42, ((ValueNumber)num).toNumber().intValue());
+        assertSame( num, row.get("num") );
+        assertEquals("text", row.get("str").toString());
+        assertNull( row.get("empty") );
+        assertTrue( row.getSlot(2) instanceof ValueNull );
+        assertEquals(3, row.size());
+        
+        // Replacing unread fields does not decode them
+        RowBindingEnv other = new RowBindingEnv(columns, null);
+        other.setRecord(record, 3);
+        assertNull( other.put("str", "replaced") );
+        assertNull( other.remove("empty") );
+        assertNull( other.cells[1] );
+        assertNull( other.cells[2] );
+        assertEquals("replaced", other.get("str"));
+        assertFalse( other.containsKey("empty") );
+        assertEquals("replaced", other.remove("str"));
+    }
  
 
 }
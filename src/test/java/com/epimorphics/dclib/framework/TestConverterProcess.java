@@ -10,6 +10,8 @@
 package com.epimorphics.dclib.framework;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileInputStream;
@@ -23,6 +25,8 @@ import com.epimorphics.dclib.values.ValueNumber;
 import com.epimorphics.tasks.ProgressMessage;
 import com.epimorphics.tasks.ProgressMonitor;
 import com.epimorphics.tasks.SimpleProgressMonitor;
+import com.epimorphics.tasks.TaskState;
+import com.epimorphics.util.EpiException;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
@@ -30,6 +34,7 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.system.StreamRDFBase;
 
 public class TestConverterProcess {
     final static String BASE = "http://example.com/";
@@ -61,10 +66,57 @@ public class TestConverterProcess {
         assertTrue( message.getMessage().contains("Value exceeds test threshold") );
     }
     
+    @Test
+    public void testPipelineFailures() throws IOException {
+        // A template failing part way through is reported against the row, other rows are still converted
+        SimpleProgressMonitor monitor = new SimpleProgressMonitor();
+        ConverterProcess process = setUp("test/test-fail.csv", new TestTemplate(true));
+        process.setMessageReporter(monitor);
+        process.setPipelined(true);
+        process.setParallelBatchSize(1);
+        assertFalse( process.process() );
+        assertTrue( contains(process, "2", "b", "20") );
+        assertTrue( contains(process, "4", "d", "10") );
+        assertEquals(TaskState.Terminated, monitor.getState());
+        ProgressMessage message = findMessage(monitor, "Value exceeds test threshold");
+        assertNotNull(message);
+        assertEquals(3, message.getLineNumber());
+        
+        // A failure of the writer stage fails the whole conversion
+        monitor = new SimpleProgressMonitor();
+        process = setUp("test/test-ok.csv", new TestTemplate());
+        process.setMessageReporter(monitor);
+        process.setPipelined(true);
+        process.setParallelBatchSize(1);
+        process.setOutputStream( new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                throw new EpiException("Output failed");
+            }
+        });
+        assertFalse( process.process() );
+        assertFalse( monitor.succeeded() );
+        assertEquals(TaskState.Terminated, monitor.getState());
+        assertNotNull( findMessage(monitor, "Output failed") );
+    }
+    
+    private ProgressMessage findMessage(ProgressMonitor monitor, String text) {
+        for (ProgressMessage message : monitor.getMessages()) {
+            if (message.getMessage().contains(text)) {
+                return message;
+            }
+        }
+        return null;
+    }
+    
     private ConverterProcess setUp(String file) throws IOException {
+        return setUp(file, new TestTemplate());
+    }
+    
+    private ConverterProcess setUp(String file, Template template) throws IOException {
         InputStream is = new FileInputStream(file);
         ConverterProcess process = new ConverterProcess(new DataContext(), is);
-        process.setTemplate( new TestTemplate() );
+        process.setTemplate(template);
         return process;
     }
     
@@ -92,6 +144,15 @@ public class TestConverterProcess {
     // Dummy template to test the calling harness
     // Will raise error if the value column is a number above 20
     public static final class TestTemplate implements Template {
+        protected final boolean fatal;   // Raise a hard error rather than a null result
+        
+        public TestTemplate() {
+            this(false);
+        }
+        
+        public TestTemplate(boolean fatal) {
+            this.fatal = fatal;
+        }
         
         @Override
         public boolean isApplicableTo(String[] columnNames) {
@@ -106,6 +167,9 @@ public class TestConverterProcess {
                 Object value = row.get(key);
                 if (value instanceof ValueNumber) {
                     if ( ((ValueNumber)value).toNumber().intValue() > 20) {
+                        if (fatal) {
+                            throw new EpiException("Value exceeds test threshold of 20");
+                        }
                         throw new NullResult("Value exceeds test threshold of 20");
                     }
                 }
@@ -10,12 +10,17 @@
 package com.epimorphics.dclib.framework;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.jena.atlas.json.JsonObject;
 import org.junit.Test;
 
 import com.epimorphics.dclib.templates.TemplateBase;
+import com.epimorphics.dclib.templates.TemplateRef;
 
 public class TestDataContext {
 
@@ -41,6 +46,95 @@ public class TestDataContext {
         assertNotNull( child.getTemplate("t1") );
     }
     
+    @Test
+    public void testRegistryUpdates() {
+        DataContext base = new DataContext();
+        DataContext child = new DataContext( base );
+        assertNull( child.getTemplate("t1") );
+        
+        // Updates to the parent are seen by an existing child
+        Template t1 = new TestTemplate("t1");
+        base.registerTemplate(t1);
+        assertSame(t1, child.getTemplate("t1"));
+        
+        // Child entries hide the parent's
+        Template t1b = new TestTemplate("t1");
+        child.registerTemplate(t1b);
+        assertSame(t1b, child.getTemplate("t1"));
+        assertSame(t1, base.getTemplate("t1"));
+        assertEquals(1, child.listTemplates().size());
+        
+        child.removeTemplate("t1");
+        assertSame(t1, child.getTemplate("t1"));
+        base.removeTemplate("t1");
+        assertNull( child.getTemplate("t1") );
+        assertEquals(0, child.listTemplates().size());
+    }
+    
+    @Test
+    public void testPrefixExpansion() {
+        DataContext base = new DataContext();
+        base.setPrefix("ex", "http://example.com/");
+        base.setPrefix("", "http://example.com/default/");
+        DataContext child = new DataContext( base );
+        
+        assertEquals("http://example.com/foo", child.expandURI("ex:foo"));
+        assertEquals("http://example.com/default/foo", child.expandURI(":foo"));
+        assertEquals("unknown:foo", child.expandURI("unknown:foo"));
+        assertEquals("nocolon", child.expandURI("nocolon"));
+        assertEquals("http://example.com/", base.expandURI("ex:"));
+        assertSame(base.getPrefixExpander(), child.getPrefixExpander());
+        
+        // Changes in either context invalidate the shared snapshot
+        child.setPrefix("eg", "http://example.org/");
+        assertEquals("http://example.org/bar", base.expandURI("eg:bar"));
+        base.getPrefixes().setNsPrefix("skos", "http://www.w3.org/2004/02/skos/core#");
+        base.prefixesChanged();
+        assertEquals("http://www.w3.org/2004/02/skos/core#Concept", child.expandURI("skos:Concept"));
+        assertEquals(base.getPrefixes().expandPrefix("eg:x"), child.expandURI("eg:x"));
+    }
+    
+    @Test
+    public void testExecutionPlan() {
+        DataContext dc = new DataContext();
+        Template t1 = new TestTemplate("t1");
+        dc.registerTemplate(t1);
+        TemplateRef ref = new TemplateRef("t1", dc);
+        TemplateRef missing = new TemplateRef("unknown", dc);
+        
+        ExecutionPlan plan = ExecutionPlan.resolve(ref);
+        assertSame(t1, plan.getRoot());
+        assertEquals(1, plan.getTemplates().size());
+        assertTrue( ExecutionPlan.resolve(missing).getUnresolved().contains("unknown") );
+        
+        // Reloaded templates only take effect in plans built after the reload
+        Template t1b = new TestTemplate("t1");
+        dc.registerTemplate(t1b);
+        assertSame(t1, plan.getBinding(ref));
+        ExecutionPlan reloaded = ExecutionPlan.resolve(ref);
+        assertSame(t1b, reloaded.getRoot());
+        assertSame(t1b, reloaded.getBinding(ref));
+        assertSame(t1, plan.getBinding(ref));
+        
+        // Outside of a conversion references are looked up on each use
+        assertSame(t1b, ref.deref());
+        
+        // Header shape is resolved once per plan
+        TestTemplate t2 = new TestTemplate("t2");
+        t2.setRequiredColumnNames(new String[]{"id"});
+        t2.setRequired(new String[]{"label", "id"});
+        ExecutionPlan plan2 = ExecutionPlan.resolve(t2);
+        String[] headers = new String[]{"id", "value"};
+        ColumnIndex columns = new ColumnIndex(headers);
+        plan2.bindHeaders(headers, columns);
+        assertTrue( plan2.isApplicableTo(t2, headers) );
+        assertFalse( plan2.isApplicableTo(t2, new String[]{"value"}) );
+        int[] slots = plan2.getRequiredSlots(t2, columns);
+        assertEquals(-1, slots[0]);
+        assertEquals(0, slots[1]);
+        assertNull( plan2.getRequiredSlots(t2, new ColumnIndex(headers)) );
+    }
+    
     static public class TestTemplate extends TemplateBase implements Template {
 
         public TestTemplate(String name) {
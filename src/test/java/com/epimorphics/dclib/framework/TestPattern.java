@@ -9,15 +9,23 @@
 
 package com.epimorphics.dclib.framework;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.epimorphics.dclib.values.Value;
 import com.epimorphics.dclib.values.ValueArray;
+import com.epimorphics.dclib.values.ValueDate;
 import com.epimorphics.dclib.values.ValueFactory;
 import com.epimorphics.dclib.values.ValueNumber;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
@@ -168,6 +176,9 @@ public class TestPattern {
         assertEquals("a_string", eval("{A.asString().toSegment() \n\r .toLowerCase()}").toString());
         assertEquals("fzz bar", eval("{b.replaceAll('o','z')}").toString());
         assertEquals("zzz bar", eval("{b.replaceAll('[fo]','z')}").toString());
+        assertEquals("oo", eval("{b.regex('f(o+) .*')}").toString());
+        assertEquals("yes", eval("{b.matches('fo+ bar') ? 'yes' : 'no'}").toString());
+        assertEquals("no", eval("{b.matches('fo+') ? 'yes' : 'no'}").toString());
         assertEquals("yes", eval("{a == a2 ? 'yes' : 'no'}").toString());
         assertEquals("g-a", eval("{p.toCleanSegment()}").toString());
         assertEquals("foos-bar-baz", eval("{q.toCleanSegment()}").toString());
@@ -214,9 +225,13 @@ public class TestPattern {
     @Test
     public void testFormatting() {
        assertEquals("00042", eval("{i.format('%05d')}").toString());
+       assertEquals("id-   42.", eval("{i.format('id-%5d.')}").toString());
+       assertEquals("code 42", eval("{i.format('code %s')}").toString());
+       assertEquals("42.00", eval("{value(42.0).format('%.2f')}").toString());
        
        assertEquals("2014 10 03", eval("{date.asDate('yyyy-MM-dd','xsd:date').format('yyyy MM dd')}").toString());
        assertEquals("2014 10 03", eval("{date.asDate('yyyy-MM-dd','xsd:dateTime').format('yyyy MM dd')}").toString());
+       assertEquals("2014 10 03", eval("{date.asDate('dd/MM/yyyy|bad pattern q|yyyy-MM-dd','xsd:date').format('yyyy MM dd')}").toString());
        
        assertEquals("10 50 23", eval("{time.asDate('HH:mm:ss','xsd:time').format('HH mm ss')}").toString());
     }
@@ -240,6 +255,164 @@ public class TestPattern {
     	assertEquals("0zoy9-RKtM9Kyjjq4soFlk6feb8",             eval("{str.digest('sha-1',true)}").toString());
     }
     
+    @Test
+    public void testCompiledExpressions() {
+        String[] patterns = new String[] {
+                "{a}", "{missing}", "{a.toUpperCase()}", "x-{b.toSegment()}-y", "{i.format('%05d')}",
+                "{str.digest(true)}", "{i == 42 ? 'yes' : 'no'}", "{t.asBoolean() ? a : b}", "{missing ?: b}",
+                "{a + '-' + b}", "{a != a2}", "{missing.toUpperCase() ?: 'none'}", "{value('foo').toUpperCase()}",
+                "{(i)}", "{a.noSuchMethod()}", "{a.lang(\"en\")}", "{i + 1}"
+        };
+        for (String pattern : patterns) {
+            Pattern compiled = new Pattern(pattern, dc);
+            ExpressionCompiler.setEnabled(false);
+            try {
+                Pattern interpreted = new Pattern(pattern, dc);
+                assertEquals(pattern, evalOrNull(interpreted), evalOrNull(compiled));
+            } finally {
+                ExpressionCompiler.setEnabled(true);
+            }
+        }
+        assertTrue( new Pattern("{a.toUpperCase()}", dc).components.get(0) instanceof CompiledExpression );
+        assertFalse( new Pattern("{a.toUpperCase() =~ 'A.*'}", dc).components.get(0) instanceof CompiledExpression );
+    }
+    
+    @Test
+    public void testPatternVariables() {
+        Pattern p = new Pattern("<{$base}{a.toUpperCase()}-{b}>", dc);
+        assertEquals(new HashSet<>(Arrays.asList("$base", "a", "b")), p.getVariables());
+        // b comes after a component which might report an error so isn't required
+        assertArrayEquals(new String[]{"$base", "a"}, p.getRequiredVariables());
+        
+        p = new Pattern("{b}-{a.toUpperCase()}", dc);
+        assertArrayEquals(new String[]{"b", "a"}, p.getRequiredVariables());
+        assertEquals(0, new Pattern("{missing ?: b}", dc).getRequiredVariables().length);
+        assertArrayEquals(new String[]{"b"}, new Pattern("{t ? b : b.trim()}", dc).getRequiredVariables());
+        assertEquals(0, new Pattern("<rdf:type>", dc).getRequiredVariables().length);
+        
+        assertFalse( new Pattern("{a}-{b}", dc).isMissingInputs(env) );
+        assertTrue( new Pattern("{a}-{missing}", dc).isMissingInputs(env) );
+        env.set("empty", ValueFactory.asValue(""));
+        assertTrue( new Pattern("{empty.toUpperCase()}", dc).isMissingInputs(env) );
+    }
+    
+    @Test
+    public void testMissingResults() {
+        Pattern p = new Pattern("{a}-{missing}", dc);
+        assertSame(NoResult.MISSING, p.tryEvaluate(env, proc, 0));
+        try {
+            p.evaluate(env, proc, 0);
+            fail("Expected NullResult");
+        } catch (NullResult e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+        assertEquals("a string-foo bar", new Pattern("{a}-{b}", dc).tryEvaluate(env, proc, 0).toString());
+    }
+    
+    @Test
+    public void testConstantPatterns() {
+        Pattern p = new Pattern("<rdf:type>", dc);
+        Node type = p.evaluateAsNode(env, proc, 0);
+        assertEquals(RDF.type.asNode(), type);
+        assertSame(type, p.evaluateAsNode(env, proc, 1));
+        assertSame(type, new Pattern("<rdf:type>", dc).evaluateAsNode(env, proc, 0));
+        assertSame(type, NodePool.createURI(RDF.type.getURI()));
+        
+        // Each evaluation gets its own value, since values may cache state for a process
+        Object value = p.evaluate(env, proc, 0);
+        assertNotSame(value, p.evaluate(env, proc, 1));
+        assertSame(type, ((Value)value).asNode());
+        
+        p = new Pattern("foo@en", dc);
+        assertSame(p.evaluate(env, proc, 0), p.evaluate(env, proc, 1));
+        assertEquals(NodeFactory.createLiteral("foo", "en", false), p.evaluateAsNode(env, proc, 0));
+        
+        // Unknown prefix is left for the processing context
+        p = new Pattern("<unknown:foo>", dc);
+        dc.setPrefix("unknown", "http://example.com/unknown#");
+        assertEquals("http://example.com/unknown#foo", proc.evaluateAsNode(p, env, 0).getURI());
+    }
+    
+    @Test
+    public void testMemoization() {
+        proc.setMemoize(true);
+        Pattern p = new Pattern("{b.toUpperCase()}-{i}", dc);
+        assertTrue( p.isPure() );
+        Object first = proc.evaluate(p, env, 0);
+        assertEquals("FOO BAR-42", first.toString());
+        assertSame(first, proc.evaluate(p, env, 1));
+        assertEquals(1, proc.getMemo(p).getHits());
+        assertEquals(1, proc.getMemo(p).getMisses());
+        
+        env.set("i", ValueFactory.asValue("43"));
+        assertEquals("FOO BAR-43", proc.evaluate(p, env, 2).toString());
+        env.set("i", ValueFactory.asValue("42"));
+        assertEquals("FOO BAR-42", proc.evaluate(p, env, 3).toString());
+        assertEquals(2, proc.getMemo(p).getHits());
+        
+        assertFalse( new Pattern("{b}", dc).isPure() );
+        assertFalse( new Pattern("{date.asDate('xsd:date').referenceTime()}", dc).isPure() );
+        assertFalse( new Pattern("{a.fetch()}", dc).isPure() );
+        assertTrue( new Pattern("<http://example.com/{a.toSegment()}>", dc).isPure() );
+        
+        // A new process starts with a fresh memo
+        ConverterProcess proc2 = new ConverterProcess(dc, null);
+        proc2.setMemoize(true);
+        proc2.evaluate(p, env, 0);
+        assertEquals(0, proc2.getMemo(p).getHits());
+        assertEquals(2, proc.getMemo(p).getHits());
+        
+        // Equal values with different lexical forms are memoized separately
+        p = new Pattern("<http://example.com/{i.toSegment()}>", dc);
+        env.set("i", ValueFactory.asValue("01"));
+        assertEquals("http://example.com/01", proc.evaluateAsNode(p, env, 4).getURI());
+        env.set("i", ValueFactory.asValue("1"));
+        assertEquals("http://example.com/1", proc.evaluateAsNode(p, env, 5).getURI());
+        env.set("i", ValueFactory.asValue("01"));
+        assertEquals("http://example.com/01", proc.evaluateAsNode(p, env, 6).getURI());
+        assertEquals(1, proc.getMemo(p).getHits());
+        
+        // Dates are never shared between rows since they carry their reftime state
+        p = new Pattern("{d.asDate('xsd:date')}", dc);
+        assertTrue( p.isPure() );
+        env.set("d", ValueFactory.asValue("2014-01-05"));
+        Object date = proc.evaluate(p, env, 7);
+        assertTrue( date instanceof ValueDate );
+        assertNotSame(date, proc.evaluate(p, env, 8));
+        assertEquals(0, proc.getMemo(p).getHits());
+    }
+    
+    @Test
+    public void testSharedSubexpressions() {
+        Pattern p1 = new Pattern("{b.toUpperCase()}", dc);
+        Pattern p2 = new Pattern("{b.toUpperCase() + '-' + i}", dc);
+        Pattern p3 = new Pattern("<http://example.com/{ b.toUpperCase().toSegment() }>", dc);
+        assertEquals(1, dc.getSharedExpressions().getSharedCount());
+        
+        Object first = proc.evaluate(p1, env, 0);
+        assertEquals("FOO BAR", first.toString());
+        assertSame(first, proc.evaluate(p1, env, 0));
+        assertEquals("FOO BAR-42", proc.evaluate(p2, env, 0).toString());
+        assertEquals("http://example.com/FOO_BAR", proc.evaluateAsNode(p3, env, 0).getURI());
+        
+        // New values, or a new row, are evaluated afresh
+        env.set("b", ValueFactory.asValue("baz"));
+        assertEquals("BAZ", proc.evaluate(p1, env, 1).toString());
+        BindingEnv row = new BindingEnv();
+        row.set("b", env.get("b"));
+        Object next = proc.evaluate(p1, row, 2);
+        assertEquals("BAZ", next.toString());
+        assertNotSame(next, proc.evaluate(p1, env, 1));
+    }
+    
+    private String evalOrNull(Pattern pattern) {
+        try {
+            return proc.evaluate(pattern, env, 0).toString();
+        } catch (NullResult e) {
+            return null;
+        }
+    }
+    
     private Node evalNode(String pattern) {
         return proc.evaluateAsNode(new Pattern(pattern, dc), env, 0);
     }
@@ -0,0 +1,89 @@
+/******************************************************************
+ * File:        TestValueInterner.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.epimorphics.dclib.sources.CSVRecord;
+import com.epimorphics.dclib.values.ColumnType;
+import com.epimorphics.dclib.values.Value;
+import com.epimorphics.dclib.values.ValueNumber;
+import com.epimorphics.dclib.values.ValueString;
+
+public class TestValueInterner {
+
+    @Test
+    public void testCategoricalColumn() {
+        ValueInterner interner = new ValueInterner(ColumnType.AUTO);
+        Value first = interner.lookup(record(" cat "), 0);
+        assertEquals("cat", first.toString());
+        for (int i = 0; i < 3 * ValueInterner.WINDOW; i++) {
+            assertSame(first, interner.lookup(record("cat"), 0));
+            interner.lookup(record("dog"), 0);
+        }
+        assertTrue( interner.isEnabled() );
+        assertEquals(2, interner.size());
+
+        Value n = interner.lookup(record("42"), 0);
+        assertTrue( n instanceof ValueNumber );
+        assertSame(n, interner.lookup(record("42"), 0));
+    }
+
+    @Test
+    public void testHighCardinalityColumn() {
+        ValueInterner interner = new ValueInterner(ColumnType.AUTO);
+        for (int i = 0; i < 2 * ValueInterner.WINDOW; i++) {
+            assertEquals("id" + i, interner.lookup(record("id" + i), 0).toString());
+        }
+        assertFalse( interner.isEnabled() );
+        assertNotSame(interner.lookup(record("id1"), 0), interner.lookup(record("id1"), 0));
+    }
+
+    @Test
+    public void testColumnTypes() {
+        ColumnIndex columns = new ColumnIndex(new String[]{"code"});
+        CSVRecord rec = record("0123");
+        Value auto = columns.asValue(0, rec);
+        assertTrue( auto instanceof ValueNumber );
+        assertSame(auto, columns.asValue(0, rec));
+
+        columns.setType(0, ColumnType.STRING);
+        Value string = columns.asValue(0, rec);
+        assertTrue( string instanceof ValueString );
+        assertEquals("0123", string.toString());
+        assertSame(string, columns.asValue(0, rec));
+    }
+
+    @Test
+    public void testDatesNotShared() {
+        ValueInterner interner = new ValueInterner(ColumnType.AUTO);
+        Value date = interner.lookup(record("2014-01-05"), 0);
+        assertEquals("2014-01-05", date.toString());
+        assertNotSame(date, interner.lookup(record("2014-01-05"), 0));
+        assertEquals(0, interner.size());
+
+        interner = new ValueInterner(ColumnType.DATE);
+        assertFalse( interner.isEnabled() );
+        assertNotSame(interner.lookup(record("2014-01-05"), 0), interner.lookup(record("2014-01-05"), 0));
+    }
+
+    private CSVRecord record(String field) {
+        byte[] data = field.getBytes(StandardCharsets.UTF_8);
+        return new CSVRecord(data, new int[]{0, data.length}, null);
+    }
+}
@@ -0,0 +1,105 @@
+/******************************************************************
+ * File:        TestCSVChunk.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.epimorphics.dclib.framework.BindingEnv;
+
+public class TestCSVChunk {
+    static final String DATA = "h1,h2\r\n#,x\r\nmeta,a\r\n\"a\",\"multi\r\nline \"\"q\"\"\"\r\nb,c\rd,e\n\nlast,row";
+
+    @Test
+    public void testSplit() throws IOException {
+        File file = makeFile(DATA);
+        try {
+            List<CSVChunk> chunks = CSVChunk.split(file, 3, 1);
+            assertEquals(5, chunks.size());
+            int[] first = new int[]{3, 4, 5, 6, 7};
+            for (int i = 0; i < first.length; i++) {
+                assertEquals(first[i], chunks.get(i).getFirstRecord());
+                assertEquals(1, chunks.get(i).getNumRecords());
+            }
+
+            chunks = CSVChunk.split(file, 3, 1000);
+            assertEquals(1, chunks.size());
+            assertEquals(5, chunks.get(0).getNumRecords());
+            assertEquals(file.length(), chunks.get(0).getEnd());
+
+            assertEquals(0, CSVChunk.split(file, 8, 1).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadChunks() throws IOException {
+        File file = makeFile(DATA);
+        try {
+            String[] headers = new String[]{"h1", "h2"};
+            List<CSVChunk> chunks = CSVChunk.split(file, 3, 10);
+            assertEquals(2, chunks.size());
+
+            CSVInput in = chunks.get(0).open(file, headers);
+            assertEquals(3, in.getLineNumber());
+            BindingEnv row = in.nextRow();
+            assertEquals("a", row.get("h1"));
+            assertEquals("multi\nline \"q\"", row.get("h2"));
+            assertNull( in.nextRow() );
+            in.close();
+
+            in = chunks.get(1).open(file, headers);
+            assertEquals(4, in.getLineNumber());
+            assertEquals("b", in.nextRow().get("h1"));
+            assertEquals("d", in.nextRow().get("h1"));
+            in.nextRow();
+            assertEquals(7, in.getLineNumber());
+            assertEquals("row", in.nextRow().get("h2"));
+            assertNull( in.nextRow() );
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEscapedQuote() throws IOException {
+        // An escaped quote does not start a quoted field, so the line break still ends the record
+        File file = makeFile("k,v\n1,a\0\"b\n2,c\n");
+        try {
+            List<CSVChunk> chunks = CSVChunk.split(file, 1, 1);
+            assertEquals(2, chunks.size());
+            assertEquals(1, chunks.get(0).getFirstRecord());
+            assertEquals(2, chunks.get(1).getFirstRecord());
+
+            CSVInput in = chunks.get(0).open(file, new String[]{"k", "v"});
+            assertEquals("a\"b", in.nextRow().get("v"));
+            assertNull( in.nextRow() );
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private File makeFile(String content) throws IOException {
+        File file = File.createTempFile("chunk-test", ".csv");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
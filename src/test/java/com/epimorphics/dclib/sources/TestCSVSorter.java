@@ -0,0 +1,87 @@
+/******************************************************************
+ * File:        TestCSVSorter.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.epimorphics.util.EpiException;
+
+public class TestCSVSorter {
+    static final String DATA = "key,seq,note\nb,1,x\na,2,\"with, comma\"\nc,3,\"multi\nline \"\"q\"\"\"\n,4,empty\na,5,y\nb,6,z\n";
+    static final String SORTED = "key,seq,note\n,4,empty\na,2,\"with, comma\"\na,5,y\nb,1,x\nb,6,z\nc,3,\"multi\nline \"\"q\"\"\"\n";
+
+    @Test
+    public void testInMemorySort() throws IOException {
+        checkSort(100, 0);
+    }
+
+    @Test
+    public void testMergedRuns() throws IOException {
+        checkSort(2, 3);
+        checkSort(1, 6);
+    }
+
+    @Test
+    public void testPreamble() throws IOException {
+        String data = "#,h1\nmeta,x\n,b\n,a\n";
+        String sorted = sort(data, 1, "h1");
+        assertEquals("#,h1\nmeta,x\n,a\n,b\n", sorted);
+    }
+
+    @Test(expected = EpiException.class)
+    public void testMissingColumn() throws IOException {
+        sort(DATA, 100, "nosuchcolumn");
+    }
+
+    private void checkSort(int runSize, int runs) throws IOException {
+        CSVSorter sorter = new CSVSorter("key");
+        sorter.setRunSize(runSize);
+        assertEquals(SORTED, sort(DATA, sorter));
+        assertEquals(runs, sorter.getRunCount());
+    }
+
+    private String sort(String data, int runSize, String... keys) throws IOException {
+        CSVSorter sorter = new CSVSorter(keys);
+        sorter.setRunSize(runSize);
+        return sort(data, sorter);
+    }
+
+    private String sort(String data, CSVSorter sorter) throws IOException {
+        File file = File.createTempFile("sort-test", ".csv");
+        File sorted = null;
+        try {
+            Files.write(file.toPath(), data.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = new FileInputStream(file)) {
+                CSVInput input = new CSVInput(in);
+                sorted = sorter.sort(input);
+                input.close();
+            }
+            List<String> lines = Files.readAllLines(sorted.toPath(), StandardCharsets.UTF_8);
+            assertTrue(lines.size() > 0);
+            return String.join("\n", lines) + "\n";
+        } finally {
+            file.delete();
+            if (sorted != null) {
+                sorted.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/******************************************************************
+ * File:        TestCSVTokenizer.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestCSVTokenizer {
+
+    @Test
+    public void testQuoting() throws IOException {
+        String data = "\uFEFFh1,h2\r\n\"a\",\"multi\r\nline \"\"q\"\"\"\r\nb,c\rd,e\n\nlast,row";
+        checkAllSources(data,
+                row("h1", "h2"), row("a", "multi\nline \"q\""), row("b", "c"), row("d", "e"), row(""), row("last", "row"));
+
+        // Quirks of the opencsv reader we used to use
+        checkAllSources("ab\"cd\"ef,g\n\"\",\"\"\"\"\na\0b,\"c\0\"d\"\n",
+                row("abcd\"ef", "g"), row("", "\""), row("ab", "c\"d"));
+
+        checkAllSources("a,b,\n,\n", row("a", "b", ""), row("", ""));
+        checkAllSources("");
+    }
+
+    @Test
+    public void testUnterminated() throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer( stream("a,b\n\"unterminated,x\n") );
+        assertTrue( tokenizer.next() );
+        try {
+            tokenizer.next();
+            fail("Expected unterminated quote to be reported");
+        } catch (IOException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    @Test
+    public void testSlices() throws IOException {
+        CSVTokenizer tokenizer = new CSVTokenizer( stream("  a b ,\" q \",x\n") );
+        assertTrue( tokenizer.next() );
+        assertEquals(3, tokenizer.getFieldCount());
+        assertEquals("a b", tokenizer.getTrimmedField(0));
+        assertEquals("  a b ", tokenizer.getField(0));
+        assertEquals(7, tokenizer.getFieldOffset(1));
+        assertEquals(5, tokenizer.getFieldLength(1));
+        assertTrue( tokenizer.isFieldQuoted(1) );
+        assertFalse( tokenizer.isFieldQuoted(2) );
+        assertEquals("q", tokenizer.getTrimmedField(1));
+        assertFalse( tokenizer.next() );
+        tokenizer.close();
+    }
+
+    private void checkAllSources(String data, String[]... expected) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        check(new CSVTokenizer( new ByteArrayInputStream(bytes) ), expected);
+        File file = File.createTempFile("tokenizer-test", ".csv");
+        try {
+            Files.write(file.toPath(), bytes);
+            check(new CSVTokenizer(file), expected);
+            // Small windows force remapping part way through records
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            check(new CSVTokenizer(channel, 0, bytes.length, 2), expected);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void check(CSVTokenizer tokenizer, String[]... expected) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        while (tokenizer.next()) {
+            rows.add( tokenizer.getFields() );
+        }
+        tokenizer.close();
+        assertEquals(expected.length, rows.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], rows.get(i));
+        }
+    }
+
+    private String[] row(String... fields) {
+        return fields;
+    }
+
+    private ByteArrayInputStream stream(String data) {
+        return new ByteArrayInputStream( data.getBytes(StandardCharsets.UTF_8) );
+    }
+}
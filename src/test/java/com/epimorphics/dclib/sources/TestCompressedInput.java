@@ -0,0 +1,126 @@
+/******************************************************************
+ * File:        TestCompressedInput.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.sources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.epimorphics.dclib.sources.CompressedInput.Format;
+
+public class TestCompressedInput {
+    static final String DATA = "id,label\n1,\"one\nline\"\n2,two\n";
+
+    @Test
+    public void testDetect() throws IOException {
+        assertEquals(Format.GZIP, detect( gzip(DATA) ));
+        assertEquals(Format.BZIP2, detect( bzip2(DATA) ));
+        assertEquals(Format.ZSTD, detect( new byte[]{ 0x28, (byte)0xB5, 0x2F, (byte)0xFD } ));
+        assertEquals(Format.NONE, detect( DATA.getBytes(StandardCharsets.UTF_8) ));
+        assertEquals(Format.NONE, detect( new byte[]{ 0x1F } ));
+        assertEquals("data.csv", CompressedInput.removeCompressionExtension("data.csv.gz"));
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        checkRead( DATA.getBytes(StandardCharsets.UTF_8) );
+        checkRead( gzip(DATA) );
+        checkRead( bzip2(DATA) );
+        
+        // Concatenated gzip members
+        ByteArrayOutputStream multi = new ByteArrayOutputStream();
+        multi.write( gzip("id,label\n1,\"one\nline\"\n") );
+        multi.write( gzip("2,two\n") );
+        checkRead( multi.toByteArray() );
+        
+        // Read ahead over many small blocks
+        byte[] data = gzip(DATA);
+        InputStream in = new ReadAheadInputStream(new java.util.zip.GZIPInputStream(new ByteArrayInputStream(data)), 3, 2);
+        assertEquals(DATA, new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+        in.close();
+        
+        // Any failure of the source ends the stream with an error, rather than leaving the consumer waiting
+        in = new ReadAheadInputStream(new InputStream() {
+            int count = 0;
+            @Override
+            public int read() {
+                if (count++ < 5) return 'x';
+                throw new AssertionError("Source failed");
+            }
+        }, 2, 2);
+        try {
+            IOUtils.toByteArray(in);
+            fail("Expected read ahead failure");
+        } catch (IOException e) {
+            assertTrue( e.getMessage().contains("Source failed") );
+        }
+        in.close();
+    }
+    
+    private void checkRead(byte[] bytes) throws IOException {
+        CSVInput input = new CSVInput( new ByteArrayInputStream(bytes) );
+        checkRows(input);
+        
+        File file = File.createTempFile("compressed-test", ".csv");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write(bytes);
+            out.close();
+            checkRows( new CSVInput(file.getPath()) );
+        } finally {
+            file.delete();
+        }
+    }
+    
+    private void checkRows(CSVInput input) throws IOException {
+        assertArrayEquals(new String[]{"id", "label"}, input.getHeaders());
+        assertTrue( input.advance() );
+        assertEquals("one\nline", input.getField(1));
+        assertTrue( input.advance() );
+        assertEquals("two", input.getField(1));
+        assertTrue( !input.advance() );
+        input.close();
+    }
+    
+    private Format detect(byte[] bytes) {
+        return CompressedInput.detect(bytes, Math.min(bytes.length, CompressedInput.MAGIC_LENGTH));
+    }
+    
+    private byte[] gzip(String data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        out.write( data.getBytes(StandardCharsets.UTF_8) );
+        out.close();
+        return bytes.toByteArray();
+    }
+    
+    private byte[] bzip2(String data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new BZip2CompressorOutputStream(bytes);
+        out.write( data.getBytes(StandardCharsets.UTF_8) );
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,89 @@
+/******************************************************************
+ * File:        TestDispatchIndex.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.epimorphics.dclib.framework.BindingEnv;
+import com.epimorphics.dclib.framework.DataContext;
+import com.epimorphics.dclib.framework.ExecutionPlan;
+import com.epimorphics.dclib.framework.Template;
+import com.epimorphics.dclib.values.ValueFactory;
+
+public class TestDispatchIndex {
+
+    @Test
+    public void testCandidates() throws IOException {
+        DataContext dc = new DataContext();
+        Template root = TemplateFactory.templateFrom("test/composite/dispatchTest.yaml", dc);
+        ExecutionPlan plan = ExecutionPlan.resolve(root);
+        DispatchIndex index = plan.getDispatchIndex(root);
+        assertNotNull(index);
+        assertEquals("kind", index.getColumn());
+        assertEquals(3, index.size());
+
+        assertEquals(Arrays.asList("kindA", "all"), names( index.getCandidates(env("A")) ));
+        assertEquals(Arrays.asList("kindB", "all"), names( index.getCandidates(env("B")) ));
+        assertEquals(Arrays.asList("all"), names( index.getCandidates(env("D")) ));
+        assertEquals(Arrays.asList("all"), names( index.getCandidates(new BindingEnv()) ));
+
+        // Each plan has its own index
+        assertSame(index, plan.getDispatchIndex(root));
+        assertEquals("kind", ExecutionPlan.resolve(root).getDispatchIndex(root).getColumn());
+    }
+
+    @Test
+    public void testOrdering() throws IOException {
+        DataContext dc = new DataContext();
+        CompositeTemplate root = (CompositeTemplate) TemplateFactory.templateFrom("test/composite/dispatchTest.yaml", dc);
+        List<Template> children = new ArrayList<>( root.templates );
+
+        // Unindexed children interleaved with indexed ones keep their declared order
+        children.add(1, children.remove(3));
+        DispatchIndex index = new DispatchIndex(children, null);
+        assertEquals(Arrays.asList("kindA", "all", "kindB", "kindC"), names(children));
+        assertEquals(Arrays.asList("kindA", "all"), names( index.getCandidates(env("A")) ));
+        assertEquals(Arrays.asList("all", "kindB"), names( index.getCandidates(env("B")) ));
+        assertEquals(Arrays.asList("all", "kindC"), names( index.getCandidates(env("C")) ));
+
+        // Values which guards would compare numerically could match any child
+        BindingEnv env = new BindingEnv();
+        env.set("kind", 1);
+        assertEquals(names(children), names( index.getCandidates(env) ));
+
+        // Too few children testing a column to be worth indexing, unless declared
+        List<Template> few = children.subList(0, 3);
+        assertEquals(null, new DispatchIndex(few, null).getColumn());
+        assertEquals(Arrays.asList("kindA", "all"), names( new DispatchIndex(few, "kind").getCandidates(env("A")) ));
+    }
+
+    private BindingEnv env(String kind) {
+        BindingEnv env = new BindingEnv();
+        env.set("kind", ValueFactory.asValue(kind));
+        return env;
+    }
+
+    private List<String> names(List<Template> templates) {
+        List<String> names = new ArrayList<>();
+        for (Template t : templates) {
+            names.add( t.getName() );
+        }
+        return names;
+    }
+}
@@ -0,0 +1,57 @@
+/******************************************************************
+ * File:        DateFormatBenchmark.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Rough timing of date parsing and formatting, building the Joda formatter
+ * for each cell (as ValueDate used to) against using the FormatCache.
+ * Not run as part of the tests.
+ */
+public class DateFormatBenchmark {
+    static final String[] CELLS = new String[] {
+        "03/10/2014", "2014-10-03", "15/01/1999", "1999-01-15", "29/02/2012"
+    };
+    static final String FORMAT = "dd/MM/yyyy|yyyy-MM-dd";
+    static final int ROUNDS = 500000;
+
+    public static void main(String[] args) {
+        for (int warm = 0; warm < 3; warm++) {
+            long uncached = time(false);
+            long cached = time(true);
+            System.out.println(String.format("uncached %d ms, cached %d ms", uncached, cached));
+        }
+    }
+
+    private static long time(boolean cached) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            String cell = CELLS[r % CELLS.length];
+            for (String fmt : FORMAT.split("\\|")) {
+                DateTimeFormatter p = cached ? FormatCache.dateFormatter(fmt) : DateTimeFormat.forPattern(fmt);
+                try {
+                    DateTime time = p.parseDateTime(cell);
+                    DateTimeFormatter out = cached ? FormatCache.dateFormatter("yyyy MMM") : DateTimeFormat.forPattern("yyyy MMM");
+                    count += out.print(time).length();
+                    break;
+                } catch (IllegalArgumentException e) {
+                    // try next
+                }
+            }
+            count += (cached ? FormatCache.format("%05d", r) : String.format("%05d", r)).length();
+        }
+        if (count < 0) System.out.println(count);
+        return System.currentTimeMillis() - start;
+    }
+}
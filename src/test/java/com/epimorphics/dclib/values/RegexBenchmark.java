@@ -0,0 +1,53 @@
+/******************************************************************
+ * File:        RegexBenchmark.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rough timing of the regex based string functions, compiling the regex on
+ * each call (as the value functions used to) against using the RegexCache.
+ * Not run as part of the tests.
+ */
+public class RegexBenchmark {
+    static final String[] CELLS = new String[] {
+        "E1 6AN", "SW1A 1AA", "Some text value", "2014-01-05", "code-123/abc", "N/A"
+    };
+    static final int ROUNDS = 1000000;
+
+    public static void main(String[] args) {
+        for (int warm = 0; warm < 3; warm++) {
+            long compile = time(false);
+            long cached = time(true);
+            System.out.println(String.format("compile %d ms, cached %d ms", compile, cached));
+        }
+    }
+
+    private static long time(boolean cached) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            String cell = CELLS[r % CELLS.length];
+            Pattern regex = compile("([A-Z]+)[0-9].*", cached);
+            Matcher m = regex.matcher(cell);
+            if (m.matches()) count++;
+            count += compile("[ /-]", cached).split(cell).length;
+            count += compile("[aeiou]", cached).matcher(cell).replaceAll("_").length();
+            if (compile("[0-9]{4}-[0-9]{2}-[0-9]{2}", cached).matcher(cell).matches()) count++;
+        }
+        if (count < 0) System.out.println(count);
+        return System.currentTimeMillis() - start;
+    }
+
+    private static Pattern compile(String regex, boolean cached) {
+        return cached ? RegexCache.compile(regex) : Pattern.compile(regex);
+    }
+}
@@ -0,0 +1,108 @@
+/******************************************************************
+ * File:        TestLexicalScanner.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.junit.Test;
+
+public class TestLexicalScanner {
+    static final String[] SAMPLES = new String[] {
+        "0", "42", "-7", "+12", "123456789012345678", "9223372036854775807", "9223372036854775808",
+        "-99999999999999999999", "1.5", "-0.25", "1.", ".5", "1e10", "1.5E-3", "2e3.5", "1e", "e1", "--1", "1-2",
+        "2014-01-05", "-2014-01-05", "2014-01-05Z", "2014-01-05+01:00", "2014-01-05T12:30:00", 
+        "2014-01-05T12:30:00.123Z", "2014-01-05T12:30:00.", "2014-01-05T12:30", "12:30:00", "-12:30:00",
+        "12:30:00-05:00", "2014-01", "-2014-01", "2014-01Z", "2014-01-05:00", "2014-13-05", "2014-01-45",
+        "2014-01-05T", "2014-01-05+1:00", "2014/01/05", "foo", "", " 1", "Z", "2014-01-05ZZ"
+    };
+    
+    @Test
+    public void testMatchesPatterns() {
+        for (String s : SAMPLES) {
+            checkAgainstPatterns(s);
+        }
+        // Random strings over the characters which matter
+        Random random = new Random(42);
+        String alphabet = "0123456789-+.:eETZ";
+        for (int n = 0; n < 100000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(30);
+            for (int i = 0; i < len; i++) {
+                sb.append( alphabet.charAt( random.nextInt(alphabet.length()) ) );
+            }
+            checkAgainstPatterns(sb.toString());
+        }
+    }
+    
+    @Test
+    public void testConversion() {
+        assertEquals(Long.valueOf(-7), LexicalScanner.toNumber("-7", LexicalScanner.INTEGER));
+        assertEquals(Long.MAX_VALUE, LexicalScanner.toNumber("9223372036854775807", LexicalScanner.INTEGER));
+        assertEquals(new java.math.BigInteger("9223372036854775808"), LexicalScanner.toNumber("9223372036854775808", LexicalScanner.INTEGER));
+        assertEquals(new java.math.BigDecimal("1.50"), LexicalScanner.toNumber("1.50", LexicalScanner.DECIMAL));
+        assertEquals(1.5e-3, LexicalScanner.toNumber("1.5E-3", LexicalScanner.FLOAT));
+        
+        assertEquals(XSDDatatype.XSDgYearMonth, new ValueDate("2014-01-05:00").asNode().getLiteralDatatype());
+        assertNull( new ValueDate("-12:30:00").asNode() );
+    }
+    
+    @Test
+    public void testColumnTypes() {
+        assertTrue( ColumnType.STRING.asValue("42") instanceof ValueString );
+        assertTrue( ColumnType.NUMBER.asValue("42") instanceof ValueNumber );
+        assertTrue( ColumnType.NUMBER.asValue("2014-01-05") instanceof ValueString );
+        assertTrue( ColumnType.DATE.asValue("2014-01-05") instanceof ValueDate );
+        assertTrue( ColumnType.DATE.asValue("42") instanceof ValueString );
+        assertTrue( ColumnType.AUTO.asValue("2014-01-05") instanceof ValueDate );
+        assertTrue( ColumnType.NUMBER.asValue("") instanceof ValueNull );
+        assertEquals( ColumnType.DATE, ColumnType.fromName("Date") );
+    }
+
+    private void checkAgainstPatterns(String s) {
+        boolean isNumber = ValueNumber.NUMBER_PATTERN.matcher(s).matches();
+        boolean isDate = ValueDate.ANYDATE_PATTERN.matcher(s).matches();
+        int kind = LexicalScanner.classify(s);
+        assertEquals("Number check on " + s, isNumber, LexicalScanner.isNumber(kind));
+        assertEquals("Date check on " + s, isDate && !isNumber, LexicalScanner.isDate(kind));
+        if (isNumber) {
+            assertEquals(expectedNumberKind(s), kind);
+        } else if (isDate) {
+            assertEquals("Date type of " + s, expectedDateType(s), new ValueDate(s, kind).asNode() == null ? null : new ValueDate(s, kind).asNode().getLiteralDatatype());
+        }
+    }
+    
+    private int expectedNumberKind(String s) {
+        if (ValueNumber.INTEGER_PATTERN.matcher(s).matches()) {
+            return LexicalScanner.INTEGER;
+        } else if (ValueNumber.FLOAT_PATTERN.matcher(s).matches()) {
+            return LexicalScanner.FLOAT;
+        } else {
+            return LexicalScanner.DECIMAL;
+        }
+    }
+    
+    private XSDDatatype expectedDateType(String s) {
+        if (ValueDate.DATETIME_PATTERN.matcher(s).matches()) {
+            return XSDDatatype.XSDdateTime;
+        } else if (ValueDate.DATE_PATTERN.matcher(s).matches()) {
+            return XSDDatatype.XSDdate;
+        } else if (ValueDate.TIME_PATTERN.matcher(s).matches()) {
+            return XSDDatatype.XSDtime;
+        } else if (ValueDate.GYEARMONTH_PATTERN.matcher(s).matches()) {
+            return XSDDatatype.XSDgYearMonth;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+/******************************************************************
+ * File:        ValueFactoryBenchmark.java
+ * Created by:  Dave Reynolds
+ * Created on:  18 Oct 2026
+ *
+ * (c) Copyright 2026, Epimorphics Limited
+ *
+ *****************************************************************/
+
+package com.epimorphics.dclib.values;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+/**
+ * Rough timing comparison of cell typing using the scanner against the
+ * original regular expression checks. Not run as part of the tests.
+ */
+public class ValueFactoryBenchmark {
+    static final String[] CELLS = new String[] {
+        "12345", "-0.5", "1.5e3", "2014-01-05", "2014-01-05T12:30:00Z", "12:30:00", "2014-01",
+        "Some text value", "E1 6AN", "http://example.com/id/1", "N/A", "0.000123"
+    };
+    static final int ROUNDS = 2000000;
+
+    public static void main(String[] args) {
+        for (int warm = 0; warm < 3; warm++) {
+            long regex = time(true);
+            long scan = time(false);
+            System.out.println(String.format("regex %d ms, scanner %d ms", regex, scan));
+        }
+    }
+
+    private static long time(boolean regex) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            String cell = CELLS[r % CELLS.length];
+            Value v = regex ? regexAsValue(cell) : ValueFactory.asValue(cell);
+            if (v instanceof ValueNumber) count++;
+        }
+        if (count < 0) System.out.println(count);
+        return System.currentTimeMillis() - start;
+    }
+
+    // The original implementation of ValueFactory.asValue, with the original
+    // ValueNumber(String) and ValueDate(String) constructors inlined
+    private static Value regexAsValue(String string) {
+        if (string == null || string.isEmpty()) {
+            return new ValueNull();
+        } else if (ValueNumber.NUMBER_PATTERN.matcher(string).matches()) {
+            ValueNumber number = new ValueNumber( stringToNumber(string) );
+            number.lexical = string;
+            return number;
+        } else if (ValueDate.ANYDATE_PATTERN.matcher(string).matches()) {
+            return new ValueDate( stringToDate(string) );
+        } else {
+            return new ValueString(string);
+        }
+    }
+
+    // Original ValueNumber.stringToNumber
+    private static Number stringToNumber(String string) {
+        if (string != null) {
+            if (ValueNumber.INTEGER_PATTERN.matcher(string).matches()) {
+                try {
+                    return Long.valueOf(string);
+                } catch (NumberFormatException e) {
+                    return new BigInteger(string);
+                }
+            } else if (ValueNumber.FLOAT_PATTERN.matcher(string).matches()) {
+                return Double.valueOf(string);
+            } else if (ValueNumber.DECIMAL_PATTERN.matcher(string).matches()) {
+                return new BigDecimal(string);
+            }
+        }
+        return null;
+    }
+
+    // Original ValueDate.stringToDate
+    private static Node stringToDate(String value) {
+        if (ValueDate.DATETIME_PATTERN.matcher(value).matches()) {
+            return NodeFactory.createLiteral(value, XSDDatatype.XSDdateTime);
+        } else if (ValueDate.DATE_PATTERN.matcher(value).matches()) {
+            return NodeFactory.createLiteral(value, XSDDatatype.XSDdate);
+        } else if (ValueDate.TIME_PATTERN.matcher(value).matches()) {
+            return NodeFactory.createLiteral(value, XSDDatatype.XSDtime);
+        } else if (ValueDate.GYEARMONTH_PATTERN.matcher(value).matches()) {
+            return NodeFactory.createLiteral(value, XSDDatatype.XSDgYearMonth);
+        } else {
+            return null;
+        }
+    }
+}